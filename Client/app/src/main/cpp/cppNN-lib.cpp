@@ -17,6 +17,7 @@
 #include <sstream>
 #include <fstream>
 #include "../../../../../commonLib/cpp_utils/Base64.h"
+#include "../../../../../commonLib/cpp_utils/FloatWire.h"
 #include <cstdint>
 #include <cstdio>
 #include <fstream>
@@ -49,6 +50,8 @@ int NUMBER_OF_THREADS = 4;//std::thread::hardware_concurrency();
 int E;
 double lrate, sigma, C;
 int mini_batch_size, numLabels, numFeatures;
+// wire format of the last miniBatch; gradients are answered with the same format
+int wireVersion = FloatWire::BASE64;
 std::string solver = "sgd";
 mojo::network cnn(solver.c_str());
 
@@ -141,7 +144,7 @@ JNIEXPORT jintArray JNICALL Java_apps_cppNN_CppNNGradientGenerator_getClassDist(
 }
 
 extern "C"
-JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNGradientGenerator_getGradients(JNIEnv * env, jobject) {
+JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNGradientGenerator_getGradients(JNIEnv * env, jobject, jint hashCode) {
 
     std::vector<float> prevGrads, grads;
 
@@ -231,11 +234,10 @@ JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNGradientGenerator_getGradients
     for (int i = 152; i < 159; ++i)
         __android_log_print(ANDROID_LOG_DEBUG, "INFO", "SEND GRAD: %.6f", prevGrads[i]);
 
-    std::string encoded = Base64::encode(prevGrads);
-    const char* response = encoded.c_str();
+    std::string encoded = FloatWire::encode(prevGrads, hashCode, wireVersion);
 
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
+    jbyteArray array = env->NewByteArray(encoded.size());
+    env->SetByteArrayRegion(array, 0, encoded.size(), (const jbyte*) encoded.data());
 
     return array;
 }
@@ -245,7 +247,9 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNGradientGenerator_fetchNative(JNIEnv
 
     jbyte* buffer = env->GetByteArrayElements(input, NULL);
     jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
+    // mojo text or binary model; the latter contains NUL bytes
+    std::string encoded((const char *) buffer, size);
+    env->ReleaseByteArrayElements(input, buffer, JNI_ABORT);
 
     // Needed for continuing training on this model
     if(DISTILLATION_MODE)
@@ -278,7 +282,6 @@ JNIEXPORT int JNICALL Java_apps_cppNN_CppNNGradientGenerator_fetchMiniBatch(JNIE
 
     jbyte* buffer = env->GetByteArrayElements(input, NULL);
     jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
 
     /*
      * miniBatch[0] = batchSize
@@ -288,7 +291,9 @@ JNIEXPORT int JNICALL Java_apps_cppNN_CppNNGradientGenerator_fetchMiniBatch(JNIE
      * miniBatch[3+featureSize] -> label1
      * ...
      */
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
+    wireVersion = FloatWire::version((const char *) buffer, size);
+    std::vector<float> ret = FloatWire::decode((const char *) buffer, size);
+    env->ReleaseByteArrayElements(input, buffer, JNI_ABORT);
 
     int idx = 0;
     E = ret[idx++];
@@ -339,9 +344,9 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNGradientGenerator_printParamsNative(
 
     jbyte* buffer = env->GetByteArrayElements(input, NULL);
     jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
 
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
+    std::vector<float> ret = FloatWire::decode((const char *) buffer, size);
+    env->ReleaseByteArrayElements(input, buffer, JNI_ABORT);
 
 
     __android_log_print(ANDROID_LOG_DEBUG, "INFO", "Got numbers: ");
@@ -55,4 +55,14 @@ public class SPGradientGenerator implements GradientGenerator {
         return gen.getComputeGradientsTime();
     }
 
+    @Override
+    public int getModelEpoch() {
+        return gen.getModelEpoch();
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return gen.getModelHashCode();
+    }
+
 }
@@ -21,6 +21,7 @@ import java.io.FileReader;
 
 import coreComponents.R;
 import utils.Helpers;
+import utils.ModelDelta;
 
 
 public class CppNNGradientGenerator implements GradientGenerator {
@@ -50,10 +51,20 @@ public class CppNNGradientGenerator implements GradientGenerator {
 
     private byte[] miniBatch;
 
+    /**
+     * last received model (base of the deltas sent by the server)
+     */
+    private byte[] lastModel;
+    private int lastModelEpoch = -1;
+
     static {
         System.loadLibrary("cppNN-lib");
     }
-    private native byte[] getGradients();
+    /**
+     * @param hashCode stamped on the payload when the server sent a binary miniBatch
+     * @return gradients encoded with the wire format of the last miniBatch
+     */
+    private native byte[] getGradients(int hashCode);
     private native void printParamsNative(byte[] inBuffer);
     private native void fetchNative(byte[] inBuffer);
     private native int fetchMiniBatch(byte[] inBuffer);
@@ -88,6 +99,15 @@ public class CppNNGradientGenerator implements GradientGenerator {
         // fetch Model
         kryo.register(byte[].class, new DefaultArraySerializers.ByteArraySerializer());
         byte[] nativeOutput = kryo.readObject(in, byte[].class);
+        if (ModelDelta.isDelta(nativeOutput)) {
+            nativeOutput = ModelDelta.apply(lastModel, nativeOutput);
+            if (nativeOutput == null) {
+                lastModelEpoch = -1; // request the full model
+                throw new ModelDelta.MismatchException("Received model delta does not match the last model");
+            }
+        }
+        lastModel = nativeOutput;
+        lastModelEpoch = epoch;
 
         //System.out.println("Received: " + new String(nativeOutput, StandardCharsets.UTF_8));
         fetchNative(nativeOutput);
@@ -112,7 +132,7 @@ public class CppNNGradientGenerator implements GradientGenerator {
         //kryo.writeObject(output, "SimpleCNNGradientGenerator#ComputeGradientCheck!".getBytes());
 
         double begin = System.currentTimeMillis();
-        byte[] gradients = getGradients();
+        byte[] gradients = getGradients(hashCode);
         computeGradientsTime = System.currentTimeMillis() - begin;
 
         kryo.writeObject(output, gradients);
@@ -148,6 +168,16 @@ public class CppNNGradientGenerator implements GradientGenerator {
         return computeGradientsTime;
     }
 
+    @Override
+    public int getModelEpoch() {
+        return lastModelEpoch;
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return hashCode;
+    }
+
 
 }
 
@@ -146,6 +146,16 @@ public class Dl4jGradientGenerator implements GradientGenerator {
         return computeGradientsTime;
     }
 
+    @Override
+    public int getModelEpoch() {
+        return -1; // always download the full model
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return 0;
+    }
+
     public void fetch(Input in) {
         double t = System.currentTimeMillis();
 
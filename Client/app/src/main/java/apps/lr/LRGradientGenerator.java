@@ -225,5 +225,15 @@ public class LRGradientGenerator implements GradientGenerator {
         return computeGradientsTime;
     }
 
+    @Override
+    public int getModelEpoch() {
+        return -1; // always download the full model
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return 0;
+    }
+
 
 }
@@ -202,5 +202,15 @@ public class MLPGradientGenerator implements GradientGenerator {
         return computeGradientsTime;
     }
 
+    @Override
+    public int getModelEpoch() {
+        return -1; // always download the full model
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return 0;
+    }
+
 
 }
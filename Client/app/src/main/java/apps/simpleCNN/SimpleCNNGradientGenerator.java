@@ -127,6 +127,16 @@ public class SimpleCNNGradientGenerator implements GradientGenerator {
         return computeGradientsTime;
     }
 
+    @Override
+    public int getModelEpoch() {
+        return -1; // always download the full model
+    }
+
+    @Override
+    public int getModelHashCode() {
+        return 0;
+    }
+
 
 }
 
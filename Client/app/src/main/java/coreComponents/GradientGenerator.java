@@ -45,4 +45,15 @@ public interface GradientGenerator {
 
     double getComputeGradientsTime();
 
+    /**
+     * Epoch of the model held from the last fetch (the server may reply with a delta against it)
+     * @return -1 if there is no model to apply a delta to
+     */
+    int getModelEpoch();
+
+    /**
+     * @return hashCode of the model held from the last fetch
+     */
+    int getModelHashCode();
+
 }
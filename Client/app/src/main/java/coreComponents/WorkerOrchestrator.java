@@ -49,6 +49,8 @@ import java.util.zip.ZipException;
 import apps.SPGradientGenerator;
 import utils.DeviceInfo;
 import utils.Helpers;
+import utils.ModelDelta;
+import utils.WireFormat;
 
 //import android.app.ActivityManager.MemoryInfo;
 
@@ -126,7 +128,12 @@ public class WorkerOrchestrator extends AsyncTask<Void, Void, DeviceInfo> {
         String AndroidInfo = deviceName + "," + AndroidVersion + "," + serialNumber;
 
         builder.addTextBody("androidInfo", AndroidInfo, ContentType.TEXT_PLAIN);
-        builder.addTextBody("stats", deviceInfo.getSerializableInfo());
+        builder.addBinaryBody("stats", deviceInfo.getSerializedStats());
+        // request binary float payloads (servers without support fall back to Base64)
+        builder.addTextBody("wireVersion", String.valueOf(WireFormat.BINARY), ContentType.TEXT_PLAIN);
+        // model held from the last round => the server may send only the delta
+        builder.addTextBody("modelEpoch", String.valueOf(calculator.getModelEpoch()), ContentType.TEXT_PLAIN);
+        builder.addTextBody("modelHash", String.valueOf(calculator.getModelHashCode()), ContentType.TEXT_PLAIN);
 
         multipart = builder.build();
         uploadFile.setEntity(multipart);
@@ -159,6 +166,11 @@ public class WorkerOrchestrator extends AsyncTask<Void, Void, DeviceInfo> {
 
             return downloadLatency;
         }
+        catch (ModelDelta.MismatchException e) {
+            // getModelEpoch() is reset => the next request gets the full model
+            Log.d("INFO", e.getMessage() + ". Requesting the full model...");
+            return downloadModel(postUrl, deviceInfo, tempTime);
+        }
         catch (Exception e) {
             e.printStackTrace();
             return -1;
@@ -316,7 +328,7 @@ public class WorkerOrchestrator extends AsyncTask<Void, Void, DeviceInfo> {
                 String AndroidInfo = deviceName + "," + AndroidVersion + "," + serialNumber;
 
                 builder.addTextBody("androidInfo", AndroidInfo, ContentType.TEXT_PLAIN);
-                builder.addTextBody("stats", deviceInfo.getSerializableInfo());
+                builder.addBinaryBody("stats", deviceInfo.getSerializedStats());
                 builder.addTextBody("batchSize", String.valueOf(calculator.getSize()));
 
                 multipart = builder.build();
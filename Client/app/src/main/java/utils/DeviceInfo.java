@@ -263,57 +263,76 @@ public class DeviceInfo {
         return nproc;
     }
 
-    public String getSerializableInfo() {
+    /**
+     * Stats in the {@link DeviceStats} (schema version 1) order
+     */
+    public double[] getStats() {
 
         this.update();
 
-        Matrix infoMatrix = new Matrix(1, 39);
+        double[] stats = new double[DeviceStats.NUM_STATS];
         int i = 0;
-        infoMatrix.set(0, i++, this.availMemory);
-
-        infoMatrix.set(0, i++, this.runningProcess);
-        infoMatrix.set(0, i++, this.coreNumber);
-        //infoMatrix.set(0, i++, this.cpuSpeed);
-        infoMatrix.set(0, i++, this.threadNumberLittle);
-        infoMatrix.set(0, i++, this.threadNumberBig);
-        infoMatrix.set(0, i++, this.bogoMips);
-
-        //infoMatrix.set(0, i++,, this.cacheSize);
-        //infoMatrix.set(0, i++,, 0.0);
-        //infoMatrix.set(0, i++,, this.netSpeed);
-        infoMatrix.set(0, i++, this.networkLatency);
-        infoMatrix.set(0, i++, this.sizeLatency);
-        infoMatrix.set(0, i++, this.meanSizeLatency);
-        infoMatrix.set(0, i++, this.deviceLatency);
-        infoMatrix.set(0, i++, this.heapSize);
-        infoMatrix.set(0, i++, this.ramSize);
-        infoMatrix.set(0, i++, this.bandwidth);
-        infoMatrix.set(0, i++, this.batchSize);
-
-        infoMatrix.set(0, i++, this.sizeEnergy);
-        infoMatrix.set(0, i++, this.idleEnergy);
-        infoMatrix.set(0, i++, this.deviceEnergy);
-
-        infoMatrix.set(0, i++, this.deviceAvailableRam);
-        infoMatrix.set(0, i++, this.deviceTotalRam);
-        infoMatrix.set(0, i++, this.deviceCpuUsage);
-
-        infoMatrix.set(0, i++, this.temperature);
-        infoMatrix.set(0, i++, this.batteryLevel);
-        infoMatrix.set(0, i++, this.volt);
+        stats[i++] = this.availMemory;
+
+        stats[i++] = this.runningProcess;
+        stats[i++] = this.coreNumber;
+        //stats[i++] = this.cpuSpeed;
+        stats[i++] = this.threadNumberLittle;
+        stats[i++] = this.threadNumberBig;
+        stats[i++] = this.bogoMips;
+
+        stats[i++] = this.networkLatency;
+        stats[i++] = this.sizeLatency;
+        stats[i++] = this.meanSizeLatency;
+        stats[i++] = this.deviceLatency;
+        stats[i++] = this.heapSize;
+        stats[i++] = this.ramSize;
+        stats[i++] = this.bandwidth;
+        stats[i++] = this.batchSize;
+
+        stats[i++] = this.sizeEnergy;
+        stats[i++] = this.idleEnergy;
+        stats[i++] = this.deviceEnergy;
+
+        stats[i++] = this.deviceAvailableRam;
+        stats[i++] = this.deviceTotalRam;
+        stats[i++] = this.deviceCpuUsage;
+
+        stats[i++] = this.temperature;
+        stats[i++] = this.batteryLevel;
+        stats[i++] = this.volt;
 
         /**
          * assume that there are maximum 8 cores on mobile platforms
          */
         for (int j = 0; j < 8; j++){
-            infoMatrix.set(0, i+j, this.cpuMaxFreq[j]);
+            stats[i+j] = this.cpuMaxFreq[j];
         }
         i+=8;
 
         for (int j = 0; j < 8; j++){
-            infoMatrix.set(0, i+j, this.cpuCurFreq[j]);
+            stats[i+j] = this.cpuCurFreq[j];
         }
 
+        return stats;
+    }
+
+    /**
+     * @return binary {@link DeviceStats} payload
+     */
+    public byte[] getSerializedStats() {
+        return DeviceStats.encode(getStats());
+    }
+
+    /**
+     * Legacy CSV encoding (parsed by MatrixOps#readMatrix on the server)
+     */
+    public String getSerializableInfo() {
+        double[] stats = getStats();
+        Matrix infoMatrix = new Matrix(1, stats.length);
+        for (int i = 0; i < stats.length; i++)
+            infoMatrix.set(0, i, stats[i]);
+
         return MatrixOperation.printMatrix(infoMatrix);
     }
 
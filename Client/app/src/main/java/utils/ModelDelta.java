@@ -0,0 +1 @@
+../../../../../../commonLib/utils/ModelDelta.java
\ No newline at end of file
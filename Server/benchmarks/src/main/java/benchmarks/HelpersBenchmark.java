@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.Helpers;
+
+/**
+ * Helpers#percentile() on unsorted lists (e.g., Kardam Lipschitz values, CppNNUpdater filter history)
+ * percentile() sorts in place => each call starts from a copy of the same unsorted list (copy included in the score)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpersBenchmark {
+
+	@Param({ "25", "250", "10000" })
+	public int size;
+
+	@Param({ "50", "99" })
+	public double p;
+
+	private ArrayList<Double> values;
+	private ArrayList<Double> work;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random r = new Random(42);
+		values = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			values.add(r.nextDouble());
+		work = new ArrayList<>(size);
+	}
+
+	@Benchmark
+	public double percentile() {
+		work.clear();
+		work.addAll(values);
+		return Helpers.percentile(work, p);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.PrintStream;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.DirectVec;
+import utils.JNITest;
+import utils.Kardam;
+
+/**
+ * Kardam#checkByz() with a full Lipschitz history (25 values per worker) on {@link DirectVec} gradients and models (as in CppNNUpdater)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class KardamBenchmark {
+
+	/**
+	 * number of model parameters (e.g., ~100k for the MNIST cppNN model, ~1M for CIFAR)
+	 */
+	@Param({ "100000", "1000000" })
+	public int params;
+
+	@Param({ "10" })
+	public int workers;
+
+	private static final int LIPS = 25;
+
+	private Kardam<DirectVec, DirectVec> kardam;
+	private DirectVec g, lastGrad, currModel, lastModel;
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		stdout = Synthetic.silence();
+		new JNITest(); // DirectVec natives
+		Random r = new Random(42);
+
+		kardam = new Kardam<>(workers);
+		DirectVec[] grads = { random(r), random(r) };
+		DirectVec[] models = { random(r), random(r) };
+		for (int w = 0; w < workers; w++)
+			for (int i = 0; i <= LIPS; i++) {
+				kardam.setGrad(w, grads[i % 2], i);
+				kardam.setModel(w, models[i % 2]);
+				if (i > 0)
+					kardam.updateLip(w);
+			}
+
+		g = grads[0];
+		lastGrad = grads[1];
+		currModel = models[0];
+		lastModel = models[1];
+	}
+
+	private DirectVec random(Random r) {
+		DirectVec ret = new DirectVec(params);
+		FloatBuffer buf = ret.asFloatBuffer();
+		for (int i = 0; i < params; i++)
+			buf.put(i, (float) r.nextGaussian());
+		return ret;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public boolean checkByz() {
+		return kardam.checkByz(0, g, lastGrad, currModel, lastModel, 1);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.DeviceStats;
+import utils.MatrixOps;
+
+/**
+ * MatrixOps#readMatrix() on the text matrices it parses: a row of device statistics (legacy stats part)
+ * and MNIST/CIFAR-sized rows; decodeStats() is the binary {@link DeviceStats} encoding of the same statistics for comparison
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixOpsBenchmark {
+
+	@State(Scope.Thread)
+	public static class Text {
+
+		/**
+		 * stats: 1 x DeviceStats.NUM_STATS, mnist/cifar: 1 x featureSize
+		 */
+		@Param({ "stats", "mnist", "cifar" })
+		public String matrix;
+
+		private String serialized;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			int cols = matrix.equals("stats") ? DeviceStats.NUM_STATS : Synthetic.featureSize(matrix);
+			Random r = new Random(42);
+
+			// readMatrix() format: length \n rows,cols,values...
+			StringBuilder data = new StringBuilder().append(1).append(',').append(cols);
+			for (int j = 0; j < cols; j++)
+				data.append(',').append(r.nextDouble() * 1000);
+			serialized = data.length() + "\n" + data;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Binary {
+
+		private byte[] stats;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			Random r = new Random(42);
+			double[] values = new double[DeviceStats.NUM_STATS];
+			for (int j = 0; j < values.length; j++)
+				values[j] = r.nextDouble() * 1000;
+			stats = DeviceStats.encode(values);
+		}
+	}
+
+	@Benchmark
+	public DoubleMatrix readMatrix(Text text) {
+		return MatrixOps.readMatrix(new BufferedReader(new StringReader(text.serialized)));
+	}
+
+	@Benchmark
+	public double[] decodeStats(Binary binary) {
+		return DeviceStats.decode(binary.stats);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.io.Output;
+
+import apps.MappedOfflineSampler;
+import apps.dl4j.Dl4jOfflineSampler;
+import apps.dl4j.Dl4jStreamOfflineSampler;
+import apps.lr.LROfflineSampler;
+import apps.mlp.MLPOfflineSampler;
+import coreComponents.Sampler;
+
+/**
+ * Sampler#getSample() of the Java app samplers: mini-batch draw + Kryo serialization (i.e., the computation request path)
+ * The native samplers (cppNN, simpleCNN) read their own binary datasets and are not covered
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SamplerBenchmark {
+
+	@Param({ "lr", "mlp", "dl4j", "mapped", "dl4jStream" })
+	public String sampler;
+
+	@Param({ "mnist", "cifar" })
+	public String dataset;
+
+	/**
+	 * training examples of the synthetic dataset
+	 */
+	@Param({ "2000" })
+	public int rows;
+
+	@Param({ "32", "256" })
+	public int batchSize;
+
+	private String prefix;
+	private Sampler s;
+	private Output output;
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		stdout = Synthetic.silence();
+		prefix = Synthetic.writeDataset(rows, Synthetic.featureSize(dataset), Synthetic.NUM_LABELS, 42);
+		switch (sampler) {
+		case "lr":
+			s = new LROfflineSampler(prefix, 42);
+			break;
+		case "mlp":
+			s = new MLPOfflineSampler(prefix, 42);
+			break;
+		case "dl4j":
+			s = new Dl4jOfflineSampler(prefix, 42);
+			break;
+		case "mapped":
+			s = new MappedOfflineSampler(prefix, 42);
+			break;
+		case "dl4jStream":
+			s = new Dl4jStreamOfflineSampler(prefix, 42);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown sampler: " + sampler);
+		}
+		output = new Output(1 << 20, -1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Synthetic.deleteDataset(prefix);
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public int getSample() {
+		output.clear();
+		s.getSample(batchSize, output);
+		return output.position();
+	}
+}
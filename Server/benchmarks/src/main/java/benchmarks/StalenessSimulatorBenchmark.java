@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.GradientBuffer;
+import utils.Helpers.Tuple;
+import utils.StalenessSimulator;
+
+/**
+ * StalenessSimulator#stalenessSim() over a pending list that holds every staleness value in [0, range]
+ * stalenessSim() removes the picked gradients => each call starts by re-adding the same pending gradients (included in the score)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StalenessSimulatorBenchmark {
+
+	/**
+	 * number of pending gradients
+	 */
+	@Param({ "64", "1024" })
+	public int pending;
+
+	/**
+	 * staleness range (=> stored models = range + 1)
+	 */
+	@Param({ "4", "16" })
+	public int range;
+
+	/**
+	 * M-softsync param
+	 */
+	@Param({ "1", "8" })
+	public int M;
+
+	private static final int CURR_EPOCH = 1000;
+
+	private StalenessSimulator<float[]> sim;
+	private GradientBuffer<float[]> gradients;
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		stdout = Synthetic.silence();
+		sim = new StalenessSimulator<>();
+		Random r = new Random(42);
+		gradients = new GradientBuffer<>(pending);
+		for (int i = 0; i < pending; i++) {
+			int[] classDist = new int[Synthetic.NUM_LABELS];
+			classDist[r.nextInt(classDist.length)] = 1;
+			// round-robin staleness => every value in [0, range] is available at least M times for pending >= M * (range + 1)
+			gradients.add(new float[0], classDist, CURR_EPOCH - i % (range + 1), i, 1);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public Tuple<Integer, GradientBuffer<float[]>> stalenessSim() {
+		sim.clear();
+		for (int i = 0; i < pending; i++)
+			sim.add(gradients.payload(i), gradients.labels(i), gradients.epoch(i), gradients.clientId(i), gradients.batchSize(i));
+		return sim.stalenessSim(CURR_EPOCH, range, range, range + 1, M, -1, -1);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.jblas.DoubleMatrix;
+
+/**
+ * Synthetic MNIST/CIFAR-sized inputs for the benchmarks
+ * Only the shapes matter for the measured code paths => no need for the real datasets
+ */
+public class Synthetic {
+
+	public static final int NUM_LABELS = 10;
+
+	/**
+	 * @param dataset mnist (28x28x1) or cifar (32x32x3)
+	 * @return number of input features
+	 */
+	public static int featureSize(String dataset) {
+		switch (dataset) {
+		case "mnist":
+			return 28 * 28;
+		case "cifar":
+			return 32 * 32 * 3;
+		default:
+			throw new IllegalArgumentException("Unknown dataset: " + dataset);
+		}
+	}
+
+	/**
+	 * Writes a training_features.csv / training_labels.csv pair (pixels in [0,1], one-hot labels) to a temporary directory
+	 * @return dataset prefix for the samplers
+	 */
+	public static String writeDataset(int rows, int featureSize, int numLabels, long seed) throws IOException {
+		File dir = Files.createTempDirectory("fleet-bench").toFile();
+		String prefix = dir.getAbsolutePath() + "/synthetic_";
+		Random r = new Random(seed);
+		try (BufferedWriter x = new BufferedWriter(new FileWriter(prefix + "training_features.csv"));
+				BufferedWriter t = new BufferedWriter(new FileWriter(prefix + "training_labels.csv"))) {
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < featureSize; j++) {
+					if (j > 0)
+						x.write(',');
+					x.write(Float.toString(r.nextInt(256) / 255f));
+				}
+				x.newLine();
+				int label = r.nextInt(numLabels);
+				for (int j = 0; j < numLabels; j++) {
+					if (j > 0)
+						t.write(',');
+					t.write(j == label ? '1' : '0');
+				}
+				t.newLine();
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * Removes the directory created by {@link #writeDataset(int, int, int, long)}
+	 */
+	public static void deleteDataset(String prefix) {
+		File dir = new File(prefix).getParentFile();
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	public static DoubleMatrix randn(int rows, int cols, Random r) {
+		DoubleMatrix ret = new DoubleMatrix(rows, cols);
+		for (int i = 0; i < ret.length; i++)
+			ret.put(i, 0.01 * r.nextGaussian());
+		return ret;
+	}
+
+	/**
+	 * Drops System.out; the server components log every call which would otherwise dominate the measurements
+	 * @return the previous stream (to be restored on tear down)
+	 */
+	public static PrintStream silence() {
+		PrintStream prev = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		return prev;
+	}
+}
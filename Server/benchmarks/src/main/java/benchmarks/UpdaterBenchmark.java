@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.jblas.DoubleMatrix;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.cpu.nativecpu.NDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions.LossFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+import com.esotericsoftware.kryo.serializers.MapSerializer;
+
+import apps.dl4j.Dl4jExtraParams;
+import apps.dl4j.Dl4jUpdater;
+import apps.lr.LRGradients;
+import apps.lr.LRModelParams;
+import apps.lr.LRUpdater;
+import apps.mlp.MLPGradients;
+import apps.mlp.MLPModelParams;
+import apps.mlp.MLPUpdater;
+import coreComponents.SGDUpdater;
+import utils.dl4j.MultiLayerNetworkSerializer;
+import utils.dl4j.MyMultiLayerNetwork;
+import utils.dl4j.Nd4jSerializer;
+
+/**
+ * SGDUpdater#getParameters() (model serialization) and SGDUpdater#update() (gradient decoding + model update) of the Java apps
+ * The updaters are initialized with staleness size = 1 and M = 1 => every update() call applies its gradient
+ * The gradient payloads are encoded once in the Client format; only the per-request header (model epoch) is re-encoded per call
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UpdaterBenchmark {
+
+	@Param({ "lr", "mlp", "dl4j" })
+	public String app;
+
+	@Param({ "mnist", "cifar" })
+	public String dataset;
+
+	/**
+	 * hidden units of the mlp and dl4j models
+	 */
+	@Param({ "100" })
+	public int hidden;
+
+	/**
+	 * mini-batch size of the dl4j gradient
+	 */
+	@Param({ "32" })
+	public int batchSize;
+
+	private SGDUpdater updater;
+	private Kryo kryo;
+	private Output output;
+	private PrintStream stdout;
+
+	/**
+	 * Gradient payload without the per-request header
+	 */
+	private byte[] gradients;
+	/**
+	 * Model hashCode stamped on the dl4j gradients
+	 */
+	private int hashCode;
+	/**
+	 * Epoch of the latest model (advanced by every update)
+	 */
+	private int epoch;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		stdout = Synthetic.silence();
+		int featureSize = Synthetic.featureSize(dataset);
+		int numLabels = Synthetic.NUM_LABELS;
+		Random r = new Random(42);
+
+		kryo = new Kryo();
+		output = new Output(1 << 20, -1);
+		epoch = 0;
+
+		switch (app) {
+		case "lr":
+			kryo.register(LRModelParams.class);
+			updater = new LRUpdater();
+			updater.initialize(new ByteArrayInputStream(encode(new LRModelParams(0.01, featureSize, numLabels,
+					DoubleMatrix.zeros(numLabels, featureSize), DoubleMatrix.zeros(numLabels)))), null);
+			gradients = encode(new LRGradients(Synthetic.randn(numLabels, featureSize, r), Synthetic.randn(numLabels, 1, r), batchSize));
+			break;
+		case "mlp":
+			kryo.register(MLPModelParams.class);
+			kryo.register(MLPGradients.class);
+			updater = new MLPUpdater();
+			updater.initialize(new ByteArrayInputStream(encode(new MLPModelParams(0.9, 0.1, 0.5, -1, featureSize, hidden,
+					Synthetic.randn(2 * hidden, featureSize, r), Synthetic.randn(hidden, 1, r),
+					Synthetic.randn(2 * hidden, 1, r), Synthetic.randn(1, 1, r), 0, 0))), null);
+			gradients = encode(new MLPGradients(Synthetic.randn(2 * hidden, featureSize, r), Synthetic.randn(hidden, 1, r),
+					Synthetic.randn(2 * hidden, 1, r), Synthetic.randn(1, 1, r), batchSize));
+			break;
+		case "dl4j":
+			setupDl4j(featureSize, numLabels);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown app: " + app);
+		}
+	}
+
+	/**
+	 * Encodes the initialization request of the Driver (see Driver Dl4jModel#getParams()) and a Client gradient (see Dl4jGradientGenerator)
+	 */
+	private void setupDl4j(int featureSize, int numLabels) {
+		MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(42)
+				.optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+				.iterations(1)
+				.learningRate(0.01)
+				.updater(Updater.NESTEROVS).momentum(0.9)
+				.list()
+				.layer(0, new DenseLayer.Builder()
+						.nIn(featureSize)
+						.nOut(hidden)
+						.activation(Activation.RELU)
+						.weightInit(WeightInit.XAVIER)
+						.build())
+				.layer(1, new OutputLayer.Builder(LossFunction.NEGATIVELOGLIKELIHOOD)
+						.nIn(hidden)
+						.nOut(numLabels)
+						.activation(Activation.SOFTMAX)
+						.weightInit(WeightInit.XAVIER)
+						.build())
+				.pretrain(false).backprop(true)
+				.build();
+		MyMultiLayerNetwork net = new MyMultiLayerNetwork(conf);
+		net.init();
+
+		ArrayList<Double> lrates = new ArrayList<>();
+		lrates.add(0.01);
+		kryo.register(ArrayList.class, new CollectionSerializer());
+		kryo.register(MyMultiLayerNetwork.class, new MultiLayerNetworkSerializer());
+		output.clear();
+		kryo.writeObject(output, lrates);
+		kryo.writeObject(output, 1); // staleness size
+		kryo.writeObject(output, 1); // M
+		kryo.writeObject(output, net);
+		updater = new Dl4jUpdater();
+		updater.initialize(new ByteArrayInputStream(output.toBytes()), null);
+
+		// model hashCode is only known to the clients through the computation request
+		output.clear();
+		updater.getParameters(output, true);
+		kryo.register(Dl4jExtraParams.class);
+		hashCode = kryo.readObject(new Input(output.toBytes()), Dl4jExtraParams.class).hashCode;
+
+		INDArray x = Nd4j.rand(batchSize, featureSize);
+		INDArray t = Nd4j.zeros(batchSize, numLabels);
+		for (int i = 0; i < batchSize; i++)
+			t.putScalar(i, i % numLabels, 1);
+		Gradient gradient = net.getGradients(new DataSet(x, t));
+
+		HashMap<String, NDArray> gradientsMap = new HashMap<>();
+		HashMap<String, Character> flattenInfoMap = new HashMap<>();
+		ArrayList<String> orderedKeys = new ArrayList<>();
+		for (String key : gradient.gradientForVariable().keySet()) {
+			gradientsMap.put(key, (NDArray) gradient.getGradientFor(key));
+			flattenInfoMap.put(key, gradient.flatteningOrderForVariable(key));
+			orderedKeys.add(key);
+		}
+		MapSerializer mapser = new MapSerializer();
+		mapser.setValueClass(NDArray.class, new Nd4jSerializer());
+		output.clear();
+		kryo.register(HashMap.class, mapser);
+		kryo.writeObject(output, gradientsMap);
+		kryo.writeObject(output, orderedKeys);
+		kryo.register(HashMap.class, new MapSerializer());
+		kryo.writeObject(output, flattenInfoMap);
+		gradients = output.toBytes();
+	}
+
+	private byte[] encode(Object o) {
+		output.clear();
+		kryo.writeObject(output, o);
+		return output.toBytes();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public int getParameters() {
+		output.clear();
+		updater.getParameters(output, true);
+		return output.position();
+	}
+
+	@Benchmark
+	public void update() {
+		// per-request header: (hashCode,) epoch of the model the gradient was computed on
+		output.clear();
+		switch (app) {
+		case "lr":
+			kryo.writeObject(output, epoch);
+			break;
+		case "dl4j":
+			kryo.writeObject(output, hashCode);
+			kryo.writeObject(output, epoch);
+			break;
+		}
+		updater.update(new SequenceInputStream(new ByteArrayInputStream(output.toBytes()), new ByteArrayInputStream(gradients)));
+		epoch++;
+	}
+}
@@ -16,6 +16,7 @@
 #include <sstream>
 #include <fstream>
 #include "../../../../commonLib/cpp_utils/Base64.h"
+#include "../../../../commonLib/cpp_utils/FloatWire.h"
 #include <cstdint>
 #include <cstdio>
 #include <fstream>
@@ -85,6 +86,44 @@ std::vector<mojo::network*> models;
 int priority, currEpoch;
 mojo::network tempNet;
 
+/**
+ * model hashCode stamped on every FloatWire payload produced by the backend
+ */
+int wireHashCode = 0;
+
+// decodes a float vector from a java byte array (FloatWire binary or legacy Base64)
+std::vector<float> readFloats(JNIEnv * env, jbyteArray input) {
+    jsize size = env->GetArrayLength(input);
+    jbyte* buffer = env->GetByteArrayElements(input, NULL);
+    std::vector<float> ret = FloatWire::decode((const char *) buffer, size);
+    env->ReleaseByteArrayElements(input, buffer, JNI_ABORT);
+    return ret;
+}
+
+// copies the raw bytes of a java byte array (may contain NUL bytes)
+std::string readBytes(JNIEnv * env, jbyteArray input) {
+    jsize size = env->GetArrayLength(input);
+    jbyte* buffer = env->GetByteArrayElements(input, NULL);
+    std::string ret((const char *) buffer, size);
+    env->ReleaseByteArrayElements(input, buffer, JNI_ABORT);
+    return ret;
+}
+
+jbyteArray writeBytes(JNIEnv * env, const std::string &response) {
+    jbyteArray array = env->NewByteArray(response.size());
+    env->SetByteArrayRegion(array, 0, response.size(), (const jbyte*) response.data());
+    return array;
+}
+
+// serializes a model either as mojo text (legacy) or with the mojo binary weights
+std::string modelBytes(mojo::network *net, int wireVersion) {
+    if (wireVersion != FloatWire::BINARY)
+        return net->getParams();
+    std::ostringstream ss;
+    net->write(ss, true);
+    return ss.str();
+}
+
 // performs validation testing
 // returns <error, accuracy>
 std::tuple<float, float> test(mojo::network &cnn, const std::vector<std::vector<float>> &test_images, const std::vector<int> &test_labels, int sample = -1)
@@ -184,7 +223,7 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_initUpdater(JNIEnv * env, jo
     //cnn2.set_learning_rate(initial_learning_rate);
     cnnNew->set_random_augmentation(1,1,0,0,mojo::edge);
 
-    std::string params = cnn.getParams();
+    std::string params = modelBytes(&cnn, FloatWire::BINARY);
     std::istringstream ss(params);
     cnnNew->clear();
     cnnNew->read(ss);
@@ -231,18 +270,16 @@ JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getModelParametersNati
 	printf("Sending priority: %d\n", p); fflush(stdout);
 	modelParams = models[p]->getModelParams();
 
-    std::string encoded = Base64::encode(modelParams);
-
-    const char* response = encoded.c_str();
-
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
+    return writeBytes(env, FloatWire::encode(modelParams, wireHashCode, FloatWire::BINARY));
+}
 
-    return array;
+extern "C"
+JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_setWireHashCode(JNIEnv * env, jobject, jint h) {
+	wireHashCode = h;
 }
 
 extern "C"
-JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getParametersNative(JNIEnv * env, jobject, jint p) {
+JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getParametersNative(JNIEnv * env, jobject, jint p, jint wireVersion) {
 
 
     if(DISTILLATION_MODE){
@@ -258,33 +295,18 @@ JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getParametersNative(JN
         params = models[p]->getParams();
         models[p]->load_model_weights(unquantized_W);
 
-        const char* response = params.c_str();
-
-        jbyteArray array = env->NewByteArray(strlen(response));
-        env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
-
-        return array;
+        return writeBytes(env, params);
     }
     else{
-        std::string params;
         printf("Sending priority: %d\n", p); fflush(stdout);
-        params = models[p]->getParams();
-
-        const char* response = params.c_str();
-
-        jbyteArray array = env->NewByteArray(strlen(response));
-        env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
-
-        return array;
+        return writeBytes(env, modelBytes(models[p], wireVersion));
     }
 }
 
 extern "C"
 JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_fetchParamsNative(JNIEnv * env, jobject, jbyteArray input) {
 
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
+    std::string encoded = readBytes(env, input);
 
     if(DISTILLATION_MODE)
         cnn.start_epoch("distillation");
@@ -296,29 +318,21 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_fetchParamsNative(JNIEnv * e
     std::istringstream ss(encoded);
     cnn.read(ss);
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
-
 }
 
 
 extern "C"
 JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_printParamsNative(JNIEnv * env, jobject, jbyteArray input) {
 
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
-
-    std::vector<int> ret =  Base64::decodeInt(encoded);
+    std::vector<float> ret = readFloats(env, input);
 
 
     printf("Got Numbers: ");
     for (int i=0; i<ret.size(); i++)
-    	printf("%d ", ret[i]);
+    	printf("%.6f ", ret[i]);
     printf("\n");
     fflush(stdout);
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
-
 }
 
 extern "C"
@@ -326,30 +340,22 @@ JNIEXPORT int JNICALL Java_apps_cppNN_CppNNUpdater_modelsSize(JNIEnv * env, jobj
 	return models.size();
 }
 
-extern "C"
-JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_descentNative(JNIEnv * env, jobject, jbyteArray input, jint clientBatchSize, jint staleSize) {
-
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
-
-
-    printf("Updating gradient: ");
-    for (int i = 152; i < 159; ++i)
-    		printf("%.6f ", ret[i]);
-    printf("\n");
-    fflush(stdout);
-
+/**
+ * Sets the mini-batch size and the learning rate of the current epoch before a descent
+ */
+void prepareDescent(int clientBatchSize) {
     cnn.set_mini_batch_size(clientBatchSize);
 
     if(currEpoch < lrates_size){
     	cnn.set_learning_rate(lrates_vec[currEpoch]);
     	printf("Set new learning rate: %.6f\n", lrates_vec[currEpoch]);
     }
+}
 
-    cnn.descent(ret);
+/**
+ * Stores a copy of cnn as the latest model version (after a descent)
+ */
+void pushModel(int clientBatchSize, int staleSize) {
     currEpoch++;
 
     mojo::network *cnnNew = new mojo::network(solver.c_str());
@@ -364,7 +370,7 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_descentNative(JNIEnv * env,
     //cnn2.set_learning_rate(initial_learning_rate);
     cnnNew->set_random_augmentation(1,1,0,0,mojo::edge);
 
-    std::string params = cnn.getParams();
+    std::string params = modelBytes(&cnn, FloatWire::BINARY);
     std::istringstream ss(params);
     cnnNew->clear();
     cnnNew->read(ss);
@@ -377,9 +383,104 @@ JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_descentNative(JNIEnv * env,
     		delete models[0];
     		models.erase(models.begin());
     }
+}
+
+/**
+ * Visits the blocks of the flat layout of the gradients (see mojo::network::flatGrad): weights, then biases
+ * f(x, offset, size) gets the block of net (grads = false) or of the cnn gradient sets (grads = true)
+ * The layout is taken from the gradient sets of cnn (initialized by initUpdater)
+ */
+template <typename F>
+void forEachFlatBlock(mojo::network *net, bool grads, F f) {
+    int offset = 0;
+    for (int i = 0; i < (int) cnn.dW_sets[0].size(); i++) {
+        int size = cnn.dW_sets[0][i].size();
+        if (size > 0)
+            f(grads ? cnn.dW_sets[0][i].x : net->W[i]->x, offset, size);
+        offset += size;
+    }
+    for (int k = 0; k < (int) cnn.dbias_sets[0].size(); k++) {
+        int size = cnn.dbias_sets[0][k].size();
+        if (size > 0)
+            f(grads ? cnn.dbias_sets[0][k].x : net->layer_sets[mojo::network::MAIN_LAYER_SET][k]->bias.x, offset, size);
+        offset += size;
+    }
+}
+
+extern "C"
+JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_descentNative(JNIEnv * env, jobject, jbyteArray input, jint clientBatchSize, jint staleSize) {
+
+    std::vector<float> ret = readFloats(env, input);
+
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
+    printf("Updating gradient: ");
+    for (int i = 152; i < 159; ++i)
+    		printf("%.6f ", ret[i]);
+    printf("\n");
+    fflush(stdout);
+
+    prepareDescent(clientBatchSize);
+    cnn.descent(ret);
+    pushModel(clientBatchSize, staleSize);
+}
+
+extern "C"
+JNIEXPORT int JNICALL Java_apps_cppNN_CppNNUpdater_flatSizeNative(JNIEnv * env, jobject) {
+	return cnn.sizeOfGradients();
+}
 
+/**
+ * Descent with the flat gradient values [lo, lo + length) (zero elsewhere)
+ * => only the parameters of the range change (plain sgd solver)
+ */
+extern "C"
+JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_descentFlatNative(JNIEnv * env, jobject, jbyteArray input, jint lo, jint clientBatchSize, jint staleSize) {
+
+    std::vector<float> slice = readFloats(env, input);
+    int hi = lo + slice.size();
+
+    forEachFlatBlock(&cnn, true, [&](float *x, int offset, int size) {
+        for (int j = 0; j < size; j++)
+            x[j] = offset + j >= lo && offset + j < hi ? slice[offset + j - lo] : 0;
+    });
+
+    prepareDescent(clientBatchSize);
+    cnn.descent();
+    pushModel(clientBatchSize, staleSize);
+}
+
+/**
+ * @return flat parameters [lo, hi) of the model version p (binary FloatWire)
+ */
+extern "C"
+JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getFlatParamsNative(JNIEnv * env, jobject, jint p, jint lo, jint hi) {
+
+    std::vector<float> ret(hi - lo);
+    forEachFlatBlock(models[p], false, [&](float *x, int offset, int size) {
+        for (int j = std::max(lo - offset, 0); j < size && offset + j < hi; j++)
+            ret[offset + j - lo] = x[j];
+    });
+
+    return writeBytes(env, FloatWire::encode(ret, wireHashCode, FloatWire::BINARY));
+}
+
+/**
+ * Overwrites the flat parameters [lo, lo + length) of the current model and of the latest stored version
+ */
+extern "C"
+JNIEXPORT void JNICALL Java_apps_cppNN_CppNNUpdater_setFlatParamsNative(JNIEnv * env, jobject, jbyteArray input, jint lo) {
+
+    std::vector<float> slice = readFloats(env, input);
+    int hi = lo + slice.size();
+
+    auto set = [&](float *x, int offset, int size) {
+        for (int j = std::max(lo - offset, 0); j < size && offset + j < hi; j++)
+            x[j] = slice[offset + j - lo];
+    };
+    forEachFlatBlock(&cnn, false, set);
+    cnn.sync_layer_sets();
+    forEachFlatBlock(models.back(), false, set);
+    models.back()->sync_layer_sets();
 }
 
 extern "C"
@@ -675,7 +776,7 @@ std::vector<float> nonIIDSample(int batchSize, int clientID) {
 }
 
 extern "C"
-JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNOfflineSampler_getMiniBatch(JNIEnv * env, jobject, jint batch_size) {
+JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNOfflineSampler_getMiniBatch(JNIEnv * env, jobject, jint batch_size, jint wireVersion) {
 
 	std::vector<float> miniBatch;
 	batch_size *= E;
@@ -686,132 +787,56 @@ JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNOfflineSampler_getMiniBatch(JN
 
 	currClientID = (currClientID + 1) % numClients;
 
-    std::string encoded = Base64::encode(miniBatch);
-
-    const char* response = encoded.c_str();
-
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
-
-    return array;
+    return writeBytes(env, FloatWire::encode(miniBatch, wireHashCode, wireVersion));
 
 }
 
 extern "C"
 JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_getFlatGradient(JNIEnv * env, jobject, jbyteArray input) {
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
-
-    encoded = Base64::encode(cnn.flatGrad(ret));
-
-    const char* response = encoded.c_str();
-
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
+    std::vector<float> ret = readFloats(env, input);
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
-
-    return array;
+    return writeBytes(env, FloatWire::encode(cnn.flatGrad(ret), wireHashCode, FloatWire::BINARY));
 }
 
 extern "C"
 JNIEXPORT jbyteArray JNICALL Java_apps_cppNN_CppNNUpdater_mergeFlatGradient(JNIEnv * env, jobject, jbyteArray g, jbyteArray flatG) {
-    jbyte* buffer = env->GetByteArrayElements(g, NULL);
-    jsize size = env->GetArrayLength(g);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> grad =  Base64::decodeFloat(encoded.substr(0, size));
-
-    jbyte* buffer2 = env->GetByteArrayElements(flatG, NULL);
-    size = env->GetArrayLength(flatG);
-    encoded = (char *) buffer2;
-
-    std::vector<float> flatGrad =  Base64::decodeFloat(encoded.substr(0, size));
+    std::vector<float> grad = readFloats(env, g);
+    std::vector<float> flatGrad = readFloats(env, flatG);
 
     cnn.mergeFlatGrad(grad, flatGrad);
 
-    encoded = Base64::encode(grad);
-
-    const char* response = encoded.c_str();
-
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
-
-    env->ReleaseByteArrayElements(g, buffer, 0);
-    env->ReleaseByteArrayElements(flatG, buffer2, 0);
-
-    return array;
+    return writeBytes(env, FloatWire::encode(grad, wireHashCode, FloatWire::BINARY));
 }
 
 
 extern "C"
 JNIEXPORT jbyteArray JNICALL Java_utils_ByteVec_scalarMulNative(JNIEnv * env, jobject, jbyteArray input, jdouble a) {
 
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
-
-    std::vector<float> res;
-    for (int i=0; i<ret.size(); i++)
-    		res.push_back(ret[i] * a);
-
-    encoded = Base64::encode(res);
-
-    const char* response = encoded.c_str();
-
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
+    std::vector<float> res = readFloats(env, input);
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
+    for (int i=0; i<res.size(); i++)
+    		res[i] *= a;
 
-    return array;
+    return writeBytes(env, FloatWire::encode(res, wireHashCode, FloatWire::BINARY));
 }
 
 extern "C"
 JNIEXPORT double JNICALL Java_utils_ByteVec_getNorm(JNIEnv * env, jobject, jbyteArray input) {
 
-    jbyte* buffer = env->GetByteArrayElements(input, NULL);
-    jsize size = env->GetArrayLength(input);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> ret =  Base64::decodeFloat(encoded.substr(0, size));
+    std::vector<float> ret = readFloats(env, input);
 
     double s = 0;
     for (int i=0; i<ret.size(); i++)
     		s += ret[i] * ret[i];
 
-    env->ReleaseByteArrayElements(input, buffer, 0);
-
     return sqrt(s);
 }
 
 extern "C"
 JNIEXPORT jbyteArray JNICALL Java_utils_ByteVec_addNative(JNIEnv * env, jobject, jbyteArray a, jbyteArray b) {
 
-    jbyte* buffer = env->GetByteArrayElements(a, NULL);
-    jsize size = env->GetArrayLength(a);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> retA =  Base64::decodeFloat(encoded.substr(0, size));
-
-    env->ReleaseByteArrayElements(a, buffer, 0);
-
-    buffer = env->GetByteArrayElements(b, NULL);
-    size = env->GetArrayLength(b);
-    encoded = (char *) buffer;
-
-    std::vector<float> retB = Base64::decodeFloat(encoded.substr(0, size));
-
-    env->ReleaseByteArrayElements(b, buffer, 0);
+    std::vector<float> retA = readFloats(env, a);
+    std::vector<float> retB = readFloats(env, b);
 
 
     std::cout << "Adding size: " << retA.size() << std::endl;
@@ -834,35 +859,14 @@ JNIEXPORT jbyteArray JNICALL Java_utils_ByteVec_addNative(JNIEnv * env, jobject,
     printf("\n");
     fflush(stdout);
 
-    encoded = Base64::encode(res);
-
-    const char* response = encoded.c_str();
-
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
-
-    return array;
+    return writeBytes(env, FloatWire::encode(res, wireHashCode, FloatWire::BINARY));
 }
 
 extern "C"
 JNIEXPORT jbyteArray JNICALL Java_utils_ByteVec_subtractNative(JNIEnv * env, jobject, jbyteArray a, jbyteArray b) {
 
-    jbyte* buffer = env->GetByteArrayElements(a, NULL);
-    jsize size = env->GetArrayLength(a);
-    std::string encoded = (char *) buffer;
-
-    std::vector<float> retA =  Base64::decodeFloat(encoded.substr(0, size));
-
-    env->ReleaseByteArrayElements(a, buffer, 0);
-
-    buffer = env->GetByteArrayElements(b, NULL);
-    size = env->GetArrayLength(b);
-    encoded = (char *) buffer;
-
-    std::vector<float> retB = Base64::decodeFloat(encoded.substr(0, size));
-
-    env->ReleaseByteArrayElements(b, buffer, 0);
+    std::vector<float> retA = readFloats(env, a);
+    std::vector<float> retB = readFloats(env, b);
 
 
     std::cout << "Subtracting size: " << retA.size() << std::endl;
@@ -880,13 +884,68 @@ JNIEXPORT jbyteArray JNICALL Java_utils_ByteVec_subtractNative(JNIEnv * env, job
     for (int i=0; i<retA.size(); i++)
     		 res.push_back(retA[i] - retB[i]);
 
-    encoded = Base64::encode(res);
+    return writeBytes(env, FloatWire::encode(res, wireHashCode, FloatWire::BINARY));
+}
 
-    const char* response = encoded.c_str();
+/* utils.DirectVec: in-place float32 arithmetic on direct ByteBuffers (no copies, no encoding) */
 
-//    env->DeleteLocalRef(array);
-    jbyteArray array = env->NewByteArray(strlen(response));
-    env->SetByteArrayRegion(array, 0, strlen(response), (jbyte*)response);
+extern "C"
+JNIEXPORT void JNICALL Java_utils_DirectVec_axpyNative(JNIEnv * env, jclass, jobject y, jobject x, jint size, jdouble a) {
 
-    return array;
+    float* yv = (float*) env->GetDirectBufferAddress(y);
+    const float* xv = (const float*) env->GetDirectBufferAddress(x);
+    const float af = (float) a;
+
+    for (int i=0; i<size; i++)
+        yv[i] += af * xv[i];
+}
+
+extern "C"
+JNIEXPORT void JNICALL Java_utils_DirectVec_scaleNative(JNIEnv * env, jclass, jobject v, jint size, jdouble a) {
+
+    float* vv = (float*) env->GetDirectBufferAddress(v);
+    const float af = (float) a;
+
+    for (int i=0; i<size; i++)
+        vv[i] *= af;
+}
+
+extern "C"
+JNIEXPORT jdouble JNICALL Java_utils_DirectVec_dotNative(JNIEnv * env, jclass, jobject a, jobject b, jint size) {
+
+    const float* av = (const float*) env->GetDirectBufferAddress(a);
+    const float* bv = (const float*) env->GetDirectBufferAddress(b);
+
+    double s = 0;
+    for (int i=0; i<size; i++)
+        s += (double) av[i] * bv[i];
+
+    return s;
+}
+
+extern "C"
+JNIEXPORT jdouble JNICALL Java_utils_DirectVec_normNative(JNIEnv * env, jclass, jobject v, jint size) {
+
+    const float* vv = (const float*) env->GetDirectBufferAddress(v);
+
+    double s = 0;
+    for (int i=0; i<size; i++)
+        s += (double) vv[i] * vv[i];
+
+    return sqrt(s);
+}
+
+extern "C"
+JNIEXPORT jdouble JNICALL Java_utils_DirectVec_distanceNative(JNIEnv * env, jclass, jobject a, jobject b, jint size) {
+
+    const float* av = (const float*) env->GetDirectBufferAddress(a);
+    const float* bv = (const float*) env->GetDirectBufferAddress(b);
+
+    double s = 0;
+    for (int i=0; i<size; i++) {
+        double d = (double) av[i] - bv[i];
+        s += d * d;
+    }
+
+    return sqrt(s);
 }
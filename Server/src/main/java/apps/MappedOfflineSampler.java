@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package apps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import coreComponents.Sampler;
+import utils.BatchPool;
+import utils.MappedDataset;
+import utils.MyDataset;
+
+/**
+ * Samples {@link MyDataset} mini-batches from a memory-mapped {@link MappedDataset}
+ * Drop-in replacement for the csv-based samplers of the apps that consume a MyDataset (LR, MLP, Dl4jStream)
+ * Only the sampled rows are read => cost per mini-batch does not depend on the dataset size
+ */
+public class MappedOfflineSampler implements Sampler {
+
+	private Kryo kryo;
+	private MappedDataset dataSet;
+
+	private int trainSize;
+
+	/**
+	 * mini-batch pool to implement "cyclic" rule
+	 */
+	private BatchPool batchPool;
+
+	/**
+	 * Offline Sampler constructor
+	 * Converts the csv files on the first use of the prefix
+	 * @param prefix (e.g. /path/to/datasets/spambase_)
+	 */
+	public MappedOfflineSampler(String prefix) {
+		this(prefix, new Random().nextLong());
+	}
+
+	/**
+	 * @param seed of the mini-batch sampling (for reproducible runs)
+	 * @throws UncheckedIOException if the dataset cannot be converted or mapped
+	 */
+	public MappedOfflineSampler(String prefix, long seed) {
+
+		kryo = new Kryo();
+		kryo.register(MyDataset.class);
+
+		try {
+			dataSet = MappedDataset.open(prefix);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open dataset " + prefix, e);
+		}
+
+		trainSize = dataSet.rows;
+
+		System.out.println("Training examples: " + trainSize);
+		System.out.println("Input latencyFeatures: " + dataSet.featureSize);
+		System.out.println("Labels: " + dataSet.numLabels);
+
+		batchPool = new BatchPool(trainSize, seed);
+	}
+
+	public void reset() {
+		// refresh data pool
+		batchPool.reset();
+	}
+
+	public MyDataset getSample(int size) {
+		if (size > trainSize) {
+			System.out.println("MiniBatch size too large. Reducing to maximum possible: " + trainSize);
+			size = trainSize;
+		}
+
+		// draw without replacement (the pool is refilled if needed)
+		return dataSet.gather(batchPool.nextBatch(size), size);
+	}
+
+	public void getSample(int size, Output output) {
+		MyDataset miniBatch = getSample(size);
+		kryo.writeObject(output, miniBatch);
+	}
+
+}
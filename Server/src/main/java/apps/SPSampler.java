@@ -28,6 +28,7 @@ public class SPSampler implements Sampler {
 	//Dl4jOfflineSampler sampler;
 	//public LROfflineSampler sampler;
 	//SimpleCNNOfflineSampler sampler;
+	//MappedOfflineSampler sampler; // memory-mapped MyDataset sampler (LR, MLP, Dl4jStream)
 	public CppNNOfflineSampler sampler;
 		
 	public SPSampler(String prefix) {
@@ -35,6 +36,7 @@ public class SPSampler implements Sampler {
 		//sampler = new MLPOfflineSampler(prefix);
 		//sampler = new Dl4jOfflineSampler(prefix);
 		//sampler = new SimpleCNNOfflineSampler(prefix);
+		//sampler = new MappedOfflineSampler(prefix);
 		sampler = new CppNNOfflineSampler(prefix);
 	}
 	
@@ -43,6 +45,11 @@ public class SPSampler implements Sampler {
 		sampler.getSample(size, output);
 	}
 
+	@Override
+	public void getSample(int size, Output output, int wireVersion) {
+		sampler.getSample(size, output, wireVersion);
+	}
+
 	@Override
 	public void reset() {
 		sampler.reset();
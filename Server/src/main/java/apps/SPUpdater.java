@@ -44,9 +44,34 @@ public class SPUpdater implements SGDUpdater {
 		upd.getParameters(output, isComputationRequest);
 	}
 
+	@Override
+	public void getParameters(Output output, boolean isComputationRequest, int wireVersion) {
+		upd.getParameters(output, isComputationRequest, wireVersion);
+	}
+
+	@Override
+	public byte[] getCachedParameters(Output output, int wireVersion) {
+		return upd.getCachedParameters(output, wireVersion);
+	}
+
+	@Override
+	public byte[] getCachedParameters(Output output, int wireVersion, int baseEpoch, int baseHashCode) {
+		return upd.getCachedParameters(output, wireVersion, baseEpoch, baseHashCode);
+	}
+
 	@Override
 	public void update(InputStream input) {
 		upd.update(input);
 	}
 
+	@Override
+	public void setActiveWorkers(int workers) {
+		upd.setActiveWorkers(workers);
+	}
+
+	@Override
+	public void close() {
+		upd.close();
+	}
+
 }
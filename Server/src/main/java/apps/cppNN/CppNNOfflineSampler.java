@@ -16,13 +16,14 @@ import com.esotericsoftware.kryo.serializers.DefaultArraySerializers.ByteArraySe
 import coreComponents.Sampler;
 import utils.ByteVec;
 import utils.Kardam;
+import utils.WireFormat;
 
 public class CppNNOfflineSampler implements Sampler {
 
 	private Kryo kryo;
 	
 	private native void initSampler(String s);
-	private native byte[] getMiniBatch(int batchSize);
+	private native byte[] getMiniBatch(int batchSize, int wireVersion);
 
 	
 	/**
@@ -39,8 +40,13 @@ public class CppNNOfflineSampler implements Sampler {
 
 		
 	public void getSample(int size, Output output) {
+		getSample(size, output, WireFormat.BASE64);
+	}
+
+	@Override
+	public void getSample(int size, Output output, int wireVersion) {
 		synchronized(kryo) {
-			kryo.writeObject(output, getMiniBatch(size));
+			kryo.writeObject(output, getMiniBatch(size, wireVersion));
 		}
 	}
 
@@ -10,14 +10,36 @@
 package apps.cppNN;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.math3.exception.MathArithmeticException;
 import org.apache.commons.math3.geometry.Point;
 import org.apache.commons.math3.geometry.Space;
@@ -33,11 +55,15 @@ import com.esotericsoftware.kryo.serializers.MapSerializer;
 import apps.SPSampler;
 import coreComponents.SGDUpdater;
 import coreComponents.Sampler;
-import utils.ByteVec;
+import utils.DirectVec;
+import utils.GradientBuffer;
 import utils.Helpers.*;
 import utils.Helpers;
 import utils.Kardam;
+import utils.ModelDelta;
+import utils.ModelSnapshotCache;
 import utils.StalenessSimulator;
+import utils.WireFormat;
 
 public class CppNNUpdater implements SGDUpdater {
 
@@ -46,16 +72,104 @@ public class CppNNUpdater implements SGDUpdater {
 	ArrayList<Double> lrates;
 	/**
 	 * Collected (gradients, class distribution, epoch, clientID) since the last model update
+	 * Only accessed by the apply thread
 	 */
-	private ArrayList<Quadruple<byte[], int[], Integer, Integer>> acc;
-	
 	private StalenessSimulator<byte[]> staleSim;
 
 	BufferedWriter bw;
 	private long startTime;
 	
 	private int clientRequestsNum;
-	private int clientRequestsSoFar;
+	private AtomicInteger clientRequestsSoFar;
+
+	private static final long ENQUEUE_BACKOFF_NANOS = 100000;
+
+	/**
+	 * Number of most recent gradients the batch size and similarity percentiles follow (system property; default: all)
+	 */
+	public static final String FILTER_WINDOW = "fleet.filterWindow";
+
+	/**
+	 * Initial number of Kardam workers (then set from the active clients) and ms after which an idle worker is evicted
+	 */
+	public static final String KARDAM_WORKERS = "fleet.kardamWorkers", KARDAM_INACTIVITY = "fleet.kardamInactivity";
+
+	/**
+	 * Request threads only decode; each thread needs its own Kryo instance
+	 */
+	private final ThreadLocal<Kryo> kryoLocal = ThreadLocal.withInitial(() -> {
+		Kryo kryo = new Kryo();
+		kryo.register(byte[].class, new ByteArraySerializer());
+		return kryo;
+	});
+
+	/**
+	 * Decoded gradient handed from a request thread to the apply thread
+	 */
+	private static final class Received {
+		final byte[] g;
+		final int[] labels;
+		final int epoch, id, batchSize;
+
+		Received(byte[] g, int[] labels, int epoch, int id, int batchSize) {
+			this.g = g;
+			this.labels = labels;
+			this.epoch = epoch;
+			this.id = id;
+			this.batchSize = batchSize;
+		}
+	}
+
+	/**
+	 * Decoded gradients waiting for the apply thread
+	 * Bounded by pendingCapacity; producers back off instead of blocking on a lock
+	 */
+	private ConcurrentLinkedQueue<Received> pending;
+	private AtomicInteger pendingSize;
+	private int pendingCapacity;
+
+	/**
+	 * Single thread running filtering, dampening and descent
+	 */
+	private volatile Thread applyThread;
+
+	/**
+	 * Set by {@link #close()}; received gradients are dropped afterwards
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Threads scoring the M picked gradients of an update (system property; default: available processors)
+	 * One pool per process (as the native models): re-initializations create new updaters
+	 */
+	public static final String FILTER_THREADS = "fleet.filterThreads";
+	private static final ForkJoinPool filterPool = new ForkJoinPool(Integer.getInteger(FILTER_THREADS, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Guards the native models; held by the apply thread for each update and publication
+	 * Static: the backend state (models, network, epoch) is process-wide, i.e., shared by all updater instances
+	 */
+	private static final Object nativeLock = new Object();
+
+	/**
+	 * Latest published model versions; read lock-free by {@link CppNNUpdater#getParameters}
+	 */
+	private final AtomicReference<ModelSnapshot> snapshot = new AtomicReference<>();
+
+	/**
+	 * Compressed models of the published versions (streamed by the MasterOrchestrator)
+	 */
+	private final ModelSnapshotCache cache = new ModelSnapshotCache();
+
+	/**
+	 * Bitmask of the wire versions requested so far (serialized eagerly on publish)
+	 */
+	private final AtomicInteger servedVersions = new AtomicInteger();
+
+	/**
+	 * Worker ids handed out with computation requests
+	 */
+	private AtomicInteger workerIds;
 	
 	/**
 	 * Number of required gradients for each model update (M-softsync)
@@ -108,19 +222,32 @@ public class CppNNUpdater implements SGDUpdater {
 	/**
 	 * Algorithm for BFT
 	 */
-	private Kardam<ByteVec, ByteVec> kardam;
+	private volatile Kardam<DirectVec, DirectVec> kardam;
 
 	/**
 	 * Last used gradients
 	 * useful for feeding into the Kardam test
 	 */
-	private ByteVec lastGrad;
+	private DirectVec lastGrad;
 	
 	/**
 	 * Last model version
 	 * useful for feeding into the Kardam test
 	 */
-	private ByteVec lastModel;
+	private DirectVec lastModel;
+
+	/**
+	 * Off-heap vectors reused across updates (apply thread): one per candidate, and alternating accumulator and
+	 * model pairs (lastGrad and lastModel stay valid during the next update); a size change re-allocates them
+	 */
+	private DirectVec[] gradSlots = new DirectVec[0];
+	private final DirectVec[] avgSlots = new DirectVec[2], modelSlots = new DirectVec[2];
+	private int slot;
+
+	/**
+	 * Shard k > 0: off-heap vectors reused by {@link #applyShard} (under nativeLock)
+	 */
+	private DirectVec shardAvg, shardGrad;
 	
 	/**
 	 * percentile thresholds 
@@ -129,22 +256,55 @@ public class CppNNUpdater implements SGDUpdater {
 	private int similarity_threshold;
 	
 	/**
-	 * List of batch size computed so far
-	 */
-	private ArrayList<Integer> batchSizes;
-	
-	/**
-	 * List of similarities received so far
+	 * Streaming percentiles of the batch sizes and similarities received so far
+	 * (of the last fleet.filterWindow ones if set)
 	 */
-	private ArrayList<Double> similarities;
+	private Helpers.QuantileSketch batchSizes;
+	private Helpers.QuantileSketch similarities;
 	
 	/**
 	 * Global label vector at the server
 	 * label vector: x[i] = number of examples for class i
 	 */
 	private int[] global_label_vector;
+
+	/**
+	 * Sharded deployment (null => single JVM); see {@link ShardMap}
+	 */
+	private final ShardMap shards = ShardMap.fromSystemProperties();
+
+	/**
+	 * Requests to the other shards (coordinator only)
+	 */
+	private ShardClient shardClient;
+
+	/**
+	 * Size of the flat parameter vector (sharded mode)
+	 */
+	private int flatSize;
+
+	/**
+	 * Coordinator: gradient ids by local slice (identity keys) for the slices stored at the other shards
+	 */
+	private final ConcurrentHashMap<byte[], Long> sliceIds = new ConcurrentHashMap<>();
+	private final AtomicLong sliceIdGen = new AtomicLong();
+
+	/**
+	 * Coordinator: local slices that entered the accumulator (apply thread only)
+	 */
+	private final Set<byte[]> accSlices = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Coordinator: ids of the dropped or consumed gradients; freed by the other shards with the next descent
+	 */
+	private final ConcurrentLinkedQueue<Long> releasedIds = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Shard k > 0: gradient slices routed by the coordinator
+	 */
+	private final ConcurrentHashMap<Long, byte[]> peerSlices = new ConcurrentHashMap<>();
 	
-	private native byte[] getParametersNative(int priority);
+	private native byte[] getParametersNative(int priority, int wireVersion);
 	private native byte[] getModelParametersNative(int priority);
 	private native void fetchParamsNative(byte[] inBuffer);
 	private native void printParamsNative(byte[] inBuffer);
@@ -160,6 +320,11 @@ public class CppNNUpdater implements SGDUpdater {
 	private native byte[] mergeFlatGradient(byte[] grad, byte[] flatGrad);
 	private native boolean hasOutlier();
 	private native int getNumLabels();
+	private native void setWireHashCode(int hashCode);
+	private native int flatSizeNative();
+	private native void descentFlatNative(byte[] slice, int lo, int clientBatchSize, int staleSize);
+	private native byte[] getFlatParamsNative(int priority, int lo, int hi);
+	private native void setFlatParamsNative(byte[] slice, int lo);
 
 
 
@@ -174,6 +339,18 @@ public class CppNNUpdater implements SGDUpdater {
 		kryo1 = new Kryo();
 		kryo1.register(byte[].class, new ByteArraySerializer());
 
+		// the coordinator forwards the same request to the other shards
+		byte[] raw = null;
+		if (shards != null && shards.isCoordinator()) {
+			try {
+				raw = IOUtils.toByteArray(input);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			input = new ByteArrayInputStream(raw);
+		}
+
 		Input in = new Input(input);
 
 		clientRequestsNum = kryo2.readObject(in, Integer.class);
@@ -197,14 +374,21 @@ public class CppNNUpdater implements SGDUpdater {
 		C = kryoR.readObject(in, Double.class);
 		System.out.println("C: " + C);
 
-		clientRequestsSoFar = 0;
+		clientRequestsSoFar = new AtomicInteger();
+
+		// stop the apply thread of a previous initialization
+		stopApplyThread();
 
-		acc = new ArrayList<>();
+		pending = new ConcurrentLinkedQueue<>();
+		pendingSize = new AtomicInteger();
+		pendingCapacity = 4 * Math.max(M, 16);
+		workerIds = new AtomicInteger();
 		
 		coldStartSize = staleSize; // default
 		
-		similarities = new ArrayList<>();
-		batchSizes = new ArrayList<>();
+		int filterWindow = Integer.getInteger(FILTER_WINDOW, 0);
+		similarities = new Helpers.QuantileSketch(Math.max(similarity_threshold, 1), filterWindow);
+		batchSizes = new Helpers.QuantileSketch(Math.max(batch_size_threshold, 1), filterWindow);
 			
 		// load initial epoch
 		int initEpoch = kryoR.readObject(in, Integer.class);
@@ -216,30 +400,58 @@ public class CppNNUpdater implements SGDUpdater {
 		byte[] nativeOutput = kryo1.readObject(in, byte[].class);
 
 		hashCode = nativeOutput.hashCode();
+		setWireHashCode(hashCode);
 		
-		kardam = new Kardam<ByteVec, ByteVec>(10);
+		kardam = new Kardam<DirectVec, DirectVec>(Integer.getInteger(KARDAM_WORKERS, 10), Long.getLong(KARDAM_INACTIVITY, 600000));
 		lastGrad = null;
 		lastModel = null;
 		
 		// System.out.println("Received: " + new String(nativeOutput,
 		// StandardCharsets.UTF_8));
-		fetchParamsNative(nativeOutput);
-		
 		double[] lrates_vec = new double[lrates.size()];
 		for (int i = 0; i < lrates_vec.length; i++) {
 			lrates_vec[i] = lrates.get(i);
 			//System.out.println("Learning rate " + i + " is " + lrates_vec[i]);
 		}
-		initUpdater(lrates_vec, E, sigma, C);
+		synchronized (nativeLock) {
+			fetchParamsNative(nativeOutput);
+			initUpdater(lrates_vec, E, sigma, C);
+
+			global_label_vector = new int[getNumLabels()]; // initialize to zeros
 
-		global_label_vector = new int[getNumLabels()]; // initialize to zeros
+			setCurrEpoch(initEpoch);
+		}
 
-		setCurrEpoch(initEpoch);
+		if (shards != null) {
+			flatSize = flatSizeNative();
+			sliceIds.clear();
+			accSlices.clear();
+			releasedIds.clear();
+			peerSlices.clear();
+			System.out.println("Shard " + shards.id() + "/" + shards.size() + ": parameters [" 
+					+ shards.lo(shards.id(), flatSize) + ", " + shards.hi(shards.id(), flatSize) + ") of " + flatSize);
+		}
+		if (raw != null) {
+			if (shardClient == null)
+				shardClient = new ShardClient(shards);
+			try {
+				shardClient.initialize(raw, hashCode);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
 		staleSim = new StalenessSimulator<>();
+
+		synchronized (nativeLock) {
+			snapshot.set(null);
+			cache.clear();
+			servedVersions.set(1 << WireFormat.BASE64);
+			publish();
+		}
 	
 		
-		String path = System.getProperty("user.home") + "/ServerOut";
+		String path = System.getProperty("user.home") + "/ServerOut" + (shards != null && !shards.isCoordinator() ? shards.id() : "");
 		System.out.println("Logging to: " + path);
 		FileOutputStream fos = null;
 		try {
@@ -251,50 +463,90 @@ public class CppNNUpdater implements SGDUpdater {
 		bw = new BufferedWriter(new OutputStreamWriter(fos));
 
 		startTime = System.currentTimeMillis();
+
+		applyThread = new Thread(this::applyLoop, "CppNNUpdater-apply");
+		applyThread.setDaemon(true);
+		applyThread.start();
 	}
 
 	@Override
 	public void getParameters(Output output, boolean isComputationRequest) {
-		// lock for concurrent computation and evaluation requests
-		synchronized (acc) {
-			// System.out.println("Received: " + new String(msg,
-			// StandardCharsets.UTF_8));
-			int sendEpoch;
-			
-			byte[] model;
-			if (isComputationRequest) {
-			//	ByteVec modelParams = new ByteVec(getModelParametersNative(getPriority()));
-			//	if (!kardam.checkModelVersion(kardam.currentWorkerId(), modelParams)) {
-					sendEpoch = getCurrEpoch() - (modelsSize() - getPriority() - 1);
-			//		System.out.println("Kardam: Pushing model: " + sendEpoch + " to client: " + kardam.currentWorkerId());
-			//		kardam.setModel(kardam.currentWorkerId(), modelParams); // update simulation kardam info
-					model = getParametersNative(getPriority());
-			/*	}
-				else {
-					sendEpoch = getCurrEpoch() - (modelsSize() - (-1) - 1);
-					System.out.println("Kardam: Pushing model prev: " + sendEpoch + " to client: " + kardam.currentWorkerId());
-					modelParams = new ByteVec(getModelParametersNative(-1));
-					kardam.setModel(kardam.currentWorkerId(), modelParams); // update simulation kardam info
-					model = getParametersNative(getPriority()-1);
-				}*/
-			}
-			else {
-				model = getParametersNative(modelsSize()-1);
-				sendEpoch = getCurrEpoch();
-			}
-			
-			kryo2.writeObject(output, sendEpoch);
-			kryo2.writeObject(output, hashCode);
-			if (isComputationRequest) {
-				kryo2.writeObject(output, kardam.currentWorkerId());
-				kardam.nextWorkerId();
+		getParameters(output, isComputationRequest, WireFormat.BASE64);
+	}
+
+	@Override
+	public void getParameters(Output output, boolean isComputationRequest, int wireVersion) {
+		// lock-free read of the latest published version; never waits for the SGD step
+		ModelSnapshot s = getSnapshot(wireVersion);
+		writeExtras(output, s, isComputationRequest);
+		kryoLocal.get().writeObject(output, s.get(isComputationRequest, wireVersion));
+	}
+
+	@Override
+	public byte[] getCachedParameters(Output output, int wireVersion) {
+		ModelSnapshot s = getSnapshot(wireVersion);
+		writeExtras(output, s, true);
+		return cache.get(s.currEpoch, s.priority, wireVersion,
+				out -> kryoLocal.get().writeObject(out, s.get(true, wireVersion)));
+	}
+
+	@Override
+	public byte[] getCachedParameters(Output output, int wireVersion, int baseEpoch, int baseHashCode) {
+		ModelSnapshot s = getSnapshot(wireVersion);
+		writeExtras(output, s, true);
+		// the client holds an older version of the same model that is still stored => send the delta
+		if (wireVersion == WireFormat.BINARY && baseHashCode == hashCode && baseEpoch >= 0 && baseEpoch < s.sendEpoch(true)) {
+			byte[] delta = cache.getDelta(s.currEpoch, s.priority, wireVersion, baseEpoch, () -> getDelta(s, baseEpoch));
+			if (delta != null)
+				return delta;
+		}
+		return cache.get(s.currEpoch, s.priority, wireVersion,
+				out -> kryoLocal.get().writeObject(out, s.get(true, wireVersion)));
+	}
+
+	/**
+	 * @return {@link ModelDelta} from the model of baseEpoch to the computation model of s 
+	 * or null if the base model is no longer stored
+	 */
+	private byte[] getDelta(ModelSnapshot s, int baseEpoch) {
+		synchronized (nativeLock) {
+			if (snapshot.get() != s) // models shifted since s was published => indices do not match
+				return null;
+			int baseIdx = s.modelsSize - 1 - (s.currEpoch - baseEpoch);
+			if (baseIdx < 0 || baseIdx >= s.priority)
+				return null;
+			return ModelDelta.encode(getParametersNative(baseIdx, WireFormat.BINARY), s.get(true, WireFormat.BINARY), baseEpoch);
+		}
+	}
+
+	/**
+	 * Latest snapshot holding the serialized models for the given wire version
+	 * The first request with a new wire version serializes them under nativeLock
+	 */
+	private ModelSnapshot getSnapshot(int wireVersion) {
+		servedVersions.accumulateAndGet(1 << wireVersion, (x, y) -> x | y);
+		ModelSnapshot s = snapshot.get();
+		if (s.get(true, wireVersion) == null) {
+			synchronized (nativeLock) {
+				s = snapshot.get(); // latest under the lock => matches the native models
+				if (s.get(true, wireVersion) == null)
+					s.fill(wireVersion);
 			}
-			long trainTime = System.currentTimeMillis() - startTime;
-			kryo2.register(Long.class);
-			kryo2.writeObject(output, trainTime);
-			kryo2.register(Integer.class);
-			kryo1.writeObject(output, model);
 		}
+		return s;
+	}
+
+	/**
+	 * Per-request fields preceding the model: epoch, hashCode, worker id (computation only), training time
+	 */
+	private void writeExtras(Output output, ModelSnapshot s, boolean isComputationRequest) {
+		Kryo kryo = kryoLocal.get();
+		kryo.writeObject(output, s.sendEpoch(isComputationRequest));
+		kryo.writeObject(output, hashCode);
+		if (isComputationRequest)
+			kryo.writeObject(output, Math.floorMod(workerIds.getAndIncrement(), kardam.numWorkers()));
+		long trainTime = System.currentTimeMillis() - startTime;
+		kryo.writeObject(output, trainTime);
 	}
 
 	private double getDampen(int tau, double similarity) {
@@ -326,195 +578,563 @@ public class CppNNUpdater implements SGDUpdater {
 	    return l_tau;
 	}
 	
+	/**
+	 * Sizes Kardam (worker ids, subsequent rejects) from the active clients and evicts the idle workers
+	 */
+	@Override
+	public void setActiveWorkers(int workers) {
+		Kardam<DirectVec, DirectVec> k = kardam;
+		if (k == null)
+			return;
+		k.setWorkers(workers);
+		k.evictInactive();
+	}
+
 	@Override
 	public void update(InputStream input) {
-		// TODO
-		// lock for concurrent computation and evaluation requests
-		synchronized (acc) {
-			Input in = new Input(input);
-			ArrayList<Quadruple<byte[], int[], Integer, Integer>> aggregated = null; // M aggregated gradients for updating
-
-			int hashCode = kryoR.readObject(in, Integer.class);
-			int id = kryoR.readObject(in, Integer.class);
-			int epoch = kryoR.readObject(in, Integer.class);
-			int clientBatchSize = kryoR.readObject(in, Integer.class);
-			
-			System.out.println("Received epoch: " + epoch);
-			
-			clientRequestsSoFar++;
-			if (clientRequestsSoFar > clientRequestsNum) {
-				System.out.println("Client request number reached. Exiting Server ...");
-				System.exit(0);
-			}
+		// decode on the request thread; filtering and descent run on the apply thread
+		Input in = new Input(input);
+		Kryo kryo = kryoLocal.get();
+
+		int hashCode = kryo.readObject(in, Integer.class);
+		int id = kryo.readObject(in, Integer.class);
+		int epoch = kryo.readObject(in, Integer.class);
+		int clientBatchSize = kryo.readObject(in, Integer.class);
+		
+		System.out.println("Received epoch: " + epoch);
+		
+		if (clientRequestsSoFar.incrementAndGet() > clientRequestsNum) {
+			System.out.println("Client request number reached. Exiting Server ...");
+			System.exit(0);
+		}
 
-			if (hashCode != this.hashCode) {
-				System.out.println("Gradients refer to different model. Dropping...");
+		if (hashCode != this.hashCode) {
+			System.out.println("Gradients refer to different model. Dropping...");
+			return;
+		}
+
+		byte[] g = kryo.readObject(in, byte[].class);
+		int[] local_label_vector = kryo.readObject(in, int[].class);
+
+		if (WireFormat.isBinary(g) && WireFormat.hashCode(g) != this.hashCode) {
+			System.out.println("Gradient payload refers to different model. Dropping...");
+			return;
+		}
+
+		System.out.println("Read bytes: " + Helpers.humanReadableByteCount(in.total(), false));
+
+		if (shardClient != null && (g = routeSlices(g)) == null)
+			return;
+
+		enqueue(new Received(g, local_label_vector, epoch, id, clientBatchSize));
+	}
+
+	/**
+	 * Sends the slices [lo(k), hi(k)) of the flat gradient to the other shards
+	 * @return slice of the coordinator or null if a shard did not store its slice
+	 */
+	private byte[] routeSlices(byte[] g) {
+		byte[] flat = getFlatGradient(g);
+		byte[][] slices = new byte[shards.size()][];
+		for (int k = 0; k < shards.size(); k++)
+			slices[k] = WireFormat.slice(flat, shards.lo(k, flatSize), shards.hi(k, flatSize));
+
+		long id = sliceIdGen.getAndIncrement();
+		try {
+			shardClient.putSlices(id, slices);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println("Shards unable to store gradient " + id + ". Dropping...");
+			releasedIds.add(id);
+			return null;
+		}
+		sliceIds.put(slices[ShardMap.COORDINATOR], id);
+		return slices[ShardMap.COORDINATOR];
+	}
+
+	/**
+	 * Hands a decoded gradient to the apply thread
+	 * Backs off (without holding any lock) while the queue is full
+	 */
+	private void enqueue(Received gradient) {
+		while (true) {
+			if (closed) {
+				System.out.println("Updater closed. Dropping gradient...");
+				return;
+			}
+			if (pendingSize.incrementAndGet() <= pendingCapacity) {
+				pending.offer(gradient);
+				LockSupport.unpark(applyThread);
 				return;
 			}
+			pendingSize.decrementAndGet();
+			LockSupport.unpark(applyThread);
+			LockSupport.parkNanos(ENQUEUE_BACKOFF_NANOS);
+		}
+	}
 
-			byte[] g = kryoR.readObject(in, byte[].class);
-			int[] local_label_vector = kryoR.readObject(in, int[].class);
-			
-			byte[] pickedG = null;
-			int[] picked_local_label_vector = null;
-			int pickedEpoch = -1;
-			int pickedTau, pickedId;
-			// check if prev gradient
-	/*		if (kardam.checkGradVersion(id, epoch)) {
-	
-				// add gradient to prev
-		//		acc.add(new Triple<>(kardam.getGrad(id).x.v, kardam.getGrad(id).y, id));
-
-				System.out.println("Kardam: Pushing prev gradient for client: " + id);
-				ByteVec tempGrad = new ByteVec(getFlatGradient(g));
-				tempGrad = (ByteVec) tempGrad.scalarMultiply(getLrate() * getDampen(getCurrEpoch() - epoch));
-				kardam.setGrad(id, tempGrad, epoch);
-				kardam.updateLip(id);
-				
-				
+	/**
+	 * Interrupts the apply thread and waits for its current update to finish
+	 */
+	private void stopApplyThread() {
+		Thread t = applyThread;
+		if (t == null)
+			return;
+		t.interrupt();
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		stopApplyThread();
+		if (shardClient != null) {
+			shardClient.shutdown();
+			shardClient = null;
+		}
+		try {
+			if (bw != null)
+				bw.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Apply thread: the only thread that mutates the native models between snapshots
+	 */
+	private void applyLoop() {
+		Thread self = Thread.currentThread();
+		while (!self.isInterrupted()) {
+			Received gradient = pending.poll();
+			if (gradient == null) {
+				LockSupport.park(this);
+				continue;
+			}
+			pendingSize.decrementAndGet();
+			try {
+				synchronized (nativeLock) {
+					try {
+						apply(gradient);
+					} finally {
+						if (shardClient != null)
+							releaseSlices();
+					}
+					publish();
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
-			else {*/
+		}
+	}
+
+	/**
+	 * M-softsync accumulation, filtering, staleness-aware dampening and descent for one received gradient
+	 * Must hold nativeLock
+	 */
+	private void apply(Received gradient) {
+		GradientBuffer<byte[]> aggregated = null; // M aggregated gradients for updating
+		int clientBatchSize = gradient.batchSize;
+
+		byte[] pickedG = null;
+		int[] picked_local_label_vector = null;
+		int pickedEpoch = -1;
+		int pickedTau, pickedId;
+		// check if prev gradient
+/*		if (kardam.checkGradVersion(id, epoch)) {
+
+			// add gradient to prev
+	//		acc.add(new Triple<>(kardam.getGrad(id).x.v, kardam.getGrad(id).y, id));
+
+			System.out.println("Kardam: Pushing prev gradient for client: " + id);
+			ByteVec tempGrad = new ByteVec(getFlatGradient(g));
+			tempGrad = (ByteVec) tempGrad.scalarMultiply(getLrate() * getDampen(getCurrEpoch() - epoch));
+			kardam.setGrad(id, tempGrad, epoch);
+			kardam.updateLip(id);
+			
+			
+		}
+		else {*/
 //				if (id == 2)
 //				{
 //					System.out.println("Dropping gradient from weak worker!");
 //					return;
 //				}
-				
-				acc.add(new Quadruple<>(g, local_label_vector, epoch, id));
-		
-		     	System.out.println("Read bytes: " + Helpers.humanReadableByteCount(in.total(), false));
-
-		     	/* M-soft sync */
-		     	if (acc.size() < M) {
-		     		System.out.println("Gradients left to update: " + (M - acc.size()));
-		     		return;
-		     	}
-		//	}
-			
-		     	if (staleSize > 0) {
-		     	// 	simulate staleness
-		     		int outlierClass = -1;
-		     		if (hasOutlier())
-		     			outlierClass = 0;
-		     		Tuple<Integer, ArrayList<Quadruple<byte[], int[], Integer, Integer>>> temp = staleSim.stalenessSim(
-		     				acc, getCurrEpoch(), staleSize-1, coldStartSize-1, modelsSize(), M, outlierClass, (staleSize-1) * 4);
-		     		
-		     		aggregated = temp.getSecond();
-		     		//if (modelsSize() >= size) // if enough model versions => update priority; else update only if passes filter
-		     		setPriority(temp.getFirst());
-		     		if (aggregated == null) // not possible to update with the available gradients
-		     			return;
-		     	}
-		     	else {
-		     		aggregated = acc; // FIXME evaluation priority issues
-		     		setPriority(0);
-		     	}
-		     	
-		     	// update with M picked grads
-		     	Quadruple<byte[], int[], Integer, Integer> picked;
-		     	ByteVec avg = null;
-	     		int avgSize = 0; // number of gradients that passed the filter and can be averaged (avgSize <= M)
-	     		ByteVec currModel = new ByteVec(getModelParametersNative(modelsSize()-1));
-
-	     		int[] window_label_vector = new int[getNumLabels()];
-		     	for (int i=0; i<M; i++) {
-		     		picked = aggregated.remove(0);
-		     		
-		     		pickedG = picked.getFirst();
-		     		picked_local_label_vector  = picked.getSecond();
-		     		pickedEpoch = picked.getThird();
-		     		pickedId = picked.getFourth();
-		     		pickedTau = getCurrEpoch() - pickedEpoch;
 			
-		     		String out = "\tresponse: clientRequestID|epoch|staleness|time:," + pickedId + "," + getCurrEpoch() + "," +  + pickedTau + 
-		     				"," + (System.currentTimeMillis() - startTime) + "\n";
-		     		System.out.print(out);
-			
-					System.out.println("Local label vector: " + Arrays.toString(picked_local_label_vector));
-					System.out.println("Global label vector: " + Arrays.toString(global_label_vector));
-
-					// batchSize-based pruning
-				    int batchSize = 0;
-				    for (int k=0; k<picked_local_label_vector.length; k++)
-				    	batchSize += picked_local_label_vector[k];
-				    System.out.println("Batch size: " + batchSize);
-					batchSizes.add(batchSize);	
-					int batch_thres = 0;
-					if (batch_size_threshold > 0)
-						batch_thres = (int) Helpers.percentile(Helpers.toDouble(batchSizes), batch_size_threshold);
-					if (batchSize < batch_thres) {
-						System.out.println("Dropping batch size: " + batchSize);
-						return;
-					}
-				    
-					// similarity-based pruning
-				    double similarity = Helpers.similarity(picked_local_label_vector, global_label_vector);
-				    System.out.println("Similarity: " + similarity);
-				    similarities.add(similarity);
-					double sim_thres = 0;
-					if (similarity_threshold > 0)
-						sim_thres = Helpers.percentile(similarities, similarity_threshold);
-				    if (similarity < sim_thres) {
-				    	System.out.println("Dropping similarity: " + similarity);
-				    	return;
-				    }
-				    
-		     		// staleness-aware dampening
-		     		ByteVec pickedGrad = new ByteVec(getFlatGradient(pickedG));
-		     		pickedGrad = (ByteVec) pickedGrad.scalarMultiply(getDampen(pickedTau, similarity));
-		   
-		     		// update window label vector
-		     		for (int j=0; j<window_label_vector.length; j++)
-		     			window_label_vector[j] += picked_local_label_vector[j];
-		     		
-		     		// update kardam info
-		     		ByteVec pickedModel = null;
-		     		if (modelsSize()-1 - pickedTau >= 0) {
-		     			pickedModel = new ByteVec(getModelParametersNative(modelsSize()-1 - pickedTau));
-		     			if ((modelsSize() == staleSize)) {
-		     				System.out.println("Kardam: Pushing info for client: " + pickedId);
-		     				kardam.setModel(pickedId, pickedModel);
-		     				// multiply with learning rate for Kardam info
-		     				if (kardam.setGrad(pickedId, (ByteVec) pickedGrad.scalarMultiply(getLrate()), pickedEpoch)) {
-		     					kardam.updateLip(pickedId);
-		     				}
-		     			}
-		     		}
-			     	else
-			     		System.out.println("Unable to fetch model for Kardam with priority: " + (modelsSize()-1 - pickedTau));
-		     		
-		     		// if not enough model versions yet (stale_size+1) || kardam check
+			staleSim.add(gradient.g, gradient.labels, gradient.epoch, gradient.id, gradient.batchSize);
+			if (shardClient != null)
+				accSlices.add(gradient.g);
+
+	     	/* M-soft sync */
+	     	if (staleSim.size() < M) {
+	     		System.out.println("Gradients left to update: " + (M - staleSim.size()));
+	     		return;
+	     	}
+	//	}
+		
+	     	if (staleSize > 0) {
+	     	// 	simulate staleness
+	     		int outlierClass = -1;
+	     		if (hasOutlier())
+	     			outlierClass = 0;
+	     		Tuple<Integer, GradientBuffer<byte[]>> temp = staleSim.stalenessSim(
+	     				getCurrEpoch(), staleSize-1, coldStartSize-1, modelsSize(), M, outlierClass, (staleSize-1) * 4);
+	     		
+	     		aggregated = temp.getSecond();
+	     		//if (modelsSize() >= size) // if enough model versions => update priority; else update only if passes filter
+	     		setPriority(temp.getFirst());
+	     		if (aggregated == null) // not possible to update with the available gradients
+	     			return;
+	     	}
+	     	else {
+	     		aggregated = staleSim.drain(); // FIXME evaluation priority issues
+	     		setPriority(0);
+	     	}
+	     	
+	     	// update with M picked grads
+	     	DirectVec avg = null; // off-heap accumulator; gradients are added in place
+     		int avgSize = 0; // number of gradients that passed the filter and can be averaged (avgSize <= M)
+     		// sharded: gradients are slices of the coordinator range; no Kardam bookkeeping (needs complete gradients)
+     		DirectVec currModel = shardClient == null ? modelSlots[slot] = DirectVec.wrap(getModelParametersNative(modelsSize()-1), modelSlots[slot]) : null;
+     		long[] pickedIds = new long[M];
+     		double[] pickedDampens = new double[M];
+
+     		// batch size and similarity filters (in order: the percentiles follow the received gradients)
+     		int[] window_label_vector = new int[getNumLabels()];
+     		int[] taus = new int[M];
+     		double[] sims = new double[M];
+     		int n = M; // candidates before the first dropped one
+	     	for (int i=0; i<M; i++) {
+	     		pickedG = aggregated.payload(i);
+	     		picked_local_label_vector  = aggregated.labels(i);
+	     		pickedEpoch = aggregated.epoch(i);
+	     		pickedId = aggregated.clientId(i);
+	     		pickedTau = getCurrEpoch() - pickedEpoch;
+		
+	     		String out = "\tresponse: clientRequestID|epoch|staleness|time:," + pickedId + "," + getCurrEpoch() + "," +  + pickedTau + 
+	     				"," + (System.currentTimeMillis() - startTime) + "\n";
+	     		System.out.print(out);
+		
+				System.out.println("Local label vector: " + Arrays.toString(picked_local_label_vector));
+				System.out.println("Global label vector: " + Arrays.toString(global_label_vector));
+
+				// batchSize-based pruning
+			    int batchSize = 0;
+			    for (int k=0; k<picked_local_label_vector.length; k++)
+			    	batchSize += picked_local_label_vector[k];
+			    System.out.println("Batch size: " + batchSize);
+				batchSizes.add(batchSize);	
+				int batch_thres = 0;
+				if (batch_size_threshold > 0)
+					batch_thres = (int) batchSizes.quantile();
+				if (batchSize < batch_thres) {
+					System.out.println("Dropping batch size: " + batchSize);
+					n = i;
+					break;
+				}
+			    
+				// similarity-based pruning
+			    double similarity = Helpers.similarity(picked_local_label_vector, global_label_vector);
+			    System.out.println("Similarity: " + similarity);
+			    similarities.add(similarity);
+				double sim_thres = 0;
+				if (similarity_threshold > 0)
+					sim_thres = similarities.quantile();
+			    if (similarity < sim_thres) {
+			    	System.out.println("Dropping similarity: " + similarity);
+			    	n = i;
+			    	break;
+			    }
+
+			    taus[i] = pickedTau;
+			    sims[i] = similarity;
+	     		// update window label vector
+	     		for (int j=0; j<window_label_vector.length; j++)
+	     			window_label_vector[j] += picked_local_label_vector[j];
+	     	}
+
+	     	// dampening, flattening and Kardam info of the kept candidates on the filter pool
+	     	DirectVec[] pickedGrads = scoreCandidates(aggregated, n, taus, sims, pickedDampens);
+	     	if (n < M) { // dropped gradient => no update
+	     		if (staleSize == 0) // keep the drained gradients for the next round
+	     			staleSim.addAll(aggregated);
+	     		return;
+	     	}
+
+	     	// ordered reduction
+	     	for (int i=0; i<n; i++) {
+	     		DirectVec pickedGrad = pickedGrads[i];
+	     		pickedId = aggregated.clientId(i);
+	     		pickedTau = taus[i];
+	     		// sharded: the other shards can only average the slices of recorded gradients
+	     		Long sliceId = shardClient == null ? null : sliceIds.get(aggregated.payload(i));
+	     		if (shardClient != null && sliceId == null) {
+	     			System.out.println("No slice id for the gradient of client " + pickedId + ". Skipping...");
+	     			continue;
+	     		}
+	     		// if not enough model versions yet (stale_size+1) || kardam check
 //		    		if (kardam.checkByz(id, currGrad, lastGrad, currModel, lastModel)) {
                     if (true || (modelsSize() < staleSize) || kardam.checkByz(pickedId, pickedGrad, lastGrad, currModel, lastModel, pickedTau)) {
 //		    			setPriority(temp.getFirst()); // update priority if gradient passes filter
-		    			if (avg == null)
-		    				avg = pickedGrad;
-		    			else
-		    				avg = (ByteVec) avg.add(pickedGrad);
-		    			
-		    			avgSize++;
-		    		}
-		    		else
-		    			// TODO add the filtered gradient into a candidate list; after the prevPush check this gradient again
-		    			System.out.println("Kardam: Filtered Byzantine gradient");
-		     	}
-		     	
-		     	// update global label vector
-	     		for (int j=0; j<window_label_vector.length; j++)
-	     			global_label_vector[j] += window_label_vector[j];
-		     	
-		     	if (avg != null) {
-		     		avg = (ByteVec) avg.scalarMultiply((double) 1/avgSize);
-		     		pickedG = mergeFlatGradient(pickedG, avg.v);
-	    			descentNative(pickedG, clientBatchSize, coldStartSize); 
-	    			lastGrad = avg;
-	    			lastModel = currModel;
-		     	}	
+	    			if (avg == null)
+	    				avg = avgSlots[slot] = DirectVec.copy(pickedGrad, avgSlots[slot]);
+	    			else
+	    				avg.axpy(1, pickedGrad);
+	    			
+	    			if (shardClient != null) {
+	    				pickedIds[avgSize] = sliceId;
+	    				pickedDampens[avgSize] = pickedDampens[i];
+	    			}
+	    			avgSize++;
+	    		}
+	    		else
+	    			// TODO add the filtered gradient into a candidate list; after the prevPush check this gradient again
+	    			System.out.println("Kardam: Filtered Byzantine gradient");
+	     	}
+	     	
+	     	// update global label vector
+     		for (int j=0; j<window_label_vector.length; j++)
+     			global_label_vector[j] += window_label_vector[j];
+	     	
+	     	if (avg != null && shardClient != null) {
+	     		avg.scale((double) 1/avgSize);
+	     		descentShards(avg, Arrays.copyOf(pickedIds, avgSize), Arrays.copyOf(pickedDampens, avgSize), clientBatchSize);
+	     	}
+	     	else if (avg != null) {
+	     		avg.scale((double) 1/avgSize);
+	     		pickedG = mergeFlatGradient(pickedG, avg.toPayload(hashCode));
+    			descentNative(pickedG, clientBatchSize, coldStartSize); 
+    			lastGrad = avg;
+    			lastModel = currModel;
+    			slot = 1 - slot;
+	     	}	
 
-			
-			// flush accumulator in case simulation is not used 
-			aggregated.clear();
+		
+		// flush accumulator in case simulation is not used 
+		aggregated.clear();
+	}
+
+	/**
+	 * Staleness-aware dampening, flattening and Kardam info for the first n picked gradients
+	 * One filter pool task per client (its gradients in order: Kardam keeps per-client history); the native calls only read the models
+	 * Must hold nativeLock
+	 * @param dampens output: dampening of each gradient
+	 * @return dampened flat gradients (slices if sharded)
+	 */
+	private DirectVec[] scoreCandidates(GradientBuffer<byte[]> aggregated, int n, int[] taus, double[] sims, double[] dampens) {
+		DirectVec[] res = new DirectVec[n];
+		if (gradSlots.length < n)
+			gradSlots = Arrays.copyOf(gradSlots, n);
+		DirectVec[] slots = gradSlots;
+		int versions = modelsSize();
+		double lrate = getLrate();
+
+		Map<Integer, List<Integer>> byClient = new LinkedHashMap<>();
+		for (int i = 0; i < n; i++)
+			byClient.computeIfAbsent(aggregated.clientId(i), k -> new ArrayList<>()).add(i);
+
+		List<ForkJoinTask<Void>> tasks = new ArrayList<>(byClient.size());
+		for (List<Integer> indices : byClient.values())
+			tasks.add(filterPool.submit((Callable<Void>) () -> {
+				for (int i : indices) {
+					byte[] g = aggregated.payload(i);
+					int id = aggregated.clientId(i), tau = taus[i];
+					dampens[i] = getDampen(tau, sims[i]);
+					res[i] = slots[i] = DirectVec.wrap(shardClient == null ? getFlatGradient(g) : g, slots[i]).scale(dampens[i]);
+
+					// update kardam info (sharded: complete models and gradients are not available)
+					if (shardClient == null && versions-1 - tau >= 0) {
+						if (versions == staleSize) {
+							System.out.println("Kardam: Pushing info for client: " + id);
+							// new vectors: Kardam keeps them as the per-worker history
+							kardam.setModel(id, DirectVec.wrap(getModelParametersNative(versions-1 - tau)));
+							// multiply with learning rate for Kardam info
+							if (kardam.setGrad(id, (DirectVec) res[i].scalarMultiply(lrate), aggregated.epoch(i)))
+								kardam.updateLip(id);
+						}
+					}
+					else if (shardClient == null)
+						System.out.println("Unable to fetch model for Kardam with priority: " + (versions-1 - tau));
+				}
+				return null;
+			}));
+
+		// wait for all tasks, uninterruptibly: close() must not return while one still reads the native models
+		RuntimeException failure = null;
+		for (ForkJoinTask<Void> t : tasks) {
+			try {
+				t.join();
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return res;
+	}
+
+	/**
+	 * Sharded descent: the other shards average their slices of the same gradients while the coordinator
+	 * descends on its own range; their updated ranges are then copied into the latest model version
+	 * A failed shard keeps its range unchanged for this update
+	 * Must hold nativeLock
+	 */
+	private void descentShards(DirectVec avg, long[] ids, double[] dampens, int clientBatchSize) {
+		ArrayList<Long> released = new ArrayList<>();
+		for (Long id; (id = releasedIds.poll()) != null; )
+			released.add(id);
+
+		List<Future<byte[]>> remote = shardClient.apply(getCurrEpoch(), clientBatchSize, ids, dampens,
+				released.stream().mapToLong(Long::longValue).toArray());
+		descentFlatNative(avg.toPayload(hashCode), shards.lo(ShardMap.COORDINATOR, flatSize), clientBatchSize, coldStartSize);
+
+		for (int k = 1; k < shards.size(); k++) {
+			try {
+				setFlatParamsNative(remote.get(k).get(), shards.lo(k, flatSize));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+				System.out.println("Shard " + k + " failed; keeping its parameters");
+			}
+		}
+	}
+
+	/**
+	 * Releases the slices of the gradients that left the accumulator (consumed or dropped)
+	 * Must run on the apply thread
+	 */
+	private void releaseSlices() {
+		Set<byte[]> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		staleSim.forEachPayload(kept::add);
+		for (Iterator<byte[]> it = accSlices.iterator(); it.hasNext(); ) {
+			byte[] slice = it.next();
+			if (kept.contains(slice))
+				continue;
+			it.remove();
+			Long id = sliceIds.remove(slice);
+			if (id != null)
+				releasedIds.add(id);
+		}
+	}
+
+	/**
+	 * Shard k > 0: initialization forwarded by the coordinator
+	 * @param hashCode model hashCode of the coordinator
+	 */
+	public void initializeShard(byte[] init, int hashCode) {
+		initialize(new ByteArrayInputStream(init), null);
+		synchronized (nativeLock) {
+			this.hashCode = hashCode;
+			setWireHashCode(hashCode);
 		}
 	}
 
+	/**
+	 * Shard k > 0: stores the slice of a received gradient until the coordinator applies or releases it
+	 */
+	public void putSlice(long id, byte[] slice) {
+		if (WireFormat.hashCode(slice) != hashCode || WireFormat.length(slice) != shards.hi(shards.id(), flatSize) - shards.lo(shards.id(), flatSize))
+			throw new IllegalArgumentException("Gradient slice " + id + " does not match the model of the shard");
+		peerSlices.put(id, slice);
+	}
+
+	/**
+	 * Shard k > 0: descent on the range of the shard with the dampened average of the given gradients
+	 * @param epoch epoch of the coordinator before the descent
+	 * @return flat parameters of the range of the shard for the latest model version
+	 */
+	public byte[] applyShard(int epoch, int clientBatchSize, long[] ids, double[] dampens, long[] released) {
+		int lo = shards.lo(shards.id(), flatSize);
+		int hi = shards.hi(shards.id(), flatSize);
+		synchronized (nativeLock) {
+			if (epoch != getCurrEpoch()) {
+				// missed updates left the range unchanged at the coordinator as well => only the epoch differs
+				System.out.println("Shard epoch " + getCurrEpoch() + " realigned to " + epoch);
+				setCurrEpoch(epoch);
+			}
+
+			DirectVec avg = null;
+			for (int i = 0; i < ids.length; i++) {
+				byte[] slice = peerSlices.remove(ids[i]);
+				if (slice == null) {
+					System.out.println("Missing gradient slice " + ids[i]);
+					continue;
+				}
+				if (avg == null)
+					avg = shardAvg = DirectVec.wrap(slice, shardAvg).scale(dampens[i]);
+				else
+					avg.axpy(1, shardGrad = DirectVec.wrap(slice, shardGrad).scale(dampens[i]));
+			}
+			for (long id : released)
+				peerSlices.remove(id);
+
+			if (avg != null) {
+				avg.scale((double) 1/ids.length);
+				descentFlatNative(avg.toPayload(hashCode), lo, clientBatchSize, coldStartSize);
+			}
+			return getFlatParamsNative(modelsSize()-1, lo, hi);
+		}
+	}
+
+	/**
+	 * Serializes the model versions served to clients and atomically publishes them
+	 * Must hold nativeLock
+	 */
+	private void publish() {
+		int priority = getPriority();
+		int size = modelsSize();
+		int currEpoch = getCurrEpoch();
+		ModelSnapshot curr = snapshot.get();
+		if (curr != null && curr.priority == priority && curr.modelsSize == size && curr.currEpoch == currEpoch)
+			return;
+
+		ModelSnapshot next = new ModelSnapshot(priority, size, currEpoch);
+		for (int v = WireFormat.BASE64; v <= WireFormat.BINARY; v++)
+			if ((servedVersions.get() & (1 << v)) != 0)
+				next.fill(v);
+		snapshot.set(next);
+		cache.publish(currEpoch);
+	}
+
+	/**
+	 * Model versions served to clients between two publications
+	 * The serialized bytes are written once (by the apply thread or, for a newly requested wire version, under nativeLock)
+	 */
+	private class ModelSnapshot {
+		final int priority, modelsSize, currEpoch;
+		final AtomicReferenceArray<byte[]> computation = new AtomicReferenceArray<>(WireFormat.BINARY + 1);
+		final AtomicReferenceArray<byte[]> evaluation = new AtomicReferenceArray<>(WireFormat.BINARY + 1);
+
+		ModelSnapshot(int priority, int modelsSize, int currEpoch) {
+			this.priority = priority;
+			this.modelsSize = modelsSize;
+			this.currEpoch = currEpoch;
+		}
+
+		int sendEpoch(boolean isComputationRequest) {
+			return isComputationRequest ? currEpoch - (modelsSize - priority - 1) : currEpoch;
+		}
+
+		byte[] get(boolean isComputationRequest, int wireVersion) {
+			return isComputationRequest ? computation.get(wireVersion) : evaluation.get(wireVersion);
+		}
+
+		/**
+		 * Must hold nativeLock with this being the latest snapshot
+		 */
+		void fill(int wireVersion) {
+			byte[] model = getParametersNative(priority, wireVersion);
+			computation.set(wireVersion, model);
+			evaluation.set(wireVersion, priority == modelsSize - 1 ? model : getParametersNative(modelsSize - 1, wireVersion));
+		}
+	}
+
+
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package apps.cppNN;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.DefaultArraySerializers.ByteArraySerializer;
+
+/**
+ * Coordinator side of a sharded deployment: requests to the /Shard endpoints of the other shards (see coreComponents.ShardServlet)
+ * Request body: Kryo op | op fields; every call fans out to all the other shards in parallel
+ */
+public class ShardClient {
+
+	/** hashCode | Driver initialization request */
+	public static final int INIT = 0;
+	/** gradient id | gradient slice of the shard */
+	public static final int SLICE = 1;
+	/** coordinator epoch | client batch size | ids | dampening factors | released ids => updated slice of the latest model */
+	public static final int APPLY = 2;
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 120000;
+
+	private final ShardMap shards;
+	private final ExecutorService pool;
+
+	private final ThreadLocal<Kryo> kryoLocal = ThreadLocal.withInitial(() -> {
+		Kryo kryo = new Kryo();
+		kryo.register(byte[].class, new ByteArraySerializer());
+		return kryo;
+	});
+
+	public ShardClient(ShardMap shards) {
+		this.shards = shards;
+		this.pool = Executors.newFixedThreadPool(shards.size() - 1, r -> {
+			Thread t = new Thread(r, "ShardClient");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Initializes the other shards with the request of the Driver; blocks until all of them reply
+	 * @param hashCode model hashCode of the coordinator (stamped on all payloads)
+	 */
+	public void initialize(byte[] init, int hashCode) throws IOException {
+		Output out = request(INIT);
+		out.writeInt(hashCode);
+		kryoLocal.get().writeObject(out, init);
+		byte[] body = out.toBytes();
+		join(fanOut(k -> body));
+	}
+
+	/**
+	 * Routes the slices of a received gradient to their shards; blocks until all of them are stored
+	 * @param slices binary wire payload per shard (slices[COORDINATOR] is kept locally)
+	 */
+	public void putSlices(long id, byte[][] slices) throws IOException {
+		join(fanOut(k -> {
+			Output out = request(SLICE);
+			out.writeLong(id);
+			kryoLocal.get().writeObject(out, slices[k]);
+			return out.toBytes();
+		}));
+	}
+
+	/**
+	 * Starts the descent of the other shards with the dampened average of the given gradients
+	 * @param epoch coordinator epoch before the descent (the shards realign their epoch, e.g., after a missed call)
+	 * @param released ids of gradients that were dropped or consumed since the previous call (freed by the shards)
+	 * @return updated slice of the latest model per shard (index COORDINATOR is null)
+	 */
+	public List<Future<byte[]>> apply(int epoch, int clientBatchSize, long[] ids, double[] factors, long[] released) {
+		Output out = request(APPLY);
+		Kryo kryo = kryoLocal.get();
+		out.writeInt(epoch);
+		out.writeInt(clientBatchSize);
+		kryo.writeObject(out, ids);
+		kryo.writeObject(out, factors);
+		kryo.writeObject(out, released);
+		byte[] body = out.toBytes();
+		return fanOut(k -> body);
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private interface Body {
+		byte[] get(int shard);
+	}
+
+	private Output request(int op) {
+		Output out = new Output(1024, -1);
+		out.writeInt(op);
+		return out;
+	}
+
+	private List<Future<byte[]>> fanOut(Body body) {
+		List<Future<byte[]>> ret = new ArrayList<>(shards.size());
+		ret.add(null);
+		for (int k = 1; k < shards.size(); k++) {
+			int shard = k;
+			ret.add(pool.submit(() -> post(shard, body.get(shard))));
+		}
+		return ret;
+	}
+
+	/**
+	 * Waits for all the shards
+	 */
+	public static List<byte[]> join(List<Future<byte[]>> futures) throws IOException {
+		List<byte[]> ret = new ArrayList<>(futures.size());
+		IOException error = null;
+		for (Future<byte[]> f : futures) {
+			byte[] response = null;
+			try {
+				if (f != null)
+					response = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = new IOException(e);
+			} catch (ExecutionException e) {
+				error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+			ret.add(response);
+		}
+		if (error != null)
+			throw error;
+		return ret;
+	}
+
+	private byte[] post(int shard, byte[] body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(shards.url(shard)).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setFixedLengthStreamingMode(body.length);
+		conn.setRequestProperty("Content-Type", "application/octet-stream");
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(body);
+		}
+		if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+			throw new IOException("Shard " + shard + " (" + shards.url(shard) + ") replied " + conn.getResponseCode());
+		try (InputStream in = conn.getInputStream()) {
+			return IOUtils.toByteArray(in);
+		}
+	}
+}
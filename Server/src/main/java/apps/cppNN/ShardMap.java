@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package apps.cppNN;
+
+/**
+ * Range partitioning of the flat parameter vector across the server nodes (JVMs) of a sharded deployment
+ * Configured per JVM with -Dfleet.shards=url_0,url_1,... (the /Shard endpoints) and -Dfleet.shardId=k
+ * Shard 0 is the coordinator: it receives the Driver and client requests, runs the staleness simulation and filters,
+ * and holds the complete model versions; shard k > 0 only applies the descent on its range
+ */
+public class ShardMap {
+
+	public static final String SHARDS = "fleet.shards";
+	public static final String SHARD_ID = "fleet.shardId";
+
+	public static final int COORDINATOR = 0;
+
+	private final String[] urls;
+	private final int id;
+
+	public ShardMap(String[] urls, int id) {
+		if (id < 0 || id >= urls.length)
+			throw new IllegalArgumentException("Invalid shard id " + id + " for " + urls.length + " shards");
+		this.urls = urls;
+		this.id = id;
+	}
+
+	/**
+	 * @return null if the JVM is not part of a sharded deployment (single shard)
+	 */
+	public static ShardMap fromSystemProperties() {
+		String shards = System.getProperty(SHARDS);
+		if (shards == null || shards.trim().isEmpty())
+			return null;
+		String[] urls = shards.trim().split("\\s*,\\s*");
+		if (urls.length < 2)
+			return null;
+		return new ShardMap(urls, Integer.getInteger(SHARD_ID, COORDINATOR));
+	}
+
+	public int size() {
+		return urls.length;
+	}
+
+	/**
+	 * @return id of this JVM
+	 */
+	public int id() {
+		return id;
+	}
+
+	public boolean isCoordinator() {
+		return id == COORDINATOR;
+	}
+
+	public String url(int shard) {
+		return urls[shard];
+	}
+
+	/**
+	 * @param params size of the flat parameter vector
+	 * @return first parameter of the shard
+	 */
+	public int lo(int shard, int params) {
+		return (int) ((long) params * shard / urls.length);
+	}
+
+	/**
+	 * @return end (exclusive) of the range of the shard
+	 */
+	public int hi(int shard, int params) {
+		return lo(shard + 1, params);
+	}
+}
@@ -17,6 +17,7 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.function.IntToDoubleFunction;
 
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
@@ -39,7 +40,12 @@ import utils.Helpers.*;
 import utils.dl4j.MultiLayerNetworkSerializer;
 import utils.dl4j.MyDefaultGradient;
 import utils.dl4j.MyMultiLayerNetwork;
+import utils.dl4j.ModelVersionRing;
+import utils.dl4j.StalenessAggregator;
 import utils.dl4j.Nd4jSerializer;
+import utils.AsyncLogWriter;
+import utils.GradientBuffer;
+import utils.ModelSnapshotCache;
 import utils.StalenessSimulator;
 
 
@@ -53,19 +59,25 @@ public class Dl4jUpdater implements SGDUpdater {
 	/**
 	 * Collected (gradients, epoch, id) since the last model update
 	 */
-	private ArrayList<Quadruple<Gradient, int[], Integer, Integer>> acc;
-	
-	private StalenessSimulator<Gradient> staleSim;
+	private StalenessSimulator<INDArray> staleSim;
 
-	private boolean firstInvoke;
+	/**
+	 * Dampening policy (system property fleet.dampening: average, inverse, exp or custom; default: average)
+	 */
+	public static final String DAMPENING = "fleet.dampening";
+	private IntToDoubleFunction dampening;
+	/**
+	 * Created on the first gradient (variable layout)
+	 */
+	private StalenessAggregator aggregator;
 	
 	/**
-	 * List of models for on-demand staleness updates
-	 * stale[list.size() -1] (i.e. end of the list) is the most recent version of the model
-	 * stale[list.size() -2] is the model before one update
+	 * Model versions for on-demand staleness updates
+	 * models.get(models.size() -1) is the most recent version of the model
+	 * models.get(models.size() -2) is the model before one update
 	 * ...
 	 */
-	ArrayList<MyMultiLayerNetwork> models;
+	ModelVersionRing models;
 	/**  
 	 * Maximum size for {@link Dl4jUpdater#models}
 	 */
@@ -82,10 +94,15 @@ public class Dl4jUpdater implements SGDUpdater {
 	
 	ArrayList<Double> lrates;
 	
-	BufferedWriter bw;
+	private AsyncLogWriter log;
 	private long startTime;
 	
 	private MapSerializer mapser;
+
+	/**
+	 * Compressed (configuration, params) of the served model versions
+	 */
+	private final ModelSnapshotCache cache = new ModelSnapshotCache();
 	
 	@SuppressWarnings("unchecked")
 	@Override
@@ -129,8 +146,6 @@ public class Dl4jUpdater implements SGDUpdater {
 
 		// load staleness size for simulator
 		size = kryoR.readObject(in, Integer.class);
-		acc = new ArrayList<>();
-		models = new ArrayList<>();
 		System.out.println("Staleness size: " + size);
 		
 		// load M-softsync param
@@ -139,11 +154,15 @@ public class Dl4jUpdater implements SGDUpdater {
 		// load model
 		MultiLayerNetwork restored = kryo1.readObject(in, MyMultiLayerNetwork.class);
 		
-		models.add(new MyMultiLayerNetwork(restored.getLayerWiseConfigurations(), restored.params()));
+		// working network: updated in place; its versions are kept in the ring
+		MyMultiLayerNetwork network = new MyMultiLayerNetwork(restored.getLayerWiseConfigurations().clone());
+		network.init(restored.params().dup(), false);
+		network.currEpoch = 0;
+		models = new ModelVersionRing(network, size);
 		priority = 0;
-		hashCode = models.get(0).hashCode();
+		hashCode = network.hashCode();
 		
-		models.get(0).currEpoch = 0;
+		cache.clear();
 		startTime = System.currentTimeMillis();
 		// System.out.println(model.params());
 		
@@ -159,9 +178,18 @@ public class Dl4jUpdater implements SGDUpdater {
 		
 		
 		staleSim = new StalenessSimulator<>();
-		bw = new BufferedWriter(new OutputStreamWriter(fos));
+		if (log != null)
+			try {
+				log.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		log = new AsyncLogWriter(new BufferedWriter(new OutputStreamWriter(fos)), "Dl4jUpdater-log");
 		
- 		firstInvoke = true; // for printing schedule
+		String schedule = System.getProperty(DAMPENING, "average");
+		dampening = StalenessAggregator.dampening(schedule);
+		aggregator = null;
+		System.out.println("schedule: " + schedule);
 	}
 
 	@Override
@@ -173,17 +201,17 @@ public class Dl4jUpdater implements SGDUpdater {
 			// ! If send model first => buffer overflow
 			// write additional params
 			System.out.println("Sending priority: " + priority);
-			MyMultiLayerNetwork model = models.get(priority);
+			ModelVersionRing.Version model = models.get(priority);
 			
 			model.trainTime = System.currentTimeMillis() - startTime;
 
 			kryo2.writeObject(output, new Dl4jExtraParams(model.trainTime, model.currEpoch, hashCode));
-			// write model configuration
-			kryo3.writeObject(output, model.getLayerWiseConfigurations().toJson());
+			// write model configuration (shared by the versions)
+			kryo3.writeObject(output, models.network().getLayerWiseConfigurations().toJson());
 			// write model params
 		//	Nd4j.getCompressor().setDefaultCompression("FLOAT16");
-		//	kryo4.writeObject(output, Nd4j.getCompressor().compress(model.params()));
-			kryo4.writeObject(output, model.params());
+		//	kryo4.writeObject(output, Nd4j.getCompressor().compress(model.params));
+			kryo4.writeObject(output, model.params);
 			// System.out.println("Sent: " + model.params());
 		}
 		
@@ -192,13 +220,30 @@ public class Dl4jUpdater implements SGDUpdater {
 		
 	}
 
+	@Override
+	public byte[] getCachedParameters(Output output, int wireVersion) {
+		synchronized (models) {
+			System.out.println("Sending priority: " + priority);
+			ModelVersionRing.Version model = models.get(priority);
+			
+			model.trainTime = System.currentTimeMillis() - startTime;
+
+			kryo2.writeObject(output, new Dl4jExtraParams(model.trainTime, model.currEpoch, hashCode));
+			// configuration + params are serialized once per model version
+			return cache.get(models.latest().currEpoch, priority, wireVersion, out -> {
+				kryo3.writeObject(out, models.network().getLayerWiseConfigurations().toJson());
+				kryo4.writeObject(out, model.params);
+			});
+		}
+	}
+
 	@Override
 	public void update(InputStream input) {
 		// lock for concurrent computation and evaluation requests
 		synchronized (models) {
 			
 		Input in = new Input(input);
-		ArrayList<Quadruple<Gradient, int[], Integer, Integer>> aggregated; // M aggregated gradients for updating
+		GradientBuffer<INDArray> aggregated; // M aggregated gradients for updating
 		
 		// Dl4jGradient gradient = kryo2.readObject(in, Dl4jGradient.class);
 		int hashCode = kryoR.readObject(in, Integer.class);
@@ -226,14 +271,15 @@ public class Dl4jUpdater implements SGDUpdater {
 		for (String key : orderedKeys)
 			g.setGradientFor(key, gradientsMap.get(key), flattenInfoMap.get(key)); // IMPORTANT: put order determines flattenedGradient 
 		
-		g.gradient(); // call to trigger the flattened gradient creation
-		//NDArray gradient = (NDArray) g.gradient();
-		acc.add(new Quadruple<>(g, new int[0], epoch, -1));
+		if (aggregator == null)
+			aggregator = new StalenessAggregator(g, dampening);
+		// keep only the flattened gradient
+		staleSim.add(g.gradient(), new int[0], epoch, -1, 0);
 
 		System.out.println("Read bytes: " + Helpers.humanReadableByteCount(in.total(), false));
 		/* M-soft sync */
-		if (acc.size() < M) {
-			System.out.println("Gradients left to update: " + (M - acc.size()));
+		if (staleSim.size() < M) {
+			System.out.println("Gradients left to update: " + (M - staleSim.size()));
 			return;
 		}
 
@@ -250,27 +296,23 @@ public class Dl4jUpdater implements SGDUpdater {
 //					}
 //				}
 
-				synchronized (acc) {
+				synchronized (staleSim) {
 					//aggregated = acc; // FIXME evaluation priority issues
 					//size = 1; 
 					// 	simulate staleness
-					Tuple<Integer, ArrayList<Quadruple<Gradient, int[], Integer, Integer>>> temp = staleSim.stalenessSim(
-							acc, models.get(models.size()-1).currEpoch, size-1, size-1, models.size(), M, -1, -1);
+					Tuple<Integer, GradientBuffer<INDArray>> temp = staleSim.stalenessSim(
+							models.latest().currEpoch, size-1, size-1, models.size(), M, -1, -1);
 					aggregated = temp.getSecond();
 					priority = temp.getFirst();	
 					if (aggregated == null) // not possible to update with the available gradients
 						return;
 				}
 				System.out.println("Updating...");
-				// update latest model
+				// update latest model (in place; the previous versions are kept in the ring)
 				
-				MyMultiLayerNetwork model = models.get(models.size() - 1).clone();
+				MyMultiLayerNetwork model = models.network();
 				System.out.println("Model version: " + model.currEpoch);
-				//System.out.println(aggregated.get(0).getFirst().toString());
-				model.applyGradients(average(aggregated, model.currEpoch));
-				//model.applyGradients(inverse(aggregated, model.currEpoch));
-				//model.applyGradients(exp(aggregated, model.currEpoch));
-				//model.applyGradients(custom(aggregated, model.currEpoch));
+				model.applyGradients(aggregate(aggregated, model.currEpoch));
 				
 				//model.applyGradients(g);
 				model.currEpoch++;
@@ -290,16 +332,17 @@ public class Dl4jUpdater implements SGDUpdater {
 							}
 						}
 					}
+				// the working network is not cloned => fresh updater for the next update (as with a clone)
+				model.resetUpdater();
 //                
 //                models.clear();
 //                models.add(model);
 //				
-				models.add(model);
-				// remove older model
-				if (models.size() > size) {
-					System.out.println("Removing model as size = " + models.size());
-					models.remove(0);
-				}
+				// overwrite older model
+				if (models.size() == size)
+					System.out.println("Removing model as size = " + (models.size() + 1));
+				models.push(model.currEpoch);
+				cache.publish(model.currEpoch);
 				
 //				String out = "Epochs: ";
 //				for (int i=0; i<models.size(); i++)
@@ -312,181 +355,25 @@ public class Dl4jUpdater implements SGDUpdater {
 	}
 
 	/**
-	 * Custom decay policy of OP-SGD (theoretically faster than inverse)
+	 * Staleness-dampened average of the gradients (see {@link StalenessAggregator})
 	 * @param gradients
 	 * @param currEpoch current version of the model (to compute the staleness from)
 	 * @return
 	 */
-	private Gradient custom(ArrayList<Quadruple<Gradient, int[], Integer, Integer>> gradients, int currEpoch) {
-		if (firstInvoke) {
-			System.out.println("schedule: custom");
-			firstInvoke = false;
-		}
-		Gradient res = new MyDefaultGradient();
-		int tau;
-		double l_tau;
-
-		for (int i=0; i<gradients.size(); i++) {
-			Gradient g = gradients.get(i).getFirst();
-			// get \lambda(\tau_{km})
-			tau = currEpoch - gradients.get(i).getThird();
-			String out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
-					"," + (System.currentTimeMillis() - startTime) + "\n";
-			System.out.print(out);
-			try {
-				bw.write(out);
-				bw.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			l_tau = Math.exp(-0.685 * Math.pow(tau, 1/1.85));
-			
-			if (i == 0)
-				for (String key : g.gradientForVariable().keySet())
-					res.setGradientFor(key, g.getGradientFor(key).muli(l_tau), g.flatteningOrderForVariable(key));
-			else
-				for (String key : g.gradientForVariable().keySet())
-					res.getGradientFor(key).addi(g.getGradientFor(key).muli(l_tau));
-		}
-		
-		for (String key : res.gradientForVariable().keySet())
-			res.getGradientFor(key).divi(gradients.size());
-		
-		return res;
-	}
-	
-	/**
-	 * Exponential decay policy of OP-SGD
-	 * @param gradients
-	 * @param currEpoch current version of the model (to compute the staleness from)
-	 * @return
-	 */
-	private Gradient exp(ArrayList<Quadruple<Gradient, int[], Integer, Integer>> gradients, int currEpoch) {
-		double a = 1.475;
-		if (firstInvoke) {
-			System.out.println("schedule: exp, a=" + a);
-			firstInvoke = false;
-		}
-		Gradient res = new MyDefaultGradient();
-		int tau;
-		double l_tau;
-
-		for (int i=0; i<gradients.size(); i++) {
-			Gradient g = gradients.get(i).getFirst();
-			// get \lambda(\tau_{km})
-			tau = currEpoch - gradients.get(i).getThird();
-			String out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
-					"," + (System.currentTimeMillis() - startTime) + "\n";
-			System.out.print(out);
-			try {
-				bw.write(out);
-				bw.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			l_tau = Math.exp(-a * Math.pow(tau, 0.2));
-			//l_tau = Math.exp(-a * tau);
-			
-			if (i == 0)
-				for (String key : g.gradientForVariable().keySet())
-					res.setGradientFor(key, g.getGradientFor(key).muli(l_tau), g.flatteningOrderForVariable(key));
-			else
-				for (String key : g.gradientForVariable().keySet())
-					res.getGradientFor(key).addi(g.getGradientFor(key).muli(l_tau));
-		}
-		
-		for (String key : res.gradientForVariable().keySet())
-			res.getGradientFor(key).divi(gradients.size());
-		
-		return res;
-	}
-
-	/**
-	 * Inverse policy (http://www.ijcai.org/Proceedings/16/Papers/335.pdf)
-	 * @param gradients
-	 * @param currEpoch current version of the model (to compute the staleness from)
-	 * @return
-	 */
-	private Gradient inverse(ArrayList<Quadruple<Gradient, int[], Integer, Integer>> gradients, int currEpoch) {
-		if (firstInvoke) {
-			System.out.println("schedule: inverse");
-			firstInvoke = false;
-		}
-		Gradient res = new MyDefaultGradient();
-		int tau;
-		double l_tau;
-
-		for (int i=0; i<gradients.size(); i++) {
-			Gradient g = gradients.get(i).getFirst();
-			// get \lambda(\tau_{km})
-			tau = currEpoch - gradients.get(i).getThird();
-			String out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
-					"," + (System.currentTimeMillis() - startTime) + "\n";
-			System.out.print(out);
-			try {
-				bw.write(out);
-				bw.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			l_tau = 1 / (double) (tau + 1);
-			
-			if (i == 0)
-				for (String key : g.gradientForVariable().keySet())
-					res.setGradientFor(key, g.getGradientFor(key).muli(l_tau), g.flatteningOrderForVariable(key));
-			else
-				for (String key : g.gradientForVariable().keySet())
-					res.getGradientFor(key).addi(g.getGradientFor(key).muli(l_tau));
-		}
-		
-		for (String key : res.gradientForVariable().keySet())
-			res.getGradientFor(key).divi(gradients.size());
-		
-		return res;
-	}
-	
-	/**
-	 * Simple averaging policy
-	 * @param gradients
-	 * @param currEpoch current version of the model (to compute the staleness from)
-	 * @return
-	 */
-	private Gradient average(ArrayList<Quadruple<Gradient, int[], Integer, Integer>> gradients, int currEpoch) {
-		if (firstInvoke) {
-			System.out.println("schedule: average");
-			firstInvoke = false;
-		}
-		Gradient res = new MyDefaultGradient();
-		int tau;
-
+	private Gradient aggregate(GradientBuffer<INDArray> gradients, int currEpoch) {
+		ArrayList<INDArray> flat = new ArrayList<>(gradients.size());
+		int[] taus = new int[gradients.size()];
+		StringBuilder out = new StringBuilder();
 		for (int i = 0; i < gradients.size(); i++) {
-			Gradient g = gradients.get(i).getFirst();
-			if (i == 0)
-				for (String key : g.gradientForVariable().keySet())
-					res.setGradientFor(key, g.getGradientFor(key), g.flatteningOrderForVariable(key));
-			else
-				for (String key : g.gradientForVariable().keySet())
-					res.getGradientFor(key).addi(g.getGradientFor(key)) ;
-			
-			tau = currEpoch - gradients.get(i).getThird();
-			String out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
-					"," + (System.currentTimeMillis() - startTime) + "\n";
-			System.out.print(out);
-			try {
-				bw.write(out);
-				bw.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			
-
+			flat.add(gradients.payload(i));
+			taus[i] = currEpoch - gradients.epoch(i);
+			out.append("\tresponse: client|epoch|staleness|time:,").append(-1).append(",").append(currEpoch).append(",").append(taus[i])
+					.append(",").append(System.currentTimeMillis() - startTime).append("\n");
 		}
-		for (String key : res.gradientForVariable().keySet())
-			res.getGradientFor(key).divi(gradients.size());
-		
-		res.gradient(); // call to trigger the flattened gradient creation
-		
-		return res;
+		System.out.print(out);
+		log.log(out.toString());
+
+		return aggregator.aggregate(flat, taus);
 	}
 
 }
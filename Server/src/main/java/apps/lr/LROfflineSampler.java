@@ -10,7 +10,7 @@
 package apps.lr;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Random;
 
 import org.jblas.DoubleMatrix;
 
@@ -18,6 +18,7 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Output;
 
 import coreComponents.Sampler;
+import utils.BatchPool;
 import utils.MyDataset;
 import utils.Parser;
 
@@ -34,13 +35,20 @@ public class LROfflineSampler implements Sampler {
 	/**
 	 * mini-batch pool to implement "cyclic" rule
 	 */
-	private ArrayList<Integer> batchPool;
+	private BatchPool batchPool;
 	
 	/**
 	 * Offline 	Sampler constructor
 	 * @param prefix (e.g. /path/to/datasets/spambase_)
 	 */
 	public LROfflineSampler(String prefix){
+		this(prefix, new Random().nextLong());
+	}
+
+	/**
+	 * @param seed of the mini-batch sampling (for reproducible runs)
+	 */
+	public LROfflineSampler(String prefix, long seed){
 		
 		kryo = new Kryo();
 		kryo.register(MyDataset.class);
@@ -59,25 +67,17 @@ public class LROfflineSampler implements Sampler {
 		numlabels = dataSet.numLabels();
 		trainSize = dataSet.numExamples();
 		
-		batchPool = new ArrayList<Integer>();
-		for (int i=0; i<trainSize; i++)
-			batchPool.add(i);
+		batchPool = new BatchPool(trainSize, seed);
 		
 	}
 
 	public void reset() {
 		// refresh data pool 
-		batchPool.clear();
-			
-		for (int i=0; i<trainSize; i++)
-				batchPool.add(i);
+		batchPool.reset();
 		
 	}
 	
 	public MyDataset getSample(int size) {
-		Double temp;
-		int k;
-
 		if (size > trainSize) {
 			System.out.println("MiniBatch size too large. Reducing to maximum possible: " + trainSize);
 			size = trainSize;
@@ -87,24 +87,12 @@ public class LROfflineSampler implements Sampler {
 		DoubleMatrix miniTrainX = new DoubleMatrix(size, this.featureSize);
 		DoubleMatrix miniTrainT = new DoubleMatrix(size, this.numlabels);
 		
-		// refresh data pool if needed
-		if (size > batchPool.size()) {
-			batchPool.clear();
-			
-			for (int i=0; i<trainSize; i++)
-				batchPool.add(i);
-		}
+		// draw without replacement (the pool is refilled if needed)
+		int[] batch = batchPool.nextBatch(size);
 		
 		for (int j = 0; j < size; j++) {
-			
-			// k ~ U[0, poolSize)
-			temp = Math.random() * batchPool.size();
-			k = temp.intValue();
-			miniTrainX.putRow(j, this.dataSet.Xset.getRow(batchPool.get(k)));
-			miniTrainT.putRow(j, this.dataSet.Tset.getRow(batchPool.get(k)));
-			
-			// delete from pool
-			batchPool.remove(k);
+			miniTrainX.putRow(j, this.dataSet.Xset.getRow(batch[j]));
+			miniTrainT.putRow(j, this.dataSet.Tset.getRow(batch[j]));
 		}
 		
 		return new MyDataset(miniTrainX, miniTrainT);
@@ -11,10 +11,7 @@ package apps.lr;
 
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Random;
 
-import org.apache.commons.math3.util.Pair;
 import org.jblas.DoubleMatrix;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -23,7 +20,10 @@ import com.esotericsoftware.kryo.io.Output;
 
 import coreComponents.SGDUpdater;
 import coreComponents.Sampler;
+import utils.GradientBuffer;
 import utils.Helpers;
+import utils.Helpers.Tuple;
+import utils.StalenessSimulator;
 
 /**
  * Updater class implemented by the Service Provider
@@ -46,10 +46,12 @@ public class LRUpdater implements SGDUpdater {
 
 	ArrayList<LRModelParams> models;
 
-	private ArrayList<Pair<LRGradients, Integer>> acc;
+	/**
+	 * Collected (gradients, epoch) since the last model update
+	 */
+	private StalenessSimulator<LRGradients> staleSim;
 
 	private long startTime;
-	private Random r;
 
 	private double rate;
 
@@ -68,7 +70,7 @@ public class LRUpdater implements SGDUpdater {
 		Input in = new Input(input);
 		epoch = kryo2.readObject(in, Integer.class);
 		LRGradients gradient = kryo2.readObject(in, LRGradients.class);
-		ArrayList<Pair<LRGradients, Integer>> aggregated; // M aggregated gradients for updating
+		GradientBuffer<LRGradients> aggregated; // M aggregated gradients for updating
 
 		//delta_weights= (Tlabel.sub(predicted)).mmul(x).mul(rate)
 		//weights = weights.add().sub(weights.mul(2*mu*rate));
@@ -81,10 +83,10 @@ public class LRUpdater implements SGDUpdater {
 
 		System.out.println("Read bytes: " + Helpers.humanReadableByteCount(in.total(), false));
 
-		acc.add(new Pair<>(gradient, epoch));
+		staleSim.add(gradient, new int[0], epoch, -1, 0);
 		/* M-soft sync */
-		if (acc.size() < M) {
-			System.out.println("Gradients left to update: " + (M - acc.size()));
+		if (staleSim.size() < M) {
+			System.out.println("Gradients left to update: " + (M - staleSim.size()));
 			return;
 		}
 
@@ -94,8 +96,11 @@ public class LRUpdater implements SGDUpdater {
 		// lock for concurrent computation and evaluation requests
 		synchronized (models) {
 
-			synchronized (acc){
-				aggregated = stalenessSim(acc, size - 1);
+			synchronized (staleSim){
+				Tuple<Integer, GradientBuffer<LRGradients>> temp = staleSim.stalenessSim(
+						models.get(models.size()-1).currEpoch, size - 1, size - 1, models.size(), M, -1, -1);
+				aggregated = temp.getSecond();
+				priority = temp.getFirst();
 				if (aggregated == null){
 					// not possible to update with the available gradients
 					//System.out.println("Here1");
@@ -138,97 +143,6 @@ public class LRUpdater implements SGDUpdater {
 		}
 	}
 
-	/**
-	 * Processes the accumulated gradients in such a way that staleness follows a predefined distribution.
-	 * @param gradients list of accumulated gradients. The returned gradients are removed from this list.
-	 * @param range range of possible staleness values to be drawn from the predefined distribution. Set to 0 for no staleness.
-	 * @return ArrayList of {@link LRUpdater#M} gradients or null if not possible
-	 */
-	private ArrayList<Pair<LRGradients, Integer>> stalenessSim(ArrayList<Pair<LRGradients, Integer>> gradients, int range) {
-		// process accumulated gradients
-		String out;
-		double mean, sigma=0;
-		int currEpoch = models.get(models.size()-1).currEpoch;
-		int pick, tau, minSt = Integer.MAX_VALUE, maxSt = -1;
-		HashMap<Integer, Integer> tauMap = new HashMap<Integer, Integer>();
-		Pair<LRGradients, Integer> g;
-
-		out = "Current staleness values: [";
-		for (int i=0; i<gradients.size(); i++) {
-			g = gradients.get(i);
-			tau = currEpoch - g.getSecond();
-			if (tauMap.containsKey(tau))
-				tauMap.put(tau, tauMap.get(tau) + 1);
-			else
-				tauMap.put(tau, 1);
-
-			// discard gradient for being too old to be selected from gaussian
-			if (tau > range) {
-				gradients.remove(i);
-				i--;
-			}
-			// check to update min, max available staleness
-			if (tau > maxSt)
-				maxSt = tau;
-			if (tau < minSt)
-				minSt = tau;
-			out += tau + " ";
-		}
-		System.out.println(out + "]");
-
-
-		// gaussian distribution 
-		sigma = range / 6.0;
-		mean = 3 * sigma;
-
-		ArrayList<Pair<LRGradients, Integer>> res = new ArrayList<>();
-
-		// if not enough model versions yet
-		if (models.size() < this.size) { 
-			// randomly pick M gradients
-			for (int i=0; i<M; i++) {
-				g = gradients.get((int) (Math.random() * gradients.size()));
-				res.add(g);
-				gradients.remove(g);
-			}
-			//System.out.println("HEREEE1111");
-			priority = models.size() -1 + 1; // models size is going to be incremented
-			System.out.println("Gradients"+res.get(0));
-			return res;
-		}
-
-		// check if possible to get result <=?> if 'gradients' contains all possible staleness values at least M times
-		for (int i=0; i<=range; i++) 
-			if (!tauMap.containsKey(i) || tauMap.get(i) < M) {
-				// missing possible staleness value || not enough occurrences
-				priority = Math.max(0, models.size() - 1 - i); // on-demand
-				//System.out.println("HEREEE2222");
-				return null;				
-			}
-
-		System.out.printf("Drawing from gaussian(%f, %f)...\n", mean, sigma);
-
-		//		pick gradients (drawn from Gaussian distribution)
-		for (int i=0; i<M; i++) {
-			pick = (int) Math.round(Math.max(0, r.nextGaussian() * sigma + mean));
-			System.out.println("Picking staleness: " + pick);
-			for (int j=0; j<gradients.size(); j++) {
-				g = gradients.get(j);
-				tau = currEpoch - g.getSecond();
-				if (tau == pick) {
-					res.add(g);
-					gradients.remove(j);
-					priority = Math.max(0, models.size() - 1 - tau); // on-demand
-					break;
-				}
-			}
-		}
-		//System.out.println("HEREEE3333");
-		return res;
-
-	}
-
-
 	/**
 	 * Simple averaging policy
 	 * @param gradients
@@ -236,24 +150,24 @@ public class LRUpdater implements SGDUpdater {
 	 * @return
 	 */
 	@SuppressWarnings("unused")
-	private LRGradients average(ArrayList<Pair<LRGradients, Integer>> gradients, int currEpoch) {
+	private LRGradients average(GradientBuffer<LRGradients> gradients, int currEpoch) {
 		int tau;
-		LRGradients res = gradients.get(0).getFirst();
-		tau = currEpoch - gradients.get(0).getSecond();
+		LRGradients res = gradients.payload(0);
+		tau = currEpoch - gradients.epoch(0);
 		String out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
 				"," + (System.currentTimeMillis() - startTime) + "\n";
 		System.out.print(out);
 
 		
 		for (int i = 1; i < gradients.size(); i++) {
-			LRGradients g = gradients.get(i).getFirst();
+			LRGradients g = gradients.payload(i);
 
 			res.delta_weights.addi(g.delta_weights);
 			res.delta_biases.addi(g.delta_biases);
 
 			//weights.addi(delta_weights.mmuli(rate));
 			//biases.addi(delta_biases.mmul(rate));
-			tau = currEpoch - gradients.get(i).getSecond();
+			tau = currEpoch - gradients.epoch(i);
 			out = "\tresponse: client|epoch|staleness|time:," + -1 + "," + currEpoch + "," + tau + 
 					"," + (System.currentTimeMillis() - startTime) + "\n";
 			System.out.print(out);
@@ -273,14 +187,14 @@ public class LRUpdater implements SGDUpdater {
 	 * @return
 	 */
 	@SuppressWarnings("unused")
-	private LRGradients inverse(ArrayList<Pair<LRGradients, Integer>> gradients, int currEpoch) {
+	private LRGradients inverse(GradientBuffer<LRGradients> gradients, int currEpoch) {
 		int tau;
 		double l_tau;
 		LRGradients res = null;
 		String out;
 		
 		for (int i = 0; i < gradients.size(); i++) {
-			tau = currEpoch - gradients.get(i).getSecond();
+			tau = currEpoch - gradients.epoch(i);
 			
 			//if (tau < size / 5.0)
 				l_tau = 1 / (double) (tau + 1);
@@ -288,12 +202,12 @@ public class LRUpdater implements SGDUpdater {
 			//	l_tau = (size / 5.0) / (double) (tau + 1);
 			
 			if (i == 0) {
-				res = gradients.get(i).getFirst();
+				res = gradients.payload(i);
 				res.delta_weights.muli(l_tau);
 				res.delta_biases.muli(l_tau);;
 			}
 			else {
-				LRGradients g = gradients.get(i).getFirst();
+				LRGradients g = gradients.payload(i);
 				res.delta_weights.addi(g.delta_weights.muli(l_tau));
 				res.delta_biases.addi(g.delta_biases.muli(l_tau));
 			}
@@ -317,24 +231,24 @@ public class LRUpdater implements SGDUpdater {
 	 * @return
 	 */
 	@SuppressWarnings("unused")
-	private LRGradients exp(ArrayList<Pair<LRGradients, Integer>> gradients, int currEpoch) {
+	private LRGradients exp(GradientBuffer<LRGradients> gradients, int currEpoch) {
 		int tau;
 		double l_tau;
 		LRGradients res = null;
 		String out;
 		
 		for (int i = 0; i < gradients.size(); i++) {
-			tau = currEpoch - gradients.get(i).getSecond();
+			tau = currEpoch - gradients.epoch(i);
 			
 			l_tau = Math.exp(-0.5 * tau);
 			
 			if (i == 0) {
-				res = gradients.get(i).getFirst();
+				res = gradients.payload(i);
 				res.delta_weights.muli(l_tau);
 				res.delta_biases.muli(l_tau);;
 			}
 			else {
-				LRGradients g = gradients.get(i).getFirst();
+				LRGradients g = gradients.payload(i);
 				res.delta_weights.addi(g.delta_weights.muli(l_tau));
 				res.delta_biases.addi(g.delta_biases.muli(l_tau));
 			}
@@ -374,7 +288,7 @@ public class LRUpdater implements SGDUpdater {
 		kryo2.register(LRModelParams.class);
 
 		// Load the model
-		acc = new ArrayList<>();
+		staleSim = new StalenessSimulator<>();
 		models = new ArrayList<>();
 
 		// staleness range will be = [0, size - 1] 
@@ -402,7 +316,6 @@ public class LRUpdater implements SGDUpdater {
 		models.get(0).currEpoch = 0;
 
 		startTime = System.currentTimeMillis();
-		r = new Random();
 		// System.out.println("Received w1: " + w1);
 
 		//weights = DoubleMatrix.rand(numlabels,featuresize);	
@@ -10,7 +10,7 @@
 package apps.mlp;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Random;
 
 import org.jblas.DoubleMatrix;
 
@@ -18,6 +18,7 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Output;
 
 import coreComponents.Sampler;
+import utils.BatchPool;
 import utils.MyDataset;
 import utils.Parser;
 
@@ -29,15 +30,23 @@ public class MLPOnlineSampler implements Sampler {
 	private int trainSize;
 	
 	/**
-	 * mini-batch pool to implement "cyclic" rule
+	 * examples not yet available for online learning
 	 */
-	private ArrayList<Integer> batchPool;
-	private ArrayList<Integer> onlinePool;
-	private ArrayList<Integer> onlineClone;
+	private BatchPool batchPool;
+	/**
+	 * mini-batch pool to implement "cyclic" rule over the online examples
+	 */
+	private BatchPool onlinePool;
 	
 	
-	@SuppressWarnings("unchecked")
 	public MLPOnlineSampler(String prefix){
+		this(prefix, new Random().nextLong());
+	}
+
+	/**
+	 * @param seed of the mini-batch sampling (for reproducible runs)
+	 */
+	public MLPOnlineSampler(String prefix, long seed){
 		kryo = new Kryo();
 		kryo.register(MyDataset.class);
 
@@ -53,40 +62,27 @@ public class MLPOnlineSampler implements Sampler {
 		featureSize = dataSet.featureSize();
 		trainSize = dataSet.numExamples();
 		
-		batchPool = new ArrayList<Integer>();
-		for (int i=0; i<trainSize; i++)
-			batchPool.add(i);
+		Random random = new Random(seed);
+		batchPool = new BatchPool(trainSize, random);
 		
 		/*
 		 * initialize the samples pool for simulating online learning
 		 */
-		onlinePool = new ArrayList<Integer> ();
+		onlinePool = new BatchPool(0, random);
 		int onlineSize = (int)(0.2*trainSize);
 		
-		for(int i=0; i<onlineSize; i++){
-			int index = (int)(Math.random() * batchPool.size());
-			onlinePool.add(batchPool.get(index));
-			batchPool.remove(index);
-		}
-		
-		onlineClone = (ArrayList<Integer>) onlinePool.clone();
+		for(int i=0; i<onlineSize; i++)
+			onlinePool.add(batchPool.next());
 		
 	}
 
 	public void reset() {
 		// refresh data pool 
-		batchPool.clear();
-			
-		for (int i=0; i<trainSize; i++)
-				batchPool.add(i);
+		batchPool.reset();
 		
 	}
 	
-	@SuppressWarnings("unchecked")
 	public MyDataset getSample(int size) {
-		Double temp;
-		int k;
-
 		if (size > trainSize) {
 			System.out.println("MiniBatch size too large. Reducing to maximum possible: " + trainSize);
 			size = trainSize;
@@ -96,22 +92,12 @@ public class MLPOnlineSampler implements Sampler {
 		DoubleMatrix miniTrainX = new DoubleMatrix(size, this.featureSize);
 		DoubleMatrix miniTrainT = new DoubleMatrix(size, 1);
 		
-		// refresh data pool if needed
-		if (size > onlineClone.size()) {
-			onlineClone = (ArrayList<Integer>) onlinePool.clone();
-		}
+		// draw without replacement (the pool is refilled if needed)
+		int[] batch = onlinePool.nextBatch(size);
 		
 		for (int j = 0; j < size; j++) {
-			
-			// k ~ U[0, poolSize)
-			temp = Math.random() * onlineClone.size();
-			k = temp.intValue();
-			miniTrainX.putRow(j, this.dataSet.Xset.getRow(onlineClone.get(k)));
-			miniTrainT.put(j, oneHot2Value(this.dataSet.Tset.getRow(batchPool.get(k))));
-			
-			// delete from pool
-			onlineClone.remove(k);
-			
+			miniTrainX.putRow(j, this.dataSet.Xset.getRow(batch[j]));
+			miniTrainT.put(j, oneHot2Value(this.dataSet.Tset.getRow(batch[j])));
 		}
 		
 		return new MyDataset(miniTrainX, miniTrainT);
@@ -126,22 +112,17 @@ public class MLPOnlineSampler implements Sampler {
 	}
 
 	public void updateOnlinePool() {
-		if(batchPool.size()==0)
+		if(batchPool.remaining()==0)
 			return;
 		
 		int onlineSize = (int)(0.2*trainSize);
 		
 		for(int i=0; i<onlineSize; i++){
 			
-			if(batchPool.size()==0)
+			if(batchPool.remaining()==0)
 				return;
 			
-			int index = (int)(Math.random() * batchPool.size());
-			
-			onlinePool.add(batchPool.get(index));
-			onlineClone.add(batchPool.get(index));
-			
-			batchPool.remove(index);
+			onlinePool.add(batchPool.next());
 		}
 		
 	}
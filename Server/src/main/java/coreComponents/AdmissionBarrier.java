@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Synchronous start for the profilers: decisions are parked (without holding a thread) until numClients clients
+ * have connected and are then released all at once; later clients are admitted immediately
+ * A parked decision that gets cancelled (e.g., timed out by the front end) no longer counts as connected
+ */
+class AdmissionBarrier {
+
+	private final int numClients;
+
+	/**
+	 * Number of currently connected clients
+	 */
+	private int numConnected;
+
+	/**
+	 * Parked decisions in arrival order
+	 */
+	private final List<Runnable> parked = new ArrayList<>();
+
+	AdmissionBarrier(int numClients) {
+		this.numClients = numClients;
+	}
+
+	/**
+	 * @param decision taken once the client is admitted (by the thread releasing the barrier)
+	 */
+	<T> CompletableFuture<T> admit(String clientId, Supplier<T> decision) {
+		CompletableFuture<T> ret = new CompletableFuture<>();
+		Runnable release = () -> {
+			try {
+				ret.complete(decision.get());
+			} catch (RuntimeException e) {
+				ret.completeExceptionally(e);
+			}
+		};
+
+		List<Runnable> released;
+		synchronized (this) {
+			numConnected++;
+			if (numConnected < numClients) {
+				System.out.println(clientId + " waiting as numConnected = " + numConnected + " < " + numClients);
+				parked.add(release);
+				ret.whenComplete((v, e) -> {
+					if (ret.isCancelled())
+						cancel(clientId, release);
+				});
+				return ret;
+			}
+			released = new ArrayList<>(parked);
+			parked.clear();
+		}
+
+		if (!released.isEmpty())
+			System.out.println("All " + numClients + " clients connected. Releasing " + released.size() + " parked requests");
+		for (Runnable r : released)
+			r.run();
+		release.run();
+		return ret;
+	}
+
+	private synchronized void cancel(String clientId, Runnable release) {
+		if (parked.remove(release)) {
+			numConnected--;
+			System.out.println(clientId + " stopped waiting; numConnected = " + numConnected);
+		}
+	}
+}
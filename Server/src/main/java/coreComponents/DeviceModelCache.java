@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import utils.DeviceInfo;
+import utils.RLSModel;
+
+/**
+ * Bounded cache of per-device latency/energy regressions keyed by clientId and android model
+ * A device seen for the first time starts from a copy of the global models (warm start)
+ * Least recently used entries are evicted above capacity and entries not accessed for ttl ms are dropped
+ */
+class DeviceModelCache {
+
+	static class Entry {
+		final RLSModel latency, energy;
+		long lastAccess;
+
+		Entry(RLSModel latency, RLSModel energy) {
+			this.latency = new RLSModel(latency);
+			this.energy = new RLSModel(energy);
+		}
+	}
+
+	private final long ttl;
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * @param ttl milliseconds; <= 0 => no expiration
+	 */
+	DeviceModelCache(int capacity, long ttl) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return models of the device or null if not cached (or expired)
+	 */
+	synchronized Entry get(String clientId, DeviceInfo stats) {
+		long now = System.currentTimeMillis();
+		String key = key(clientId, stats);
+		Entry e = entries.get(key);
+		if (e != null && expired(e, now)) {
+			entries.remove(key);
+			return null;
+		}
+		if (e != null)
+			e.lastAccess = now;
+		return e;
+	}
+
+	/**
+	 * @return models of the device; created from the global ones if not cached
+	 */
+	synchronized Entry getOrCreate(String clientId, DeviceInfo stats, RLSModel globalLatency, RLSModel globalEnergy) {
+		Entry e = get(clientId, stats);
+		if (e == null) {
+			evictExpired(System.currentTimeMillis());
+			e = new Entry(globalLatency, globalEnergy);
+			e.lastAccess = System.currentTimeMillis();
+			entries.put(key(clientId, stats), e);
+		}
+		return e;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Iterates from the least recently accessed entry and stops at the first live one
+	 */
+	private void evictExpired(long now) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext() && expired(it.next(), now))
+			it.remove();
+	}
+
+	private boolean expired(Entry e, long now) {
+		return ttl > 0 && now - e.lastAccess > ttl;
+	}
+
+	/**
+	 * clientId and android model (first field of androidInfo: model,version,serial)
+	 */
+	static String key(String clientId, DeviceInfo stats) {
+		String model = stats.androidInfo == null ? "" : stats.androidInfo;
+		int comma = model.indexOf(',');
+		if (comma >= 0)
+			model = model.substring(0, comma);
+		return clientId + "|" + model;
+	}
+}
@@ -15,7 +15,6 @@ import utils.RegModel;
 
 import java.io.*;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.ParseException;
@@ -349,57 +348,41 @@ public class LASSOProfiler extends OldProfiler {
                 deviceInfo.deviceCpuUsage, deviceInfo.temperature, deviceInfo.batteryLevel, deviceInfo.volt};
     }
 
-    public void handleClientRequest(Socket socket) {
-        try {
-            ObjectInputStream input = new ObjectInputStream(new DataInputStream(socket.getInputStream()));
-            ObjectOutputStream output = new ObjectOutputStream(new DataOutputStream(socket.getOutputStream()));
-
-            int requestType = input.readInt();
-            String clientId = (String) input.readObject();
-            
-            double[] latencyFeatures;
-            double[] additionalStats;
-            String androidInfo;
-            DeviceInfo devInfo;
-
-            switch (requestType) {
-                case 0:                // receive the request to get batch size
-                    latencyFeatures = (double[]) input.readObject();
-                    additionalStats = (double[]) input.readObject();
-                    androidInfo = (String) input.readObject();
-                    devInfo = new DeviceInfo(clientId, latencyFeatures, additionalStats, androidInfo);
-                    forwardBatchSize(output, clientId, devInfo);
-                    break;
-                case 1:             // receive the request to forward client info
-                	synchronized (latencyModel) { 
-                		
-                    latencyFeatures = (double[]) input.readObject();
-                    additionalStats = (double[]) input.readObject();
-                    androidInfo = (String) input.readObject();
-                    devInfo = new DeviceInfo(clientId, latencyFeatures, additionalStats, androidInfo);
-                    
-                    System.out.println("[Profiler] Receive client info");
-                    receiveClientInfo(devInfo, clientId);
-
-                    
-                    if (alignedLogins && loginEpochReverse.containsKey(latencyModel.epoch)) nextCLient = loginEpochReverse.get(latencyModel.epoch);
-                    
-                    break;
-                	}
-                default:
-                    System.out.println("[Profiler] Unknown request type!");
-            }
-
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        } finally {
-
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public void handleClientRequest(ObjectInputStream input, ObjectOutputStream output) throws IOException, ClassNotFoundException {
+        int requestType = input.readInt();
+        String clientId = (String) input.readObject();
+        
+        double[] latencyFeatures;
+        double[] additionalStats;
+        String androidInfo;
+        DeviceInfo devInfo;
+
+        switch (requestType) {
+            case 0:                // receive the request to get batch size
+                latencyFeatures = (double[]) input.readObject();
+                additionalStats = (double[]) input.readObject();
+                androidInfo = (String) input.readObject();
+                devInfo = new DeviceInfo(clientId, latencyFeatures, additionalStats, androidInfo);
+                forwardBatchSize(output, clientId, devInfo);
+                break;
+            case 1:             // receive the request to forward client info
+            	synchronized (latencyModel) { 
+            		
+                latencyFeatures = (double[]) input.readObject();
+                additionalStats = (double[]) input.readObject();
+                androidInfo = (String) input.readObject();
+                devInfo = new DeviceInfo(clientId, latencyFeatures, additionalStats, androidInfo);
+                
+                System.out.println("[Profiler] Receive client info");
+                receiveClientInfo(devInfo, clientId);
 
+                
+                if (alignedLogins && loginEpochReverse.containsKey(latencyModel.epoch)) nextCLient = loginEpochReverse.get(latencyModel.epoch);
+                
+                break;
+            	}
+            default:
+                System.out.println("[Profiler] Unknown request type!");
         }
 
     }
@@ -23,23 +23,35 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import utils.DeviceInfo;
+import utils.DeviceStats;
 import utils.Helpers;
 import utils.JNITest;
 import utils.MatrixOps;
+import utils.MultipartDecoder;
+import utils.WireFormat;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.Part;
 import java.io.*;
 import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 import jsat.classifiers.linear.PassiveAggressive;
@@ -48,13 +60,17 @@ import jsat.classifiers.linear.PassiveAggressive.Mode;
 /**
  * Servlet implementation class Server
  */
-@MultipartConfig
-@WebServlet("/Server")
+@WebServlet(value = "/Server", asyncSupported = true, initParams = {
+		@WebInitParam(name = "maxFieldSize", value = "1048576"),
+		@WebInitParam(name = "memoryThreshold", value = "16777216"),
+		@WebInitParam(name = "streamBufferSize", value = "65536"),
+		@WebInitParam(name = "admissionTimeout", value = "600000"),
+		@WebInitParam(name = "workerTimeout", value = "600000") })
 public class MasterOrchestrator extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
-	private Sampler sampler;
-	private SGDUpdater updater;
+	private volatile Sampler sampler;
+	private volatile SGDUpdater updater;
 
 	// target latency=1000ms
 	private double latencySLO = 4000;
@@ -62,7 +78,40 @@ public class MasterOrchestrator extends HttpServlet {
 
 	private int iterations;
 
-	private Kryo kryo;
+	/**
+	 * Multipart decoding thresholds (bytes); see {@link MultipartDecoder}
+	 */
+	private int maxFieldSize, memoryThreshold;
+	/**
+	 * Kryo Input buffer size for streamed parts (bytes)
+	 */
+	private int streamBufferSize;
+
+	private final ThreadLocal<Kryo> kryoLocal = ThreadLocal.withInitial(() -> {
+		Kryo kryo = new Kryo();
+		kryo.register(Boolean.class);
+		return kryo;
+	});
+
+	/**
+	 * Maximum time (ms) a Compute request waits for the profiler decision (e.g., parked by a barrier profiler); 0 => no limit
+	 */
+	private int admissionTimeout;
+
+	/**
+	 * A client is active if it pushed stats within the last workerTimeout ms; see {@link SGDUpdater#setActiveWorkers(int)}
+	 */
+	private int workerTimeout;
+	private final ConcurrentHashMap<String, Long> activeClients = new ConcurrentHashMap<>();
+
+	/**
+	 * Cancels the profiler decisions that exceed the admissionTimeout
+	 */
+	private final ScheduledExecutorService admissionTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "MasterOrchestrator-admission");
+		t.setDaemon(true);
+		return t;
+	});
 
 	private int batchSizesIdx;
 	
@@ -81,6 +130,11 @@ public class MasterOrchestrator extends HttpServlet {
 
 	private Profiler profiler;
 
+	/**
+	 * Non-blocking front end sharing this server (started if {@link NioOrchestrator#PORT} is set)
+	 */
+	private NioOrchestrator nio;
+
 	/**
 	 * @see Servlet#init(ServletConfig)
 	 */
@@ -88,9 +142,17 @@ public class MasterOrchestrator extends HttpServlet {
 
 		new JNITest().hello();
 
+		maxFieldSize = getInitParameter(config, "maxFieldSize", 1 << 20);
+		memoryThreshold = getInitParameter(config, "memoryThreshold", 16 << 20);
+		streamBufferSize = getInitParameter(config, "streamBufferSize", 1 << 16);
+		admissionTimeout = getInitParameter(config, "admissionTimeout", 600000);
+		workerTimeout = getInitParameter(config, "workerTimeout", 600000);
+
 		// profiler = new LASSOProfiler profiler;
 		// profiler = new PAProfiler profiler;
 		//profiler = new RPCProfiler(9995, latencySLO, energySLO, "src/main/resources/RPC.csv");
+		//profiler = new RLSProfiler(latencySLO, energySLO, 104);
+		//profiler = new RLSProfiler(latencySLO, energySLO, 104, 10000, 3600000);
 		profiler = new DummyProfiler(104);
 		//profiler = new DummyProfilerLogger(104);
 		//profiler = new SyncProfiler(latencySLO, energySLO, 5);
@@ -106,83 +168,210 @@ public class MasterOrchestrator extends HttpServlet {
 
 		System.out.println("Request Type\tClientID\tTime");
 
+		int nioPort = Integer.getInteger(NioOrchestrator.PORT, -1);
+		if (nioPort > 0) {
+			try {
+				nio = new NioOrchestrator(this, nioPort, maxFieldSize, memoryThreshold);
+			} catch (IOException e) {
+				throw new ServletException("Unable to start the non-blocking front end on port " + nioPort, e);
+			}
+		}
 	}
 
+	/**
+	 * @see Servlet#destroy()
+	 */
+	public void destroy() {
+		if (nio != null)
+			nio.stop();
+		admissionTimer.shutdownNow();
+		if (updater != null)
+			updater.close();
+	}
+
+	private static int getInitParameter(ServletConfig config, String name, int defaultValue) {
+		String value = config.getInitParameter(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * @return the integer value of a client-supplied field or defaultValue if it is absent or malformed
+	 */
+	private static int parseField(String value, int defaultValue) {
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Asynchronous servlet request: a Compute request waiting for the profiler decision releases the container thread
+	 * and its response is written by a container thread once the decision is taken
+	 */
 	@Override
 	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		String clientType = null;
+		ResponseExecutor executor = new ResponseExecutor();
+		MultipartDecoder parts = new MultipartDecoder(request, maxFieldSize, memoryThreshold);
+		CompletableFuture<Void> done = handle(parts, response.getOutputStream(), executor);
+		AsyncContext async = executor.handled(request, done);
 
-		Collection<Part> parts = request.getParts();
-		for (Part part : parts) {
-			if (part.getName().equals("clientType")) {
-				clientType = getValue(part);
+		done.whenComplete((v, e) -> {
+			if (e != null) {
+				try {
+					if (isTimeout(e))
+						response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Admission timed out");
+					else {
+						e.printStackTrace();
+						response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+					}
+				} catch (IOException | IllegalStateException e1) {
+					// response already committed
+				}
 			}
+			if (async != null)
+				async.complete();
+		});
+	}
+
+	/**
+	 * Writes the response of a servlet Compute request: on the request thread if the profiler decision is taken
+	 * while handling the request; otherwise on a container thread of the async context started once handle() returns
+	 */
+	private static class ResponseExecutor implements Executor {
+		private Runnable pending;
+		private AsyncContext async;
+		private boolean handled;
+
+		@Override
+		public void execute(Runnable r) {
+			synchronized (this) {
+				if (!handled) {
+					pending = r;
+					return;
+				}
+			}
+			async.start(r);
 		}
 
-		if (clientType.equals("Initialize"))
-			handleInitializeRequest(request, response);
+		/**
+		 * Called by the request thread once handle() returned: runs the response taken meanwhile
+		 * or, if the request still waits for the decision, starts the async context
+		 * @return the started async context or null
+		 */
+		AsyncContext handled(HttpServletRequest request, CompletableFuture<Void> done) {
+			Runnable r;
+			synchronized (this) {
+				handled = true;
+				r = pending;
+				if (r == null && !done.isDone()) {
+					async = request.startAsync();
+					async.setTimeout(0); // bounded by the admissionTimeout
+				}
+			}
+			if (r != null)
+				r.run();
+			return async;
+		}
+	}
+
+	/**
+	 * @return whether a failed request was a Compute request that exceeded the admissionTimeout
+	 */
+	static boolean isTimeout(Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+		return e instanceof CancellationException;
+	}
+
+	/**
+	 * Request handling shared by the servlet and the {@link NioOrchestrator}
+	 * @param output response body
+	 * @param executor writes the response of a Compute request once the profiler decision is taken
+	 * @return completed once the response is written (Compute requests wait for the profiler decision)
+	 */
+	CompletableFuture<Void> handle(MultipartDecoder parts, OutputStream output, Executor executor) throws ServletException, IOException {
+		String clientType = null;
+
+		// dispatch as soon as the clientType is read; the handlers decode the remaining parts
+		while (clientType == null && parts.next()) {
+			String value = parts.value();
+			if (parts.name().equals("clientType"))
+				clientType = value;
+		}
+
+		if (clientType == null)
+			System.out.println("Rejecting request without clientType!");
+		else if (clientType.equals("Initialize"))
+			handleInitializeRequest(parts, output);
 		else if (clientType.equals("Eval"))
-			handleEvaluationRequest(response);
+			handleEvaluationRequest(output);
 		else if (clientType.equals("Gradient"))
-			handleGradientResponse(request, response);
+			handleGradientResponse(parts, output);
 		else if (clientType.equals("Compute"))
-			handleComputationRequest(request, response);
+			return handleComputationRequest(parts, output, executor);
 		else if (clientType.equals("Stats"))
-			handleStatsResponse(request, response);
+			handleStatsResponse(parts, output);
 
+		return CompletableFuture.completedFuture(null);
 	}
 
 	/**
 	 * setup the updater, sampler and other parameters according to driver's request
 	 *
-	 * @param request
-	 * @param response
+	 * @param parts
+	 * @param output
 	 * @throws IOException
 	 * @throws NumberFormatException
 	 * @throws ServletException
 	 */
-	private void handleInitializeRequest(HttpServletRequest request, HttpServletResponse response)
+	private void handleInitializeRequest(MultipartDecoder parts, OutputStream output)
 			throws NumberFormatException, IOException, ServletException {
 		System.out.println("HTTP: Initialization POST request");
 		String prefix = null;
 		InputStream model = null;
-		Collection<Part> parts = request.getParts();
-		for (Part part : parts) {
+		while (parts.next()) {
 			// get training iterations
-			if (part.getName().equals("iterations")) {
-				this.iterations = Integer.parseInt(getValue(part));
+			if (parts.name().equals("iterations")) {
+				this.iterations = Integer.parseInt(parts.value());
 				System.out.println("Iterations: " + iterations);
 			}
 			// get prefix for datasets
-			if (part.getName().equals("prefix")) {
-				prefix = getValue(part);
+			if (parts.name().equals("prefix")) {
+				prefix = parts.value();
 				System.out.println("Prefix: " + prefix);
 			}
-			// get the serialized initialized model
-			if (part.getName().equals("model")) {
-				model = new Input(part.getInputStream());
+			// get the serialized initialized model (buffered: the sampler is set up first)
+			if (parts.name().equals("model")) {
+				model = new Input(parts.buffer(), streamBufferSize);
 				// System.out.println(IOUtils.toString(in, "UTF-8"));
 			}
 		}
 
-		// initialize sampler
-		// reload dataset if prefix is given
-		if (prefix != null)
-			sampler = new SPSampler(prefix);
-		else { // reset it
-			System.out.println("!No prefix given. A previous initialization request with prefix is crucial.");
-			System.out.println("Resetting sampler...");
-			sampler.reset();
-		}
+		// closing the buffered model deletes its temporary file (if any)
+		try (InputStream in = model) {
+			// initialize sampler
+			// reload dataset if prefix is given
+			if (prefix != null)
+				sampler = new SPSampler(prefix);
+			else { // reset it
+				System.out.println("!No prefix given. A previous initialization request with prefix is crucial.");
+				System.out.println("Resetting sampler...");
+				sampler.reset();
+			}
 
-		// initialize updater
-		updater = new SPUpdater();
-		updater.initialize(model, sampler);
+			// initialize updater (stop the previous one first: the native models are process-wide)
+			if (updater != null)
+				updater.close();
+			updater = new SPUpdater();
+			updater.initialize(in, sampler);
+		}
 
 		try {
 			// response.getWriter().append("Initialization success!");
 			// response.getWriter().flush();
-			OutputStream output = response.getOutputStream();
 			String s = "Initialization success!";
 			output.write(s.getBytes());
 			output.flush();
@@ -193,64 +382,82 @@ public class MasterOrchestrator extends HttpServlet {
 	}
 
 	/**
-	 * Returns the text value of the given part.
+	 * Decodes the stats sent by a client
+	 * @param stats binary {@link DeviceStats} or legacy CSV matrix (see MatrixOps#readMatrix)
+	 * @return null for an unsupported schema
 	 */
-	private String getValue(Part part) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(part.getInputStream(), "UTF-8"));
-		StringBuilder value = new StringBuilder();
-		char[] buffer = new char[10240];
-		for (int length = 0; (length = reader.read(buffer)) > 0;) {
-			value.append(buffer, 0, length);
+	private static DeviceInfo readDeviceInfo(String clientId, byte[] stats, String androidInfo) {
+		if (DeviceStats.isBinary(stats)) {
+			double[] values = DeviceStats.decode(stats);
+			if (values == null) {
+				System.out.println("Unsupported stats schema version: " + DeviceStats.version(stats));
+				return null;
+			}
+			return new DeviceInfo(clientId, values, androidInfo);
 		}
-		return value.toString();
+
+		DoubleMatrix deviceMatrix = MatrixOps.readMatrix(new BufferedReader(new StringReader(
+				new String(stats, StandardCharsets.UTF_8))));
+		return new DeviceInfo(clientId, deviceMatrix, androidInfo);
 	}
 
 	/**
 	 * Handle an android client request for computing gradients on a mini-batch
 	 * 
-	 * @param request
-	 * @param response
+	 * @param parts
+	 * @param raw
+	 * @param executor writes the response once the profiler decision is taken
+	 * @return completed once the response is written
 	 * @throws IOException
 	 * @throws ServletException
 	 */
-	private void handleComputationRequest(HttpServletRequest request, HttpServletResponse response)
+	private CompletableFuture<Void> handleComputationRequest(MultipartDecoder parts, OutputStream raw, Executor executor)
 			throws IOException, ServletException {
 		
 		if (sampler == null) {
 			System.out.println("Rejecting computation request due to unitialized server!");
-			return;
+			return CompletableFuture.completedFuture(null);
 		}
 		
 		long t = System.currentTimeMillis();
-		String clientId = null, stats = null, androidInfo = null;
-		Collection<Part> parts = request.getParts();
-		for (Part part : parts) {
-			// get training iterations
-			if (part.getName().equals("clientID"))
-				clientId = getValue(part);
-			// get statistics
-			if (part.getName().equals("stats")) {
-				stats = getValue(part);
+		parts.readFields();
+		String clientId = parts.field("clientID");
+		// get statistics
+		byte[] stats = parts.fieldBytes("stats");
+		String androidInfo = parts.field("androidInfo");
+		// payload encoding supported by the client (absent for legacy Base64 clients)
+		String wireVersion = parts.field("wireVersion");
+		// model already held by the client (absent for clients without delta support; malformed => full model)
+		int modelEpoch = parseField(parts.field("modelEpoch"), -1);
+		int modelHash = parseField(parts.field("modelHash"), 0);
+
+		// profiler invoke; the response is written once the decision is taken
+		DeviceInfo deviceInfo = stats == null ? null : readDeviceInfo(clientId, stats, androidInfo);
+		CompletableFuture<Integer> decision = deviceInfo == null ? CompletableFuture.completedFuture(-1)
+				: profiler.getMiniBatchSizeAsync(clientId, deviceInfo);
+		if (!decision.isDone() && admissionTimeout > 0)
+			admissionTimer.schedule(() -> {
+				if (decision.cancel(false))
+					System.out.println("MO: Admission of " + clientId + " timed out after " + admissionTimeout + "ms");
+			}, admissionTimeout, TimeUnit.MILLISECONDS);
+
+		return decision.thenAcceptAsync(batchSize -> {
+			// see Profiler#continueRequests()
+			boolean continueRequests = deviceInfo != null && profiler.continueRequests(clientId);
+			try {
+				writeComputationResponse(raw, batchSize, continueRequests, wireVersion, modelEpoch, modelHash);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
-			if (part.getName().equals("androidInfo")) {
-				androidInfo = getValue(part);
-			}
-		}
-
-		/**
-		 * See Profiler#continueRequests()
-		 */
-		boolean continueRequests = false;
-		int batchSize = -1;
-
+			System.out.println("HTTP: Computation\t" + clientId + "\t" + (System.currentTimeMillis() - t));
+		}, executor);
+	}
 
-		// profiler invoke
-		if (stats != null) {
-			DoubleMatrix deviceMatrix = MatrixOps.readMatrix(new BufferedReader(new StringReader(stats)));
-			DeviceInfo deviceInfo = new DeviceInfo(clientId, deviceMatrix, androidInfo);
-			batchSize = profiler.getMiniBatchSize(clientId, deviceInfo);
-			continueRequests = profiler.continueRequests(clientId);
-		}
+	/**
+	 * Writes the response of a computation request (miniBatch + model)
+	 */
+	private void writeComputationResponse(OutputStream raw, int batchSize, boolean continueRequests, String wireVersion,
+			int modelEpoch, int modelHash) throws IOException {
 
 		// hardcode the batch size
 	    //batchSize = 104;
@@ -284,34 +491,41 @@ public class MasterOrchestrator extends HttpServlet {
 		//System.out.println("Batch size: " + batchSize);
 				
 		// write response (miniBatch + model)
-		OutputStream output = new GZIPOutputStream(response.getOutputStream());
+		GZIPOutputStream output = new GZIPOutputStream(raw);
 		// OutputStream output = response.getOutputStream();
 		Output out = new Output(output);
 
-		kryo = new Kryo();
-		kryo.register(Boolean.class);
-		kryo.writeObject(out, continueRequests);
+		kryoLocal.get().writeObject(out, continueRequests);
 
 		// send miniBatch first to avoid buffer overflow due to model serialization issues
-		this.sampler.getSample(batchSize, out);
-		this.updater.getParameters(out, true);
-
-		System.out.println("Written: " + Helpers.humanReadableByteCount(out.total(), false));
-		out.close();
-		System.out.println("HTTP: Computation\t" + clientId + "\t" + (System.currentTimeMillis() - t));
-
+		int version = WireFormat.parse(wireVersion);
+		this.sampler.getSample(batchSize, out, version);
+		byte[] model = this.updater.getCachedParameters(out, version, modelEpoch, modelHash);
+		if (model == null) {
+			this.updater.getParameters(out, true, version);
+			System.out.println("Written: " + Helpers.humanReadableByteCount(out.total(), false));
+			out.close();
+		}
+		else {
+			// stream the pre-compressed model as a second gzip member
+			out.flush();
+			output.finish();
+			raw.write(model);
+			System.out.println("Written: " + Helpers.humanReadableByteCount(out.total(), false) + " + cached model " + 
+					Helpers.humanReadableByteCount(model.length, false));
+			raw.close();
+		}
 	}
 
 	/**
 	 * Driver evaluation request handler. send the current parameters to a driver
 	 * 
-	 * @param response
+	 * @param output
 	 * @throws IOException
 	 */
-	private void handleEvaluationRequest(HttpServletResponse response) throws IOException {
+	private void handleEvaluationRequest(OutputStream output) throws IOException {
 		long t = System.currentTimeMillis();
 
-		OutputStream output = response.getOutputStream();
 		Output out = new Output(output);
 		updater.getParameters(out, false);
 		out.close();
@@ -322,69 +536,70 @@ public class MasterOrchestrator extends HttpServlet {
 	/**
 	 * Handle a reply with stats from a client
 	 * 
-	 * @param request
+	 * @param parts
 	 * @throws ServletException
 	 * @throws IOException
 	 */
-	private void handleStatsResponse(HttpServletRequest request, HttpServletResponse response)
+	private void handleStatsResponse(MultipartDecoder parts, OutputStream output)
 			throws IOException, ServletException {
 		long t = System.currentTimeMillis();
-		String clientId = null, stats = null, androidInfo = null;
-		Collection<Part> parts = request.getParts();
-		for (Part part : parts) {
-			if (part.getName().equals("clientID")) {
-				clientId = getValue(part);
-			}
-			// get statistics
-			if (part.getName().equals("stats")) {
-				stats = getValue(part);
-			}
-			if (part.getName().equals("androidInfo")) {
-				androidInfo = getValue(part);
-			}
-		}
+		parts.readFields();
+		String clientId = parts.field("clientID");
+		// get statistics
+		byte[] stats = parts.fieldBytes("stats");
+		String androidInfo = parts.field("androidInfo");
 
 
 		// forward stats
-		if (stats != null) {
+		DeviceInfo deviceInfo = stats == null ? null : readDeviceInfo(clientId, stats, androidInfo);
+		if (deviceInfo != null) {
 
 			//System.out.println("Ticket: "+ticket);
 
-			DoubleMatrix deviceMatrix = MatrixOps.readMatrix(new BufferedReader(new StringReader(stats)));
-			DeviceInfo deviceInfo = new DeviceInfo(clientId, deviceMatrix, androidInfo);
 			profiler.pushStats(clientId, deviceInfo);
+			reportActiveClients(clientId);
 		}
 
 		System.out.println("HTTP: Stats\t" + clientId + "\t" + (System.currentTimeMillis() - t));
 	}
 
+	/**
+	 * Reports the number of clients that pushed stats within the last workerTimeout ms to the updater
+	 */
+	private void reportActiveClients(String clientId) {
+		long now = System.currentTimeMillis();
+		activeClients.put(clientId, now);
+		activeClients.values().removeIf(seen -> now - seen > workerTimeout);
+		SGDUpdater u = updater;
+		if (u != null)
+			u.setActiveWorkers(activeClients.size());
+	}
+
 	/**
 	 * Handle a reply with gradients from a client
 	 * 
-	 * @param request
+	 * @param parts
 	 * @throws ServletException
 	 * @throws IOException
 	 */
-	private void handleGradientResponse(HttpServletRequest request, HttpServletResponse response)
+	private void handleGradientResponse(MultipartDecoder parts, OutputStream output)
 			throws IOException, ServletException {
 		long t = System.currentTimeMillis();
 		String clientId = null, stats = null;
-		Collection<Part> parts = request.getParts();
-		for (Part part : parts) {
-			if (part.getName().equals("clientID")) {
-				clientId = getValue(part);
+		while (parts.next()) {
+			if (parts.name().equals("clientID")) {
+				clientId = parts.value();
 			}
 			// get statistics
-			if (part.getName().equals("stats")) {
-				stats = getValue(part);
+			if (parts.name().equals("stats")) {
+				stats = parts.value();
 			}
-			// get the serialized gradients
-			if (part.getName().equals("gradients")) {
-				InputStream in = new Input(part.getInputStream()); // input for getting the model
+			// get the serialized gradients (decoded straight from the request stream)
+			if (parts.name().equals("gradients")) {
+				InputStream in = new Input(parts.stream(), streamBufferSize); // input for getting the model
 
 				// write output
 				try {
-					OutputStream output = response.getOutputStream();
 					String s = "HTTP: Gradients Received!";
 					output.write(s.getBytes());
 					output.flush();
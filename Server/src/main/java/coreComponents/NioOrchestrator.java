@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.ServletException;
+
+import org.apache.commons.fileupload.UploadContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import utils.MultipartDecoder;
+
+/**
+ * Non-blocking front end serving the same protocol (Initialize/Compute/Gradient/Stats/Eval) as the {@link MasterOrchestrator} servlet
+ * Connections are multiplexed by the selector thread of the JDK HTTP server; requests are decoded by a small worker pool
+ * and a Compute response is written when the profiler decision ({@link Profiler#getMiniBatchSizeAsync}) completes
+ * => idle keep-alive connections and clients waiting for the profiler hold no thread
+ * Enabled with -Dfleet.nioPort=port; same context path (/Server) and state (sampler, updater, profiler) as the servlet
+ */
+public class NioOrchestrator implements HttpHandler {
+
+	public static final String PORT = "fleet.nioPort";
+	/**
+	 * Number of worker threads (default: number of cores)
+	 */
+	public static final String WORKERS = "fleet.nioWorkers";
+
+	/**
+	 * Idle connections kept open by the JDK server (read once, when the first server is created)
+	 */
+	private static final String MAX_IDLE = "sun.net.httpserver.maxIdleConnections";
+	private static final int BACKLOG = 1024;
+
+	private final MasterOrchestrator orchestrator;
+	private final int maxFieldSize, memoryThreshold;
+
+	private final ExecutorService workers;
+	private final HttpServer server;
+
+	public NioOrchestrator(MasterOrchestrator orchestrator, int port, int maxFieldSize, int memoryThreshold) throws IOException {
+		this.orchestrator = orchestrator;
+		this.maxFieldSize = maxFieldSize;
+		this.memoryThreshold = memoryThreshold;
+
+		if (System.getProperty(MAX_IDLE) == null)
+			System.setProperty(MAX_IDLE, "10000");
+
+		workers = Executors.newFixedThreadPool(Integer.getInteger(WORKERS, Runtime.getRuntime().availableProcessors()), r -> {
+			Thread t = new Thread(r, "NioOrchestrator-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		server.createContext("/Server", this);
+		server.setExecutor(workers);
+		server.start();
+		System.out.println("Non-blocking front end listening on port " + port);
+	}
+
+	public void stop() {
+		server.stop(0);
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Runs on a worker; returns as soon as the request is decoded (the exchange is closed once the response is written)
+	 */
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			exchange.sendResponseHeaders(405, -1);
+			exchange.close();
+			return;
+		}
+
+		ExchangeOutput output = new ExchangeOutput(exchange);
+		CompletableFuture<Void> done;
+		try {
+			MultipartDecoder parts = new MultipartDecoder(new ExchangeContext(exchange), maxFieldSize, memoryThreshold);
+			done = orchestrator.handle(parts, output, workers);
+		} catch (IOException | ServletException | RuntimeException e) {
+			done = new CompletableFuture<>();
+			done.completeExceptionally(e);
+		}
+
+		done.whenComplete((v, e) -> {
+			if (e != null && MasterOrchestrator.isTimeout(e))
+				output.fail(503);
+			else if (e != null) {
+				e.printStackTrace();
+				output.fail(500);
+			}
+			else
+				output.close();
+		});
+	}
+
+	/**
+	 * Request body for the {@link MultipartDecoder}
+	 */
+	private static class ExchangeContext implements UploadContext {
+		private final HttpExchange exchange;
+
+		ExchangeContext(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return null;
+		}
+
+		@Override
+		public String getContentType() {
+			return exchange.getRequestHeaders().getFirst("Content-Type");
+		}
+
+		@Override
+		public long contentLength() {
+			String length = exchange.getRequestHeaders().getFirst("Content-Length");
+			return length == null ? -1 : Long.parseLong(length);
+		}
+
+		@Override
+		@Deprecated
+		public int getContentLength() {
+			return (int) contentLength();
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return exchange.getRequestBody();
+		}
+	}
+
+	/**
+	 * Response body: the status line is sent with the first byte (chunked) or on close (empty body)
+	 * Closing is idempotent (handlers close their streams)
+	 */
+	private static class ExchangeOutput extends OutputStream {
+		private final HttpExchange exchange;
+		private OutputStream body;
+		private boolean closed;
+
+		ExchangeOutput(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		private OutputStream body() throws IOException {
+			if (body == null) {
+				exchange.sendResponseHeaders(200, 0);
+				body = exchange.getResponseBody();
+			}
+			return body;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			body().write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			body().write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (body != null)
+				body.flush();
+		}
+
+		@Override
+		public synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				if (body == null)
+					exchange.sendResponseHeaders(200, -1);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			exchange.close();
+		}
+
+		/**
+		 * Error status if nothing was sent yet; otherwise the client sees a truncated response
+		 */
+		synchronized void fail(int status) {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				if (body == null)
+					exchange.sendResponseHeaders(status, -1);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			exchange.close();
+		}
+	}
+}
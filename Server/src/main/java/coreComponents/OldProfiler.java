@@ -9,29 +9,101 @@
 
 package coreComponents;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Deprecated thread-task profiler
  * Abstract class for implementing a profiler
- * A profiler is a thread-task that spawns other thread-tasks for handling client requests
+ * A profiler is a thread-task that accepts client connections and hands them to a bounded pool of handlers
+ * (or to virtual threads, if enabled and supported by the JDK)
+ * Connections are kept alive: a client can send several requests over the same socket
+ * Configuration (system properties):
+ *   fleet.profilerWorkers: number of handler threads (default: 2 * cores)
+ *   fleet.profilerQueue: connections waiting for a handler (default: 1024)
+ *   fleet.profilerReject: abort (close the connection) or caller (the accept thread handles it) when the queue is full (default: abort)
+ *   fleet.profilerKeepAlive: ms a connection may stay idle between requests (default: 5000)
+ *   fleet.profilerVirtualThreads: one virtual thread per connection (no queue; default: false)
  * @author damaskin
  *
  */
 public abstract class OldProfiler implements Runnable {
 
+	public static final String WORKERS = "fleet.profilerWorkers", QUEUE = "fleet.profilerQueue",
+			REJECT = "fleet.profilerReject", KEEP_ALIVE = "fleet.profilerKeepAlive", VIRTUAL_THREADS = "fleet.profilerVirtualThreads";
+
+	/**
+	 * Metrics are printed every METRICS_PERIOD requests
+	 */
+	private static final int METRICS_PERIOD = 100;
+
+	/**
+	 * An idle connection checks every IDLE_POLL ms whether other connections wait for a handler
+	 */
+	private static final int IDLE_POLL = 100;
+
 	final ServerSocket profilerSocket;
-	
-	abstract void handleClientRequest(Socket socket);
-	
+
+	private final ExecutorService executor;
+	private final int keepAlive;
+
+	/**
+	 * Metrics
+	 */
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong(), handlingNanos = new AtomicLong(), rejected = new AtomicLong();
+
+	/**
+	 * Handles one request of a connection
+	 * @throws EOFException (or any other IOException) when the client closes the connection
+	 */
+	abstract void handleClientRequest(ObjectInputStream input, ObjectOutputStream output) throws IOException, ClassNotFoundException;
+
 	public OldProfiler(ServerSocket profilerSocket) {
 		this.profilerSocket = profilerSocket;
+		this.keepAlive = Integer.getInteger(KEEP_ALIVE, 5000);
+		this.executor = createExecutor();
 	}
-	
+
+	private ExecutorService createExecutor() {
+		if (Boolean.getBoolean(VIRTUAL_THREADS)) {
+			try { // JDK 21+
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.out.println("[Profiler] Virtual threads not supported; using a bounded pool");
+			}
+		}
+
+		int workers = Integer.getInteger(WORKERS, 2 * Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Integer.getInteger(QUEUE, 1024)), r -> {
+					Thread t = new Thread(r, "Profiler-handler");
+					t.setDaemon(true);
+					return t;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		if (System.getProperty(REJECT, "abort").equals("caller"))
+			pool.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		return pool;
+	}
+
 	@Override
 	/**
 	 * Main thread-task running
@@ -40,16 +112,20 @@ public abstract class OldProfiler implements Runnable {
 		try {
 			while (true) {
 				Socket socket = profilerSocket.accept();
-				
-				// when a request arrives, run a handler thread to handle it 
-				HandleClient handleTask = new HandleClient(socket);
 
-				//HandleClient handleTask = new HandleClient(socket, model);
-				new Thread(handleTask).start();
+				// when a request arrives, queue a handler task for the connection
+				try {
+					executor.execute(new HandleClient(socket));
+				} catch (RejectedExecutionException e) {
+					rejected.incrementAndGet();
+					System.out.println("[Profiler] Rejected connection; queue depth: " + queueDepth());
+					close(socket);
+				}
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		} finally {
+			executor.shutdownNow();
 			try {
 				profilerSocket.close();
 			} catch (IOException e) {
@@ -57,19 +133,98 @@ public abstract class OldProfiler implements Runnable {
 			}
 		}
 	}
-	
+
+	/**
+	 * Connections waiting for a handler
+	 */
+	public int queueDepth() {
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+	}
+
+	public String metrics() {
+		long n = requests.get();
+		return "[Profiler] requests: " + n + " mean handling time (ms): " + (n == 0 ? 0 : handlingNanos.get() / 1e6 / n)
+				+ " open connections: " + openConnections.get() + " queue depth: " + queueDepth() + " rejected: " + rejected.get();
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
     class HandleClient implements Runnable {
 
 		private Socket socket;
-		
+
 		public HandleClient(Socket socket){
 			this.socket = socket;
 		}
-         
+
+		/**
+		 * Serves the requests of the connection until the client closes it or stays idle for keepAlive ms
+		 * Gives the handler up between requests if other connections are waiting
+		 */
 		public void run() {
-			handleClientRequest(socket);
+			openConnections.incrementAndGet();
+			try {
+				socket.setSoTimeout(keepAlive);
+				ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				output.flush(); // stream header
+				BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+				ObjectInputStream input = new ObjectInputStream(in);
+				for (boolean served = false; awaitRequest(input, in, served); served = true) {
+					long t = System.nanoTime();
+					handleClientRequest(input, output);
+					output.flush();
+					handlingNanos.addAndGet(System.nanoTime() - t);
+					if (requests.incrementAndGet() % METRICS_PERIOD == 0)
+						System.out.println(metrics());
+				}
+			} catch (EOFException | SocketTimeoutException | SocketException e) {
+				// connection closed or idle
+			} catch (IOException | ClassNotFoundException e) {
+				e.printStackTrace();
+			} finally {
+				openConnections.decrementAndGet();
+				close(socket);
+			}
+		}
+
+		/**
+		 * Waits for the next request outside the handling time, polling the queue every IDLE_POLL ms
+		 * @param served true if the connection already had a request served
+		 * @return false if the connection stayed idle for keepAlive ms
+		 *         or, once served, if other connections are waiting for a handler
+		 * @throws EOFException if the client closes the connection
+		 */
+		private boolean awaitRequest(ObjectInputStream input, BufferedInputStream in, boolean served) throws IOException {
+			if (served && queueDepth() > 0)
+				return false;
+			if (input.available() > 0 || in.available() > 0)
+				return true;
+			long deadline = System.currentTimeMillis() + keepAlive;
+			socket.setSoTimeout(Math.min(IDLE_POLL, keepAlive));
+			try {
+				while (true) {
+					in.mark(1);
+					try {
+						if (in.read() < 0)
+							throw new EOFException();
+						in.reset();
+						return true;
+					} catch (SocketTimeoutException e) {
+						if (served && queueDepth() > 0 || System.currentTimeMillis() >= deadline)
+							return false;
+					}
+				}
+			} finally {
+				socket.setSoTimeout(keepAlive);
+			}
 		}
 	}
-    
-    
+
+
 }
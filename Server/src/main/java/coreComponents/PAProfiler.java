@@ -16,8 +16,6 @@ import org.bytedeco.javacpp.opencv_stitching.FeaturesMatcher;
 import au.com.bytecode.opencsv.CSVReader;
 import jsat.classifiers.linear.PassiveAggressive.Mode;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -26,8 +24,6 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -292,154 +288,136 @@ public class PAProfiler extends OldProfiler {
      * case 1: stores the statistics
      * This method accesses the profiler model, clientInfo, featureMinMax
      */
-    public void handleClientRequest(Socket socket) {
-		try {
-			ObjectInputStream input = new ObjectInputStream(new DataInputStream(socket.getInputStream()));
-			ObjectOutputStream output = new ObjectOutputStream(new DataOutputStream(socket.getOutputStream()));
-			
-			int batchSize = 1;					
-			int action = 0;
-			double predictedLatency = 0.0;
-			
-			int requestType = input.readInt();
-			String clientId = (String) input.readObject();
-			double[] features = (double[]) input.readObject();
-			double[] additionalStats = (double[]) input.readObject();
-			String androidInfo = (String)input.readObject();
-			DeviceInfo devInfo = new DeviceInfo(clientId, features, additionalStats, androidInfo);
+    public void handleClientRequest(ObjectInputStream input, ObjectOutputStream output) throws IOException, ClassNotFoundException {
+		int batchSize = 1;					
+		int action = 0;
+		double predictedLatency = 0.0;
+		
+		int requestType = input.readInt();
+		String clientId = (String) input.readObject();
+		double[] features = (double[]) input.readObject();
+		double[] additionalStats = (double[]) input.readObject();
+		String androidInfo = (String)input.readObject();
+		DeviceInfo devInfo = new DeviceInfo(clientId, features, additionalStats, androidInfo);
+		
+		switch (requestType) {			
+		
+		case 0:		// receive the request to get batch size
 			
-			switch (requestType) {			
+			//Decides to evaluate the query or to abort
+			if (nextCLient!=null) {
+				if (clientId.equals(nextCLient))	action=1; 
+				else	action=0;
+			}
+			else {
+				if (alignedLogins) {
+					if (profilerEpoch < loginEpoch.get(clientId))	action=0;
+					else if (logoutRequest.get(clientId) > 0)	action = 1;
+					else action = -1;
+				}else action = 1;
+			}
 			
-			case 0:		// receive the request to get batch size
-				
-				//Decides to evaluate the query or to abort
-				if (nextCLient!=null) {
-					if (clientId.equals(nextCLient))	action=1; 
-					else	action=0;
-				}
-				else {
-					if (alignedLogins) {
-						if (profilerEpoch < loginEpoch.get(clientId))	action=0;
-						else if (logoutRequest.get(clientId) > 0)	action = 1;
-						else action = -1;
-					}else action = 1;
-				}
-				
-				if (action == 1) {						
-					//computes the normalized features when normalized mode is chosen 
-					double[] normFeatures = new double[features.length];
-					if (normalize) {
-						if (featureMinMax.isEmpty()) {
-							for (Double f: features) {
-								Double min = 0.99*f;
-								Double max = 1.01*f;
-								ArrayList<Double> entry = new ArrayList<Double>(Arrays.asList(min, max));
-								featureMinMax.add(entry);
-							} 
-						}							
-						for (int i=0; i<featureMinMax.size(); i++) {
-							featureMinMax.get(i).set(0, Math.min(featureMinMax.get(i).get(0), features[i]));
-							featureMinMax.get(i).set(1, Math.max(featureMinMax.get(i).get(1), features[i]));
-							normFeatures[i] = minMaxScale(features[i], featureMinMax.get(i).get(0), featureMinMax.get(i).get(1));
-							System.err.println("Actual: " + features[i] + ", min: "+ featureMinMax.get(i).get(0) +
-									", max: " + featureMinMax.get(i).get(1) + ", normalized: " + normFeatures[i]);
-						}
-						
-						devInfo.latencyFeatures = normFeatures;
+			if (action == 1) {						
+				//computes the normalized features when normalized mode is chosen 
+				double[] normFeatures = new double[features.length];
+				if (normalize) {
+					if (featureMinMax.isEmpty()) {
+						for (Double f: features) {
+							Double min = 0.99*f;
+							Double max = 1.01*f;
+							ArrayList<Double> entry = new ArrayList<Double>(Arrays.asList(min, max));
+							featureMinMax.add(entry);
+						} 
+					}							
+					for (int i=0; i<featureMinMax.size(); i++) {
+						featureMinMax.get(i).set(0, Math.min(featureMinMax.get(i).get(0), features[i]));
+						featureMinMax.get(i).set(1, Math.max(featureMinMax.get(i).get(1), features[i]));
+						normFeatures[i] = minMaxScale(features[i], featureMinMax.get(i).get(0), featureMinMax.get(i).get(1));
+						System.err.println("Actual: " + features[i] + ", min: "+ featureMinMax.get(i).get(0) +
+								", max: " + featureMinMax.get(i).get(1) + ", normalized: " + normFeatures[i]);
 					}
 					
-					//computes the batch size
-					if (clientInfo.isEmpty())	batchSize = 1;
-					else {
-						learn(clientId);
-						
-						if (normalize) System.arraycopy(normFeatures, 0, features, 0, features.length);							
-						long t = System.currentTimeMillis();
-						predictedLatency = model.predict(features);
-						System.out.println("PA Inference latency (ms): " + (System.currentTimeMillis() - t));
-						batchSize = (int) ((SLO - devInfo.deviceLatency) / predictedLatency);
-						if (batchSize < 1) batchSize = 1;	// at least 1 sample needs to be sent						
-					}
+					devInfo.latencyFeatures = normFeatures;
+				}
+				
+				//computes the batch size
+				if (clientInfo.isEmpty())	batchSize = 1;
+				else {
+					learn(clientId);
 					
-					//store client info
-					clientInfo.put(clientId, devInfo);
+					if (normalize) System.arraycopy(normFeatures, 0, features, 0, features.length);							
+					long t = System.currentTimeMillis();
+					predictedLatency = model.predict(features);
+					System.out.println("PA Inference latency (ms): " + (System.currentTimeMillis() - t));
+					batchSize = (int) ((SLO - devInfo.deviceLatency) / predictedLatency);
+					if (batchSize < 1) batchSize = 1;	// at least 1 sample needs to be sent						
 				}
+				
+				//store client info
+				clientInfo.put(clientId, devInfo);
+			}
+								
+			output.writeInt(action);					
+			output.writeInt(batchSize);
+			output.flush();
+								
+			break;
+			
+		case 1:		// receive the request to forward client info	
+			
+			synchronized (model) {
 									
-				output.writeInt(action);					
-				output.writeInt(batchSize);
-				output.flush();
-									
-				break;
+			if (nextCLient==null || clientId.equals(nextCLient)) {
 				
-			case 1:		// receive the request to forward client info	
+				//store client info
+				if (updateBefore==true)	devInfo.latencyFeatures = clientInfo.get(clientId).latencyFeatures;													
+				clientInfo.put(clientId, devInfo);						
+				clientFeatures.add(devInfo.latencyFeatures);
+				clientTargets.add(devInfo.meanSizeLatency);
 				
-				synchronized (model) {
-										
-				if (nextCLient==null || clientId.equals(nextCLient)) {
-					
-					//store client info
-					if (updateBefore==true)	devInfo.latencyFeatures = clientInfo.get(clientId).latencyFeatures;													
-					clientInfo.put(clientId, devInfo);						
-					clientFeatures.add(devInfo.latencyFeatures);
-					clientTargets.add(devInfo.meanSizeLatency);
-					
-					if(!clientInfo.containsKey(clientId))	model.newLoginAtEpoch(profilerEpoch);
-					
-					//if there is no initial dataset the model is initialized with the features of the first client query
-					if (!model.isUp() && filePath.equals("")) {
-						double[][] initFeatures = new double[2][];
-						double[] initTargets = new double[2];
-						for (int i=0; i<initTargets.length; i++) {
-							initFeatures[i] = devInfo.latencyFeatures;
-							initTargets[i] = devInfo.meanSizeLatency;
-						}
-						model.initOnTheFly(initFeatures, initTargets);
+				if(!clientInfo.containsKey(clientId))	model.newLoginAtEpoch(profilerEpoch);
+				
+				//if there is no initial dataset the model is initialized with the features of the first client query
+				if (!model.isUp() && filePath.equals("")) {
+					double[][] initFeatures = new double[2][];
+					double[] initTargets = new double[2];
+					for (int i=0; i<initTargets.length; i++) {
+						initFeatures[i] = devInfo.latencyFeatures;
+						initTargets[i] = devInfo.meanSizeLatency;
 					}
-					
-					System.out.println("PA " + model.getMode().toString());
-					System.out.println("Complete Info:\n" + devInfo.toString(profilerEpoch, 1, true));
-					
-					//output file
-		            // FIXME eclipse issues (no such file) -> works on the server
-		            String outputCsvPath = "src/main/resources/output" + logFileName();
-		            File file = new File(outputCsvPath);
-		            boolean writeHeader = !file.exists();
-		            FileWriter writer = new FileWriter(file, true);
-		            writer.write(devInfo.toString(profilerEpoch, 1, writeHeader) + "\n");
-		            writer.close();
-					
-					model.tick(profilerEpoch+1);
-					nextCLient=null;
-					
-					if (alignedLogins) {
-						int count = logoutRequest.containsKey(clientId) ? logoutRequest.get(clientId) : 0;
-						logoutRequest.put(clientId, count-1);
-					}						
-					learn();
-					profilerEpoch++;
+					model.initOnTheFly(initFeatures, initTargets);
 				}
 				
-	            if (alignedLogins && loginEpochReverse.containsKey(profilerEpoch)) nextCLient = loginEpochReverse.get(profilerEpoch);					
-				break;
+				System.out.println("PA " + model.getMode().toString());
+				System.out.println("Complete Info:\n" + devInfo.toString(profilerEpoch, 1, true));
 				
-				}
+				//output file
+	            // FIXME eclipse issues (no such file) -> works on the server
+	            String outputCsvPath = "src/main/resources/output" + logFileName();
+	            File file = new File(outputCsvPath);
+	            boolean writeHeader = !file.exists();
+	            FileWriter writer = new FileWriter(file, true);
+	            writer.write(devInfo.toString(profilerEpoch, 1, writeHeader) + "\n");
+	            writer.close();
+				
+				model.tick(profilerEpoch+1);
+				nextCLient=null;
 				
-			default:
-				System.out.println("Unknow request type!");
+				if (alignedLogins) {
+					int count = logoutRequest.containsKey(clientId) ? logoutRequest.get(clientId) : 0;
+					logoutRequest.put(clientId, count-1);
+				}						
+				learn();
+				profilerEpoch++;
 			}
 			
-		} catch (SocketException e) {
-			// ???
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} finally {
-			try {
-				socket.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+            if (alignedLogins && loginEpochReverse.containsKey(profilerEpoch)) nextCLient = loginEpochReverse.get(profilerEpoch);					
+			break;
+			
 			}
+			
+		default:
+			System.out.println("Unknow request type!");
 		}
     }
 	
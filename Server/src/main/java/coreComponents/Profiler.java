@@ -9,6 +9,8 @@
 
 package coreComponents;
 
+import java.util.concurrent.CompletableFuture;
+
 import utils.DeviceInfo;
 
 public interface Profiler {
@@ -22,6 +24,15 @@ public interface Profiler {
 	 * Sends stats (i.e., features) and receives the output mini-batch size
 	 */
 	public int getMiniBatchSize(String clientId, DeviceInfo stats); 
+
+	/**
+	 * Asynchronous version of getMiniBatchSize(): the front ends write the response once the future completes
+	 * => a client waiting for the decision does not hold a request thread
+	 * Default: the decision is taken in the calling thread
+	 */
+	public default CompletableFuture<Integer> getMiniBatchSizeAsync(String clientId, DeviceInfo stats) {
+		return CompletableFuture.completedFuture(getMiniBatchSize(clientId, stats));
+	}
 	
 	/**
 	 * Useful for implementing a dispatcher profiler
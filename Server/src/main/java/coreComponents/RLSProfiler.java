@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import utils.DeviceInfo;
+import utils.RLSModel;
+
+/**
+ * In-process batch size predictor (no profiler backend process)
+ * Two online regressions on the device features predict the computation latency (ms) and energy (mAh) per example;
+ * they are updated with every pushed stat and read without locking by the decisions
+ * Decision: largest batch size b such that b * latency <= latencySLO - deviceLatency and b * energy <= energySLO
+ * Optionally, each device also gets its own regressions (see {@link DeviceModelCache}) that are used for its decisions
+ */
+public class RLSProfiler implements Profiler {
+
+	/**
+	 * Forgetting factor and initial scale of the regressions
+	 */
+	static final double LAMBDA = 0.99, DELTA = 1000;
+
+	/**
+	 * Number of pushed stats before the predictions of a model are used
+	 */
+	static final int WARMUP = 3;
+
+	private final double latencySLO, energySLO;
+
+	/**
+	 * Output until the latency model is warmed up
+	 */
+	private final int defaultBatchSize;
+
+	private final RLSModel latencyModel, energyModel;
+
+	/**
+	 * Per-device regressions; null => global models only
+	 */
+	private final DeviceModelCache devices;
+
+	public RLSProfiler(double latencySLO, double energySLO, int defaultBatchSize) {
+		this(latencySLO, energySLO, defaultBatchSize, 0, 0);
+	}
+
+	/**
+	 * @param cacheSize maximum number of devices with their own regressions; 0 => global models only
+	 * @param ttl milliseconds after which the regressions of an inactive device are dropped; 0 => no expiration
+	 */
+	public RLSProfiler(double latencySLO, double energySLO, int defaultBatchSize, int cacheSize, long ttl) {
+		this.latencySLO = latencySLO;
+		this.energySLO = energySLO;
+		this.defaultBatchSize = defaultBatchSize;
+		this.latencyModel = new RLSModel(DeviceInfo.NUMBER_OF_FEATURES, LAMBDA, DELTA);
+		this.energyModel = new RLSModel(DeviceInfo.NUMBER_OF_FEATURES, LAMBDA, DELTA);
+		this.devices = cacheSize > 0 ? new DeviceModelCache(cacheSize, ttl) : null;
+		System.out.println("[RLS Profiler] latencySLO: " + latencySLO + " energySLO: " + energySLO + " cacheSize: " + cacheSize);
+	}
+
+	public void pushStats(String clientId, DeviceInfo stats) {
+		if (stats.batchSize <= 0)
+			return;
+		double[] x = features(stats);
+		// warm start from the global models before they see this stat
+		DeviceModelCache.Entry e = devices == null ? null : devices.getOrCreate(clientId, stats, latencyModel, energyModel);
+		update(latencyModel, energyModel, x, stats);
+		if (e != null)
+			update(e.latency, e.energy, x, stats);
+	}
+
+	public int getMiniBatchSize(String clientId, DeviceInfo stats) {
+		DeviceModelCache.Entry e = devices == null ? null : devices.get(clientId, stats);
+		if (e != null)
+			return solve(stats, features(stats), e.latency, e.energy);
+		return solve(stats, features(stats), latencyModel, energyModel);
+	}
+
+	public boolean continueRequests(String clientId) {
+		return false;
+	}
+
+	private static void update(RLSModel latency, RLSModel energy, double[] x, DeviceInfo stats) {
+		if (stats.sizeLatency > 0)
+			latency.update(x, stats.sizeLatency / stats.batchSize);
+		if (stats.sizeEnergy > 0)
+			energy.update(x, stats.sizeEnergy / stats.batchSize);
+	}
+
+	/**
+	 * Batch size that meets both SLOs for the predicted per-example latency and energy (at least 1)
+	 * A model that is not warmed up or predicts a non-positive cost does not constrain the batch size
+	 */
+	int solve(DeviceInfo stats, double[] x, RLSModel latency, RLSModel energy) {
+		double bound = Double.POSITIVE_INFINITY;
+		boolean constrained = false;
+
+		double perExample = latency.updates() >= WARMUP ? latency.predict(x) : 0;
+		if (perExample > 0) {
+			bound = (latencySLO - Math.max(0, stats.deviceLatency)) / perExample;
+			constrained = true;
+		}
+		perExample = energy.updates() >= WARMUP ? energy.predict(x) : 0;
+		if (perExample > 0) {
+			bound = Math.min(bound, energySLO / perExample);
+			constrained = true;
+		}
+
+		if (!constrained)
+			return defaultBatchSize;
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bound));
+	}
+
+	/**
+	 * Intercept and log-scaled device features (latencyFeatures without the batch size)
+	 */
+	static double[] features(DeviceInfo stats) {
+		double[] x = new double[DeviceInfo.NUMBER_OF_FEATURES];
+		x[0] = 1;
+		for (int i = 1; i < x.length; i++)
+			x[i] = Math.log1p(Math.max(0, stats.latencyFeatures[i]));
+		return x;
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelined client of a batched python profiler backend (profilerBackend.py --batched)
+ * Requests are tagged with ids and many can be in flight; the requests that arrive within the coalescing window
+ * are sent as one batched prediction call and the replies are matched by id
+ * Frame (big-endian): length (of the rest) | op | count | entries
+ *   PREDICT: id (long) | row
+ *   RESULT (backend => server): id (long) | n (int) | double[n]
+ *   PUSH: row
+ * row: numFields (int) | field: tag (byte; 0: double, 1: UTF-8 string) | value; fields as in DeviceInfo#toString()
+ */
+class RPCPipeline {
+
+	static final byte PREDICT = 1, RESULT = 2, PUSH = 3;
+	private static final byte DOUBLE = 0, STRING = 1;
+
+	/**
+	 * Maximum number of requests per frame
+	 */
+	static final int MAX_BATCH = 256;
+
+	/**
+	 * Queued call: id >= 0 for predictions, -1 for pushed stats
+	 */
+	private static class Call {
+		final long id;
+		final String[] row;
+
+		Call(long id, String[] row) {
+			this.id = id;
+			this.row = row;
+		}
+	}
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final long coalesceNanos;
+
+	private final LinkedBlockingQueue<Call> queue = new LinkedBlockingQueue<>();
+	private final ConcurrentHashMap<Long, CompletableFuture<double[]>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong ids = new AtomicLong();
+
+	private volatile IOException failure;
+
+	/**
+	 * @param coalesceMicros time the sender waits for more requests after the first one of a batch
+	 */
+	RPCPipeline(String hostName, int portNumber, long coalesceMicros) throws IOException {
+		this.socket = new Socket(hostName, portNumber);
+		socket.setTcpNoDelay(true);
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		this.coalesceNanos = TimeUnit.MICROSECONDS.toNanos(coalesceMicros);
+
+		Thread sender = new Thread(this::sendLoop, "RPCPipeline-send-" + portNumber);
+		sender.setDaemon(true);
+		sender.start();
+		Thread receiver = new Thread(this::receiveLoop, "RPCPipeline-receive-" + portNumber);
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	/**
+	 * @return prediction of the backend for the row; cancelling it drops the request from the in-flight ones
+	 */
+	CompletableFuture<double[]> predict(String[] row) {
+		CompletableFuture<double[]> ret = new CompletableFuture<>();
+		if (failure != null) {
+			ret.completeExceptionally(failure);
+			return ret;
+		}
+		long id = ids.getAndIncrement();
+		inFlight.put(id, ret);
+		ret.whenComplete((r, e) -> inFlight.remove(id)); // replied, failed or cancelled (e.g., admission timeout)
+		if (failure != null && inFlight.remove(id) != null) { // failed in between
+			ret.completeExceptionally(failure);
+			return ret;
+		}
+		queue.add(new Call(id, row));
+		return ret;
+	}
+
+	/**
+	 * Sent in order with the predictions (no reply)
+	 */
+	void push(String[] row) {
+		if (failure == null)
+			queue.add(new Call(-1, row));
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Takes the first queued call, waits up to the coalescing window for more
+	 * and writes them as consecutive frames of the same op (keeps the order of predictions and pushes)
+	 */
+	private void sendLoop() {
+		List<Call> batch = new ArrayList<>();
+		try {
+			while (true) {
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + coalesceNanos;
+				while (batch.size() < MAX_BATCH) {
+					long remaining = deadline - System.nanoTime();
+					Call next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+
+				for (int from = 0, to; from < batch.size(); from = to) {
+					boolean predict = batch.get(from).id >= 0;
+					for (to = from + 1; to < batch.size() && (batch.get(to).id >= 0) == predict; to++)
+						;
+					writeFrame(predict ? PREDICT : PUSH, batch.subList(from, to));
+				}
+				out.flush();
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void writeFrame(byte op, List<Call> calls) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * calls.size());
+		DataOutputStream frame = new DataOutputStream(bytes);
+		frame.writeByte(op);
+		frame.writeInt(calls.size());
+		for (Call c : calls) {
+			if (op == PREDICT)
+				frame.writeLong(c.id);
+			writeRow(frame, c.row);
+		}
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static void writeRow(DataOutputStream frame, String[] row) throws IOException {
+		frame.writeInt(row.length);
+		for (String field : row) {
+			double value;
+			try {
+				value = Double.parseDouble(field);
+			} catch (NumberFormatException e) {
+				byte[] utf8 = field.getBytes(StandardCharsets.UTF_8);
+				frame.writeByte(STRING);
+				frame.writeInt(utf8.length);
+				frame.write(utf8);
+				continue;
+			}
+			frame.writeByte(DOUBLE);
+			frame.writeDouble(value);
+		}
+	}
+
+	private void receiveLoop() {
+		try {
+			while (true) {
+				in.readInt(); // frame length
+				byte op = in.readByte();
+				if (op != RESULT)
+					throw new IOException("Unexpected profiler frame: " + op);
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long id = in.readLong();
+					double[] values = new double[in.readInt()];
+					for (int j = 0; j < values.length; j++)
+						values[j] = in.readDouble();
+					CompletableFuture<double[]> f = inFlight.remove(id);
+					if (f != null)
+						f.complete(values);
+					else
+						System.out.println("[RPC Profiler] Reply to a cancelled or unknown request id: " + id);
+				}
+			}
+		} catch (EOFException e) {
+			fail(new IOException("Profiler backend closed the connection", e));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Fails all the in-flight and future requests
+	 */
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+			e.printStackTrace();
+		}
+		for (Long id : inFlight.keySet()) {
+			CompletableFuture<double[]> f = inFlight.remove(id);
+			if (f != null)
+				f.completeExceptionally(e);
+		}
+		close();
+	}
+}
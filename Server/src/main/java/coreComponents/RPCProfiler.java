@@ -12,6 +12,8 @@ package coreComponents;
 import utils.DeviceInfo;
 import java.io.*;
 import java.net.Socket;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import org.json.JSONArray;
 import org.json.JSONException;
 
@@ -27,15 +29,31 @@ public class RPCProfiler implements Profiler {
 	
 	final double latencySLO, energySLO;
 
+	/**
+	 * Batched binary protocol (null: one JSON line per request and reply)
+	 */
+	private RPCPipeline pipeline;
 
+	/**
+	 * Profiler with the JSON line protocol (e.g., latencyProfilerBackend.py); one request at a time
+	 */
 	public RPCProfiler(int portNumber, double latencySLO, double energySLO, String outputCsvPath) {
+		this(portNumber, latencySLO, energySLO, outputCsvPath, -1);
+	}
+
+	/**
+	 * @param coalesceMicros >= 0: pipelined batched binary protocol (see {@link RPCPipeline}) 
+	 * with requests coalesced for the given time window; < 0: JSON line protocol
+	 */
+	public RPCProfiler(int portNumber, double latencySLO, double energySLO, String outputCsvPath, long coalesceMicros) {
 		this.portNumber = portNumber;
 		this.latencySLO = latencySLO;
 		this.energySLO = energySLO;
 		
 		System.out.println("[RPC Profiler] " + DeviceInfo.header());
 		System.out.println(
-				"IMPORTANT: must launch the python backend along with the Server: ```python src/main/python/profilerBackend.py & mvn tomcat7:run```");
+				"IMPORTANT: must launch the python backend along with the Server: ```python src/main/python/profilerBackend.py"
+				+ (coalesceMicros >= 0 ? " --batched" : "") + " & mvn tomcat7:run```");
 
 		//output file
         // FIXME eclipse issues (no such file) -> works on the server
@@ -49,11 +67,15 @@ public class RPCProfiler implements Profiler {
 		}
 
 		try {
-			clientSocket = new Socket(hostName, portNumber);
-			in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-			// PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-			OutputStreamWriter out = new OutputStreamWriter(clientSocket.getOutputStream());
-			buf = new BufferedWriter(out);
+			if (coalesceMicros >= 0)
+				pipeline = new RPCPipeline(hostName, portNumber, coalesceMicros);
+			else {
+				clientSocket = new Socket(hostName, portNumber);
+				in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+				// PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+				OutputStreamWriter out = new OutputStreamWriter(clientSocket.getOutputStream());
+				buf = new BufferedWriter(out);
+			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -65,40 +87,68 @@ public class RPCProfiler implements Profiler {
 	/**
 	 * Sends stats for updating the model
 	 */
-	public synchronized void pushStats(String clientId, DeviceInfo stats) {
+	public void pushStats(String clientId, DeviceInfo stats) {
 		
 		//System.out.println("Pushing stats: " + stats.toString(-1, 1, false));
 		String[] msg = stats.toString(-1, 1, false).split(",");
-		send(msg);
+		if (pipeline != null)
+			pipeline.push(msg);
+		else
+			synchronized (this) {
+				send(msg);
+			}
 
-		try {
-			writer.write(stats.toString(-1, 1, false) + "\n");
-			writer.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		log(stats.toString(-1, 1, false));
 	}
 
 	/**
 	 * Sends stats (i.e., features) and receives the output mini-batch size
 	 */
-	public synchronized int getMiniBatchSize(String clientId, DeviceInfo stats) {
-		int batchSize = -1;
+	public int getMiniBatchSize(String clientId, DeviceInfo stats) {
+		return getMiniBatchSizeAsync(clientId, stats).join();
+	}
 
+	/**
+	 * Pipelined protocol: concurrent requests are in flight together (no lock held while waiting for the backend)
+	 */
+	@Override
+	public CompletableFuture<Integer> getMiniBatchSizeAsync(String clientId, DeviceInfo stats) {
 		String[] msg = stats.toString(-1, 0, false).split(",");
-		send(msg);
-		double[] response = receive();
-		batchSize = (int) response[0];
-		System.out.println("real batch size for " + msg[3] + " is " + batchSize);
+		log(stats.toString(-1, 0, false));
+
+		CompletableFuture<double[]> response;
+		if (pipeline != null)
+			response = pipeline.predict(msg);
+		else
+			synchronized (this) {
+				send(msg);
+				response = CompletableFuture.completedFuture(receive());
+			}
 
-		try {
-			writer.write(stats.toString(-1, 0, false) + "\n");
-			writer.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		CompletableFuture<Integer> ret = response.thenApply(r -> {
+			int batchSize = (int) r[0];
+			System.out.println("real batch size for " + msg[3] + " is " + batchSize);
+			return batchSize;
+		});
+		// a cancelled decision (e.g., admission timeout) cancels the pipelined request
+		ret.whenComplete((r, e) -> {
+			if (e instanceof CancellationException)
+				response.cancel(false);
+		});
+		return ret;
+	}
 
-		return batchSize;
+	private void log(String row) {
+		if (writer == null)
+			return;
+		synchronized (writer) {
+			try {
+				writer.write(row + "\n");
+				writer.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 
 	private void send(String[] arr) {
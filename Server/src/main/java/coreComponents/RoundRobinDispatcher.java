@@ -18,6 +18,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import jsat.classifiers.linear.PassiveAggressive.Mode;
 import utils.DeviceInfo;
@@ -35,11 +36,9 @@ public class RoundRobinDispatcher implements Profiler {
 	private HashMap<String, Integer> requestId;
 
 	/**
-	 * Number of currently connected clients
+	 * Parks the requests until numClients clients are connected
 	 */
-	int numConnected;
-	
-	int numClients;
+	private final AdmissionBarrier barrier;
 
 	/**
 	 * @param latencySLO
@@ -67,28 +66,22 @@ public class RoundRobinDispatcher implements Profiler {
 
 		requestId = new HashMap<>(); 
 		
-		this.numClients = numClients;
+		this.barrier = new AdmissionBarrier(numClients);
 
 	}
 	
 		
 	public int getMiniBatchSize(String clientId, DeviceInfo stats) {
-	
+		return getMiniBatchSizeAsync(clientId, stats).join();
+	}
+
+	@Override
+	public CompletableFuture<Integer> getMiniBatchSizeAsync(String clientId, DeviceInfo stats) {
 		System.out.println("Get mini-batch size for clientId " + clientId);
-		numConnected++;
-		
-		if (numConnected < numClients)
-			System.out.println(clientId + " waiting as numConnected = " + numConnected + " < " + numClients);
-
-		while (numConnected < numClients) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		
+		return barrier.admit(clientId, () -> dispatch(clientId, stats));
+	}
+
+	private int dispatch(String clientId, DeviceInfo stats) {
 		synchronized (requestId) {
 			if (!requestId.containsKey(clientId))
 				requestId.put(clientId, 0);
@@ -31,10 +31,55 @@ public interface SGDUpdater {
 	 */
 	void getParameters(Output output, boolean isComputationRequest);
 
+	/**
+	 * Fetches the current parameters of the model encoded with the wire format negotiated by the client
+	 * Updaters without native payloads ignore the version
+	 * @param isComputationRequest true => computation request , false => evaluation request
+	 * @param wireVersion {@link utils.WireFormat}
+	 */
+	default void getParameters(Output output, boolean isComputationRequest, int wireVersion) {
+		getParameters(output, isComputationRequest);
+	}
+
+	/**
+	 * Computation request variant that serves the model from a {@link utils.ModelSnapshotCache}
+	 * Writes the per-request fields to output and returns the cached model as a gzip member 
+	 * that is streamed after the gzip member of output
+	 * @param wireVersion {@link utils.WireFormat}
+	 * @return null if the updater does not cache its models => use getParameters()
+	 */
+	default byte[] getCachedParameters(Output output, int wireVersion) {
+		return null;
+	}
+
+	/**
+	 * Variant of getCachedParameters() for a client that already holds a model
+	 * @param baseEpoch epoch of the model held by the client (-1 if none)
+	 * @param baseHashCode hashCode of the model held by the client
+	 * @return cached model or {@link utils.ModelDelta} against the base model; null => use getParameters()
+	 */
+	default byte[] getCachedParameters(Output output, int wireVersion, int baseEpoch, int baseHashCode) {
+		return getCachedParameters(output, wireVersion);
+	}
+
 	/**
 	 * Updates the current model with the serialized gradients
 	 * @param input contains the serialized byte[] returned from GradientGenerator of the Client
 	 */
 	void update(InputStream input);
+
+	/**
+	 * Number of clients currently active (reported with the profiler stats)
+	 * Updaters with per-worker state (e.g., Kardam) size it accordingly and drop the state of inactive workers
+	 */
+	default void setActiveWorkers(int workers) {
+	}
+
+	/**
+	 * Stops the threads of the updater; called before a new initialization replaces it
+	 * Updates still in flight when the updater is closed are dropped
+	 */
+	default void close() {
+	}
 	
 }
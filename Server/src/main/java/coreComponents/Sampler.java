@@ -21,6 +21,17 @@ public interface Sampler {
 	 */
 	void getSample(int size, Output output);
 
+	/**
+	 * Get miniBatch encoded with the wire format negotiated by the client
+	 * Samplers without native payloads ignore the version
+	 * @param size
+	 * @param output
+	 * @param wireVersion {@link utils.WireFormat}
+	 */
+	default void getSample(int size, Output output, int wireVersion) {
+		getSample(size, output);
+	}
+
 	/**
 	 * Reset sampler (triggered by the Driver) (e.g., reset example pool)
 	 */
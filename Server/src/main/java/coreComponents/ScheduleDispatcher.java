@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import au.com.bytecode.opencsv.CSVReader;
 import jsat.classifiers.linear.PassiveAggressive.Mode;
@@ -43,6 +44,11 @@ public class ScheduleDispatcher implements Profiler {
 	
 	private Integer[] schedule;
 
+	/**
+	 * Requests parked until the turn of their client (see schedule), by client number
+	 */
+	private final HashMap<Integer, List<Runnable>> parked = new HashMap<>();
+
 	/**
 	 * Read hardcoded schedule from csv file
 	 * @param latencySLO
@@ -116,38 +122,76 @@ public class ScheduleDispatcher implements Profiler {
 	
 	
 	public int getMiniBatchSize(String clientId, DeviceInfo stats) {
-	
-		if (!clientIds.containsKey(clientId))
-			clientIds.put(clientId, currId++);
-		
-		if (schedule[scheduleIdx] != clientIds.get(clientId)) {
-			System.out.println(clientId + " waits for clientId: " + schedule[scheduleIdx] + " ... Total connected: " + clientIds.size());
-			while (schedule[scheduleIdx] != clientIds.get(clientId)) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+		return getMiniBatchSizeAsync(clientId, stats).join();
+	}
+
+	@Override
+	public CompletableFuture<Integer> getMiniBatchSizeAsync(String clientId, DeviceInfo stats) {
+		CompletableFuture<Integer> ret = new CompletableFuture<>();
+		Runnable release = () -> {
+			try {
+				ret.complete(currentProfiler().getMiniBatchSize(clientId, stats));
+			} catch (RuntimeException e) {
+				ret.completeExceptionally(e);
+			}
+		};
+
+		synchronized (this) {
+			if (!clientIds.containsKey(clientId))
+				clientIds.put(clientId, currId++);
+			int id = clientIds.get(clientId);
+
+			if (schedule[scheduleIdx] != id) {
+				System.out.println(clientId + " waits for clientId: " + schedule[scheduleIdx] + " ... Total connected: " + clientIds.size());
+				parked.computeIfAbsent(id, k -> new ArrayList<>()).add(release);
+				ret.whenComplete((v, e) -> {
+					if (ret.isCancelled())
+						unpark(id, release);
+				});
+				return ret;
 			}
 		}
-		
-		return profilers.get(counter).getMiniBatchSize(clientId, stats);
+
+		release.run();
+		return ret;
+	}
+
+	private synchronized Profiler currentProfiler() {
+		return profilers.get(counter);
+	}
+
+	private synchronized void unpark(int id, Runnable release) {
+		List<Runnable> waiting = parked.get(id);
+		if (waiting != null)
+			waiting.remove(release);
 	}
 
 	public void pushStats(String clientId, DeviceInfo stats) {
 
-		if (schedule[scheduleIdx] != clientIds.get(clientId)) {
-			System.err.println("Something went wrong!!");
+		Profiler profiler;
+		synchronized (this) {
+			if (schedule[scheduleIdx] != clientIds.get(clientId)) {
+				System.err.println("Something went wrong!!");
+			}
+			profiler = profilers.get(counter);
 		}
-		
-		profilers.get(counter++).pushStats(clientId, stats);
-		
-		if (counter == profilers.size()) { // reset and unlock
-			counter = 0;
-			scheduleIdx++;
+
+		profiler.pushStats(clientId, stats);
+
+		List<Runnable> released = null;
+		synchronized (this) {
+			counter++;
+			if (counter == profilers.size()) { // reset and unlock
+				counter = 0;
+				scheduleIdx++;
+				if (scheduleIdx < schedule.length)
+					released = parked.remove(schedule[scheduleIdx]);
+			}
 		}
-		
+
+		if (released != null)
+			for (Runnable r : released)
+				r.run();
 	}
 
 	public boolean continueRequests(String clientId) {
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package coreComponents;
+
+import java.io.IOException;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.serializers.DefaultArraySerializers.ByteArraySerializer;
+
+import apps.cppNN.CppNNUpdater;
+import apps.cppNN.ShardClient;
+import apps.cppNN.ShardMap;
+import utils.JNITest;
+
+/**
+ * Endpoint of a shard k > 0 in a sharded deployment (see {@link ShardMap})
+ * Stores the gradient slices routed by the coordinator and applies the descent on the range of the shard
+ */
+@WebServlet("/Shard")
+public class ShardServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private ShardMap shards;
+	private CppNNUpdater updater;
+
+	private final ThreadLocal<Kryo> kryoLocal = ThreadLocal.withInitial(() -> {
+		Kryo kryo = new Kryo();
+		kryo.register(byte[].class, new ByteArraySerializer());
+		return kryo;
+	});
+
+	/**
+	 * @see Servlet#init(ServletConfig)
+	 */
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		shards = ShardMap.fromSystemProperties();
+		if (shards == null || shards.isCoordinator())
+			return;
+
+		new JNITest().hello();
+		updater = new CppNNUpdater();
+		System.out.println("Shard " + shards.id() + "/" + shards.size() + " at " + shards.url(shards.id()));
+	}
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (updater == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Not a shard of a sharded deployment");
+			return;
+		}
+
+		Kryo kryo = kryoLocal.get();
+		Input in = new Input(request.getInputStream());
+		byte[] ret = new byte[0];
+		try {
+			int op = in.readInt();
+			switch (op) {
+			case ShardClient.INIT:
+				int hashCode = in.readInt();
+				updater.initializeShard(kryo.readObject(in, byte[].class), hashCode);
+				break;
+			case ShardClient.SLICE:
+				long id = in.readLong();
+				updater.putSlice(id, kryo.readObject(in, byte[].class));
+				break;
+			case ShardClient.APPLY:
+				int currEpoch = in.readInt();
+				int clientBatchSize = in.readInt();
+				long[] ids = kryo.readObject(in, long[].class);
+				double[] factors = kryo.readObject(in, double[].class);
+				long[] released = kryo.readObject(in, long[].class);
+				ret = updater.applyShard(currEpoch, clientBatchSize, ids, factors, released);
+				break;
+			default:
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown shard op: " + op);
+				return;
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+			return;
+		}
+
+		response.setContentType("application/octet-stream");
+		response.setContentLength(ret.length);
+		response.getOutputStream().write(ret);
+	}
+}
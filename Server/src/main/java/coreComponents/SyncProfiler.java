@@ -9,6 +9,8 @@
 
 package coreComponents;
 
+import java.util.concurrent.CompletableFuture;
+
 import utils.DeviceInfo;
 
 /**
@@ -21,11 +23,9 @@ public class SyncProfiler implements Profiler {
 	final double latencySLO, energySLO;
 	
 	/**
-	 * Number of currently connected clients
+	 * Parks the requests until numClients clients are connected
 	 */
-	int numConnected;
-	
-	int numClients;
+	private final AdmissionBarrier barrier;
 
 	/**
 	 * Starts accepting requests only after all the clients have been connected
@@ -36,7 +36,7 @@ public class SyncProfiler implements Profiler {
 	public SyncProfiler(double latencySLO, double energySLO, int numClients) {
 		this.latencySLO = latencySLO;
 		this.energySLO = energySLO;
-		this.numClients = numClients;
+		this.barrier = new AdmissionBarrier(numClients);
 	}
 	
 
@@ -45,21 +45,13 @@ public class SyncProfiler implements Profiler {
 	}
 	
 	public int getMiniBatchSize(String clientId, DeviceInfo stats) {
-		System.out.println("Get mini-batch size for clientId " + clientId + ": " + stats.toString(-1, 0, true));
-		numConnected++;
-		
-		if (numConnected < numClients)
-			System.out.println(clientId + " waiting as numConnected= " + numConnected);
+		return getMiniBatchSizeAsync(clientId, stats).join();
+	}
 
-		while (numConnected < numClients) {
-			try {
-				Thread.sleep(3000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		return 104;
+	@Override
+	public CompletableFuture<Integer> getMiniBatchSizeAsync(String clientId, DeviceInfo stats) {
+		System.out.println("Get mini-batch size for clientId " + clientId + ": " + stats.toString(-1, 0, true));
+		return barrier.admit(clientId, () -> 104);
 	}
 	
 	public boolean continueRequests(String clientId) {
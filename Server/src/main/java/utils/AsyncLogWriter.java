@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log file writer off the caller thread
+ * log() only queues the line; a background thread writes all queued lines and flushes once per batch
+ */
+public class AsyncLogWriter implements Closeable {
+
+	private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+	private final Writer writer;
+	private final Thread thread;
+	private volatile boolean closed;
+
+	public AsyncLogWriter(Writer writer, String name) {
+		this.writer = writer;
+		this.thread = new Thread(this::writeLoop, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void log(String line) {
+		if (!closed)
+			queue.add(line);
+	}
+
+	private void writeLoop() {
+		ArrayList<String> batch = new ArrayList<>();
+		try {
+			while (!closed || !queue.isEmpty()) {
+				String line = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (line == null)
+					continue;
+				batch.add(line);
+				queue.drainTo(batch);
+				for (String l : batch)
+					writer.write(l);
+				writer.flush();
+				batch.clear();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the queued lines and closes the writer
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer.close();
+	}
+}
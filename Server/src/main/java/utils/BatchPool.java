@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pool of example ids for sampling mini-batches without replacement ("cyclic" rule)
+ * pool[0, remaining) holds the ids not drawn yet; a drawn id is swapped with the last remaining one
+ * => O(1) per draw and O(1) refill (the drawn ids stay in pool[remaining, size))
+ */
+public class BatchPool {
+
+	private int[] pool;
+	/**
+	 * number of ids in the pool
+	 */
+	private int size;
+	/**
+	 * number of ids not drawn since the last refill
+	 */
+	private int remaining;
+
+	private final Random random;
+
+	/**
+	 * Pool with the ids [0, size)
+	 * @param seed for reproducible runs
+	 */
+	public BatchPool(int size, long seed) {
+		this(size, new Random(seed));
+	}
+
+	public BatchPool(int size, Random random) {
+		this.random = random;
+		this.pool = new int[Math.max(size, 1)];
+		for (int i = 0; i < size; i++)
+			pool[i] = i;
+		this.size = size;
+		this.remaining = size;
+	}
+
+	/**
+	 * Refills the pool with all its ids
+	 */
+	public synchronized void reset() {
+		remaining = size;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * Adds a new id to the pool (available to the next draws)
+	 */
+	public synchronized void add(int id) {
+		if (size == pool.length)
+			pool = Arrays.copyOf(pool, 2 * pool.length);
+		pool[size++] = pool[remaining];
+		pool[remaining++] = id;
+	}
+
+	/**
+	 * Draws an id without replacement
+	 * @return id ~ U(remaining ids)
+	 */
+	public synchronized int next() {
+		if (remaining == 0)
+			throw new IllegalStateException("Empty batch pool");
+		int k = random.nextInt(remaining);
+		int id = pool[k];
+		pool[k] = pool[--remaining];
+		pool[remaining] = id;
+		return id;
+	}
+
+	/**
+	 * Draws a mini-batch without replacement; refills the pool first if there are not enough remaining ids
+	 * @param batchSize at most size()
+	 */
+	public synchronized int[] nextBatch(int batchSize) {
+		if (batchSize > remaining)
+			reset();
+		int[] ret = new int[batchSize];
+		for (int j = 0; j < batchSize; j++)
+			ret[j] = next();
+		return ret;
+	}
+
+	/**
+	 * Draws an id with replacement from the remaining ids
+	 */
+	public synchronized int sample() {
+		return pool[random.nextInt(remaining)];
+	}
+}
@@ -27,7 +27,7 @@ public class ByteVec implements Vector {
 
 	/**
 	 * Flat array byte representation
-	 * To be decoded with JNI (first value is the size of the vector)
+	 * To be decoded with JNI ({@link WireFormat}; the natives return BINARY payloads and still accept legacy Base64)
 	 * @param v
 	 */
 	public ByteVec(byte[] v) {
@@ -62,51 +62,58 @@ public class DeviceInfo {
     public double batteryLevel = 0;
     public double volt = 0;
 	
-	public DeviceInfo(String deviceId, DoubleMatrix deviceMat, String androidInfo) {
+	public DeviceInfo(String deviceId, DoubleMatrix deviceMat, String androidInfo) {
+		this(deviceId, deviceMat.getRow(0).toArray(), androidInfo);
+	}
+
+	/**
+	 * @param stats decoded {@link DeviceStats} (same order as the legacy matrix row)
+	 */
+	public DeviceInfo(String deviceId, double[] stats, String androidInfo) {
 		int i = 0;
 
 		this.id = deviceId;
 		
-		this.availMemory = deviceMat.get(0, i++);
-		this.runningProcess = (int) deviceMat.get(0, i++);
-		this.coreNumber = (int) deviceMat.get(0, i++);
+		this.availMemory = stats[i++];
+		this.runningProcess = (int) stats[i++];
+		this.coreNumber = (int) stats[i++];
 		//this.cpuSpeed = deviceMat.get(0,3);
-		this.threadNumberLittle = (int) deviceMat.get(0, i++);
-		this.threadNumberBig = (int) deviceMat.get(0, i++);
-		this.bogoMips = deviceMat.get(0,i++);
+		this.threadNumberLittle = (int) stats[i++];
+		this.threadNumberBig = (int) stats[i++];
+		this.bogoMips = stats[i++];
 		
 		//latency per example
-		this.networkLatency = deviceMat.get(0, i++);
-		this.sizeLatency = deviceMat.get(0, i++);
-		this.meanSizeLatency = deviceMat.get(0, i++);
-		this.deviceLatency = deviceMat.get(0, i++);
-		this.heapSize = deviceMat.get(0, i++);
-		this.ramSize = deviceMat.get(0, i++);
-		this.bandwidth = deviceMat.get(0, i++);
-		this.batchSize = deviceMat.get(0, i++);
+		this.networkLatency = stats[i++];
+		this.sizeLatency = stats[i++];
+		this.meanSizeLatency = stats[i++];
+		this.deviceLatency = stats[i++];
+		this.heapSize = stats[i++];
+		this.ramSize = stats[i++];
+		this.bandwidth = stats[i++];
+		this.batchSize = stats[i++];
 
-		this.sizeEnergy = deviceMat.get(0, i++);
-		this.idleEnergy = deviceMat.get(0, i++);
-		this.deviceEnergy = deviceMat.get(0, i++);
+		this.sizeEnergy = stats[i++];
+		this.idleEnergy = stats[i++];
+		this.deviceEnergy = stats[i++];
 
-		this.deviceAvailableRam = deviceMat.get(0, i++);
-		this.deviceTotalRam = deviceMat.get(0, i++);
-		this.deviceCpuUsage = deviceMat.get(0, i++);
+		this.deviceAvailableRam = stats[i++];
+		this.deviceTotalRam = stats[i++];
+		this.deviceCpuUsage = stats[i++];
 
-		this.temperature = deviceMat.get(0, i++);
-		this.batteryLevel = deviceMat.get(0, i++);
-		this.volt = deviceMat.get(0, i++);
+		this.temperature = stats[i++];
+		this.batteryLevel = stats[i++];
+		this.volt = stats[i++];
 
 		this.cpuMaxFrequency = new double[8];
 		for (int j=0; j < 8; j++){
-			this.cpuMaxFrequency[j] = (int) deviceMat.get(0, i+j);
+			this.cpuMaxFrequency[j] = (int) stats[i+j];
 			//System.out.println("Freq: " + cpuMaxFrequency[j]);
 		}
 		i+=8;
 
 		this.cpuCurFrequency = new double[8];
 		for (int j=0; j < 8; j++){
-			this.cpuCurFrequency[j] = (int) deviceMat.get(0, i+j);
+			this.cpuCurFrequency[j] = (int) stats[i+j];
 			//System.out.println("Freq: " + cpuCurFrequency[j]);
 		}
 		
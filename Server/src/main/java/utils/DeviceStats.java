@@ -0,0 +1 @@
+../../../../../commonLib/utils/DeviceStats.java
\ No newline at end of file
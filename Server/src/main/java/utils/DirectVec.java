@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.text.NumberFormat;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MathArithmeticException;
+import org.apache.commons.math3.exception.MathUnsupportedOperationException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.geometry.Point;
+import org.apache.commons.math3.geometry.Space;
+import org.apache.commons.math3.geometry.Vector;
+
+/**
+ * Off-heap float vector backed by a direct ByteBuffer (native byte order)
+ * Native arithmetic accesses the buffer in place via GetDirectBufferAddress => no copies or re-encoding
+ * axpy and scale mutate this vector; the {@link Vector} operations return new vectors
+ * Raw {@link Vector} (as {@link ByteVec}): the operations only accept DirectVec; not serializable (off-heap buffer)
+ */
+@SuppressWarnings({ "rawtypes", "serial" })
+public class DirectVec implements Vector {
+
+	private final ByteBuffer buf;
+	private final int size;
+
+	private static native void axpyNative(ByteBuffer y, ByteBuffer x, int size, double a);
+	private static native void scaleNative(ByteBuffer v, int size, double a);
+	private static native double dotNative(ByteBuffer a, ByteBuffer b, int size);
+	private static native double normNative(ByteBuffer v, int size);
+	private static native double distanceNative(ByteBuffer a, ByteBuffer b, int size);
+
+	/**
+	 * Zero vector
+	 * @param size number of floats
+	 */
+	public DirectVec(int size) {
+		this.size = size;
+		this.buf = ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Copies a binary {@link WireFormat} payload off-heap
+	 * @param payload e.g., output of CppNNUpdater#getFlatGradient()
+	 */
+	public static DirectVec wrap(byte[] payload) {
+		return wrap(payload, null);
+	}
+
+	/**
+	 * Copies a binary {@link WireFormat} payload off-heap, reusing a vector of the same size
+	 * @param into reused (overwritten) if it has the payload size; may be null
+	 * @return into or, if it cannot be reused, a new vector
+	 */
+	public static DirectVec wrap(byte[] payload, DirectVec into) {
+		if (!WireFormat.isBinary(payload))
+			throw new IllegalArgumentException("DirectVec requires a binary wire payload");
+		int size = WireFormat.length(payload);
+		DirectVec ret = into != null && into.size == size ? into : new DirectVec(size);
+		ret.buf.clear();
+		if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+			ret.buf.put(payload, WireFormat.HEADER_SIZE, ret.size * Float.BYTES);
+		else
+			ret.asFloatBuffer().put(ByteBuffer.wrap(payload, WireFormat.HEADER_SIZE, ret.size * Float.BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+		ret.buf.clear();
+		return ret;
+	}
+
+	/**
+	 * @param hashCode model hashCode stamped on the header
+	 * @return binary {@link WireFormat} payload to be decoded with JNI
+	 */
+	public byte[] toPayload(int hashCode) {
+		ByteBuffer out = ByteBuffer.allocate(WireFormat.HEADER_SIZE + size * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		WireFormat.putHeader(out, hashCode, size);
+		out.asFloatBuffer().put(asFloatBuffer());
+		return out.array();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return float view sharing the off-heap memory
+	 */
+	public FloatBuffer asFloatBuffer() {
+		return buf.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	public DirectVec copy() {
+		return copy(this, null);
+	}
+
+	/**
+	 * Copies x, reusing a vector of the same size
+	 * @param into reused (overwritten) if it has the size of x; may be null
+	 * @return into or, if it cannot be reused, a new vector
+	 */
+	public static DirectVec copy(DirectVec x, DirectVec into) {
+		DirectVec ret = into != null && into.size == x.size ? into : new DirectVec(x.size);
+		ret.buf.clear();
+		ret.buf.put(x.buf.duplicate());
+		ret.buf.clear();
+		return ret;
+	}
+
+	/**
+	 * this = this + a * x (in place)
+	 */
+	public DirectVec axpy(double a, DirectVec x) {
+		checkSize(x);
+		axpyNative(buf, x.buf, size, a);
+		return this;
+	}
+
+	/**
+	 * this = a * this (in place)
+	 */
+	public DirectVec scale(double a) {
+		scaleNative(buf, size, a);
+		return this;
+	}
+
+	public double dot(DirectVec x) {
+		checkSize(x);
+		return dotNative(buf, x.buf, size);
+	}
+
+	public double norm() {
+		return normNative(buf, size);
+	}
+
+	private void checkSize(DirectVec x) {
+		if (x.size != size)
+			throw new DimensionMismatchException(x.size, size);
+	}
+
+	@Override
+	public Space getSpace() {
+		return new DirectSpace(size);
+	}
+
+	/**
+	 * Real space of the vector size; no sub-space
+	 */
+	public static class DirectSpace implements Space {
+		private static final long serialVersionUID = 1L;
+
+		private final int dimension;
+
+		public DirectSpace(int dimension) {
+			this.dimension = dimension;
+		}
+
+		@Override
+		public int getDimension() {
+			return dimension;
+		}
+
+		@Override
+		public Space getSubSpace() {
+			throw new MathUnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof DirectSpace && ((DirectSpace) o).dimension == dimension;
+		}
+
+		@Override
+		public int hashCode() {
+			return dimension;
+		}
+	}
+
+	@Override
+	public boolean isNaN() {
+		FloatBuffer v = asFloatBuffer();
+		for (int i = 0; i < size; i++)
+			if (Float.isNaN(v.get(i)))
+				return true;
+		return false;
+	}
+
+	@Override
+	public double distance(Point p) {
+		return distance((Vector) p);
+	}
+
+	@Override
+	public Vector getZero() {
+		return new DirectVec(size);
+	}
+
+	@Override
+	public double getNorm1() {
+		FloatBuffer v = asFloatBuffer();
+		double s = 0;
+		for (int i = 0; i < size; i++)
+			s += Math.abs(v.get(i));
+		return s;
+	}
+
+	@Override
+	public double getNorm() {
+		return norm();
+	}
+
+	@Override
+	public double getNormSq() {
+		double n = norm();
+		return n * n;
+	}
+
+	@Override
+	public double getNormInf() {
+		FloatBuffer v = asFloatBuffer();
+		double max = 0;
+		for (int i = 0; i < size; i++)
+			max = Math.max(max, Math.abs(v.get(i)));
+		return max;
+	}
+
+	@Override
+	public Vector add(Vector v) {
+		return copy().axpy(1, (DirectVec) v);
+	}
+
+	@Override
+	public Vector add(double factor, Vector v) {
+		return copy().axpy(factor, (DirectVec) v);
+	}
+
+	@Override
+	public Vector subtract(Vector v) {
+		return copy().axpy(-1, (DirectVec) v);
+	}
+
+	@Override
+	public Vector subtract(double factor, Vector v) {
+		return copy().axpy(-factor, (DirectVec) v);
+	}
+
+	@Override
+	public Vector negate() {
+		return copy().scale(-1);
+	}
+
+	@Override
+	public Vector normalize() throws MathArithmeticException {
+		double n = norm();
+		if (n == 0)
+			throw new MathArithmeticException(LocalizedFormats.ZERO_NORM);
+		return copy().scale(1 / n);
+	}
+
+	@Override
+	public Vector scalarMultiply(double a) {
+		return copy().scale(a);
+	}
+
+	@Override
+	public boolean isInfinite() {
+		if (isNaN())
+			return false;
+		FloatBuffer v = asFloatBuffer();
+		for (int i = 0; i < size; i++)
+			if (Float.isInfinite(v.get(i)))
+				return true;
+		return false;
+	}
+
+	@Override
+	public double distance1(Vector v) {
+		DirectVec temp = (DirectVec) v;
+		checkSize(temp);
+		FloatBuffer a = asFloatBuffer(), b = temp.asFloatBuffer();
+		double s = 0;
+		for (int i = 0; i < size; i++)
+			s += Math.abs(a.get(i) - b.get(i));
+		return s;
+	}
+
+	@Override
+	public double distance(Vector v) {
+		DirectVec temp = (DirectVec) v;
+		checkSize(temp);
+		return distanceNative(buf, temp.buf, size);
+	}
+
+	@Override
+	public double distanceInf(Vector v) {
+		DirectVec temp = (DirectVec) v;
+		checkSize(temp);
+		FloatBuffer a = asFloatBuffer(), b = temp.asFloatBuffer();
+		double max = 0;
+		for (int i = 0; i < size; i++)
+			max = Math.max(max, Math.abs(a.get(i) - b.get(i)));
+		return max;
+	}
+
+	@Override
+	public double distanceSq(Vector v) {
+		double d = distance(v);
+		return d * d;
+	}
+
+	@Override
+	public double dotProduct(Vector v) {
+		return dot((DirectVec) v);
+	}
+
+	@Override
+	public String toString(NumberFormat format) {
+		FloatBuffer v = asFloatBuffer();
+		StringBuilder ret = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				ret.append("; ");
+			ret.append(format.format(v.get(i)));
+		}
+		return ret.append("}").toString();
+	}
+
+}
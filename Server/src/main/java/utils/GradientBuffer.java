@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Pending gradients: payload (deltas), class distribution, epoch, client id, batch size and arrival time
+ * kept in parallel arrays of a growable ring (no wrapper or boxing per gradient)
+ * Index i in [0, size()) is the i-th oldest gradient unless {@link #swapRemove(int)} reordered them
+ * Not thread-safe
+ */
+public class GradientBuffer<T> {
+
+	private Object[] payloads;
+	private int[][] labels;
+	private int[] epochs, clientIds, batchSizes;
+	private long[] arrivals;
+	private int head, size;
+
+	public GradientBuffer() {
+		this(16);
+	}
+
+	public GradientBuffer(int capacity) {
+		int c = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		payloads = new Object[c];
+		labels = new int[c][];
+		epochs = new int[c];
+		clientIds = new int[c];
+		batchSizes = new int[c];
+		arrivals = new long[c];
+	}
+
+	private int slot(int i) {
+		return (head + i) & (payloads.length - 1);
+	}
+
+	/**
+	 * @param labels class distribution of the gradient (empty if unknown)
+	 */
+	public void add(T payload, int[] labels, int epoch, int clientId, int batchSize) {
+		add(payload, labels, epoch, clientId, batchSize, System.currentTimeMillis());
+	}
+
+	private void add(T payload, int[] labels, int epoch, int clientId, int batchSize, long arrival) {
+		if (size == payloads.length)
+			grow();
+		int s = slot(size++);
+		payloads[s] = payload;
+		this.labels[s] = labels;
+		epochs[s] = epoch;
+		clientIds[s] = clientId;
+		batchSizes[s] = batchSize;
+		arrivals[s] = arrival;
+	}
+
+	/**
+	 * Appends the i-th gradient of another buffer (it stays there)
+	 */
+	public void add(GradientBuffer<T> other, int i) {
+		int s = other.slot(i);
+		add(other.payload(i), other.labels[s], other.epochs[s], other.clientIds[s], other.batchSizes[s], other.arrivals[s]);
+	}
+
+	private void grow() {
+		int c = 2 * payloads.length;
+		Object[] p = new Object[c];
+		int[][] l = new int[c][];
+		int[] e = new int[c], id = new int[c], b = new int[c];
+		long[] a = new long[c];
+		for (int i = 0; i < size; i++) {
+			int s = slot(i);
+			p[i] = payloads[s];
+			l[i] = labels[s];
+			e[i] = epochs[s];
+			id[i] = clientIds[s];
+			b[i] = batchSizes[s];
+			a[i] = arrivals[s];
+		}
+		payloads = p;
+		labels = l;
+		epochs = e;
+		clientIds = id;
+		batchSizes = b;
+		arrivals = a;
+		head = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T payload(int i) {
+		return (T) payloads[slot(i)];
+	}
+
+	public int[] labels(int i) {
+		return labels[slot(i)];
+	}
+
+	public int epoch(int i) {
+		return epochs[slot(i)];
+	}
+
+	public int clientId(int i) {
+		return clientIds[slot(i)];
+	}
+
+	public int batchSize(int i) {
+		return batchSizes[slot(i)];
+	}
+
+	/**
+	 * @return System.currentTimeMillis() when the gradient was added
+	 */
+	public long arrival(int i) {
+		return arrivals[slot(i)];
+	}
+
+	/**
+	 * Removes the oldest gradient
+	 */
+	public void removeFirst() {
+		if (size == 0)
+			throw new IllegalStateException("Empty gradient buffer");
+		clear(head);
+		head = slot(1);
+		size--;
+	}
+
+	/**
+	 * Removes the i-th gradient; the last one takes its index
+	 */
+	public void swapRemove(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		int s = slot(i), last = slot(size - 1);
+		payloads[s] = payloads[last];
+		labels[s] = labels[last];
+		epochs[s] = epochs[last];
+		clientIds[s] = clientIds[last];
+		batchSizes[s] = batchSizes[last];
+		arrivals[s] = arrivals[last];
+		clear(last);
+		size--;
+	}
+
+	private void clear(int s) {
+		payloads[s] = null;
+		labels[s] = null;
+	}
+
+	public void clear() {
+		Arrays.fill(payloads, null);
+		Arrays.fill(labels, null);
+		head = 0;
+		size = 0;
+	}
+
+	public void forEachPayload(Consumer<? super T> action) {
+		for (int i = 0; i < size; i++)
+			action.accept(payload(i));
+	}
+}
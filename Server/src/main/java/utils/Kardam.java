@@ -9,44 +9,123 @@
 
 package utils;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.commons.math3.geometry.Vector;
-import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 
 import utils.Helpers.Tuple;
 
+/**
+ * Kardam Lipschitz filter
+ * Per worker: the last LIPS Lipschitz values in a ring buffer and their running maximum
+ * The maxima of all workers are kept sorted => checkByz() reads the order statistics without sorting
+ * Difference norms use Vector#distance() (fused native kernel for {@link DirectVec}; no difference vector)
+ * Thread-safe: the per-worker state lives in a concurrent map and each worker is locked on its own
+ * => bookkeeping for different workers proceeds in parallel; only the maxima updates are serialized
+ * Workers without any bookkeeping for inactivity ms are evicted (see {@link #evictInactive()})
+ */
 public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 
-	private int currWorker;
-	private int workers;
-	
-	// the following 4 field are useful for the simulation (otherwise each worker directly sends the lip value)
-	private HashMap<Integer, Tuple<Tgrad, Integer>> grads;
-	private HashMap<Integer,Tmodel> models;
-	private HashMap<Integer, Double> modelDiffNorm; // lipschitzian numerator
-	private HashMap<Integer, Double> gradDiffNorm; // lipschitzian denominator
-		
-	private HashMap<Integer, ArrayList<Double>> lips;
-	
-	private int subsequentRejects = 0;
-	
+	/**
+	 * Lipschitz values kept per worker
+	 */
+	public static final int LIPS = 26;
+
+	private final AtomicInteger currWorker = new AtomicInteger();
+	private volatile int workers;
+
+	/**
+	 * Milliseconds after which an idle worker is evicted; <= 0 => never
+	 */
+	private final long inactivity;
+
+	/**
+	 * Per-worker state
+	 * grad, model and the norms are useful for the simulation (otherwise each worker directly sends the lip value)
+	 */
+	private class Worker {
+		Tgrad grad;
+		int gradEpoch;
+		Tmodel model;
+		double modelDiffNorm = Double.NaN; // lipschitzian numerator
+		double gradDiffNorm = Double.NaN; // lipschitzian denominator
+
+		final double[] lips = new double[LIPS];
+		int head, count;
+		double max = Double.NEGATIVE_INFINITY;
+
+		long lastActive = System.currentTimeMillis();
+		boolean evicted;
+
+		/**
+		 * @return false if the maximum is unchanged
+		 */
+		boolean addLip(double lip) {
+			double evicted = Double.NEGATIVE_INFINITY;
+			if (count == LIPS)
+				evicted = lips[head];
+			else
+				count++;
+			lips[head] = lip;
+			head = (head + 1) % LIPS;
+
+			double prev = max;
+			if (Double.compare(lip, max) >= 0)
+				max = lip;
+			else if (Double.compare(evicted, max) == 0) { // evicted the maximum
+				max = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < count; i++)
+					if (Double.compare(lips[i], max) > 0)
+						max = lips[i];
+			}
+			return Double.compare(prev, max) != 0;
+		}
+	}
+
+	private final ConcurrentHashMap<Integer, Worker> state;
+
+	/**
+	 * Sorted maxima of the workers with at least one lip value (guarded by this)
+	 */
+	private double[] maxima;
+	private int numMaxima;
+
+	private final AtomicInteger subsequentRejects = new AtomicInteger();
+
 	public Kardam(int workers) {
+		this(workers, 0);
+	}
+
+	/**
+	 * @param workers initial number of workers (see {@link #setWorkers(int)})
+	 * @param inactivity ms after which an idle worker is evicted; <= 0 => never
+	 */
+	public Kardam(int workers, long inactivity) {
 		this.workers = workers;
-		grads = new HashMap<>(workers);
-		models = new HashMap<>(workers);
-		modelDiffNorm = new HashMap<>(workers);
-		gradDiffNorm = new HashMap<>(workers);
-				
-		lips = new HashMap<>(workers);
-		
-		currWorker = 0;
+		this.inactivity = inactivity;
+		state = new ConcurrentHashMap<>(2 * workers);
+		maxima = new double[workers];
 	}
-	
+
+	/**
+	 * Runs the bookkeeping on the (locked, not evicted) state of the worker
+	 */
+	private <R> R withWorker(int workerId, Function<Worker, R> f) {
+		while (true) {
+			Worker w = state.computeIfAbsent(workerId, id -> new Worker());
+			synchronized (w) {
+				if (w.evicted)
+					continue; // concurrently evicted => fresh state
+				w.lastActive = System.currentTimeMillis();
+				return f.apply(w);
+			}
+		}
+	}
+
 	/**
 	 * Cache a gradient response from a worker (useful for simulation)
 	 * @param workerId
@@ -54,22 +133,26 @@ public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 	 * @param epoch model epoch that the g was computed upon
 	 */
 	public boolean setGrad(int workerId, Tgrad g, int epoch) {
-		if (grads.containsKey(workerId)) {
-			System.out.println("Setting grad diff with norms: " + g.getNorm() + " | " + grads.get(workerId).x.getNorm());
-			if (grads.get(workerId).y == epoch) {
-				System.out.println("ERROR: IGNORE push: Grad epoch same as previous one: " + epoch);
+		return withWorker(workerId, w -> {
+			if (w.grad != null) {
+				if (w.gradEpoch == epoch) {
+					System.out.println("ERROR: IGNORE push: Grad epoch same as previous one: " + epoch);
+					return false;
+				}
+				w.gradDiffNorm = g.distance(w.grad);
+				System.out.println("Setting grad diff norm: " + w.gradDiffNorm);
+				w.grad = g;
+				w.gradEpoch = epoch;
+				return true;
+			}
+			else {
+				w.grad = g;
+				w.gradEpoch = epoch;
 				return false;
 			}
-			gradDiffNorm.put(workerId, g.subtract(grads.get(workerId).x).getNorm());// * Math.abs(grads.get(workerId).y - epoch));
-			grads.put(workerId, new Tuple(g, epoch));
-			return true;
-		}
-		else {
-			grads.put(workerId, new Tuple(g, epoch));
-			return false;
-		}
+		});
 	}
-	
+
 
 	/**
 	 * Checks whether the given gradient is computed on the prev model (used to avoid kardam filtering stuck)
@@ -78,18 +161,20 @@ public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 	 * @return
 	 */
 	public boolean checkGradVersion(int workerId, int epoch) {
-		if (!grads.containsKey(workerId))
-			return false;
-		else if (epoch == grads.get(workerId).y)
-			System.out.println("ERROR? + " + epoch);
-		return epoch < grads.get(workerId).y;
+		return withWorker(workerId, w -> {
+			if (w.grad == null)
+				return false;
+			else if (epoch == w.gradEpoch)
+				System.out.println("ERROR? + " + epoch);
+			return epoch < w.gradEpoch;
+		});
 	}
-	
-	
+
+
 	public Tuple<Tgrad, Integer> getGrad(int workerId) {
-		return grads.get(workerId);
+		return withWorker(workerId, w -> w.grad == null ? null : new Tuple<>(w.grad, w.gradEpoch));
 	}
-	
+
 	/**
 	 * Checks whether the model m (to be sent to the worker) is the same as the previous one
 	 * @param workerId
@@ -97,33 +182,31 @@ public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 	 * @return
 	 */
 	public boolean checkModelVersion(int workerId, Tmodel m) {
-		if (!models.containsKey(workerId))
-			return false;
-		if (m.subtract(models.get(workerId)).getNorm() == 0)
-			return true;
-		else
-			return false;
+		return withWorker(workerId, w -> w.model != null && m.distance(w.model) == 0);
 	}
-	
-	
+
+
 	/**
 	 * Cache a model given at a worker (useful for simulation)
 	 * @param workerId
 	 * @param mcurr current version of the model (to-be-sent to the worker)
 	 */
 	public void setModel(int workerId, Tmodel mcurr) {
-		if (models.containsKey(workerId)) {
-			System.out.println("Setting model diff with norms: " + mcurr.getNorm() + " | " + models.get(workerId).getNorm());
-			double norm = mcurr.subtract(models.get(workerId)).getNorm();
-			if (norm == 0) {// same prev model (e.g., due to a failed previous computation request or a previous evaluation request
-				System.out.println("IGNORE: zero norm");
-				return;
+		withWorker(workerId, w -> {
+			if (w.model != null) {
+				double norm = mcurr.distance(w.model);
+				System.out.println("Setting model diff norm: " + norm);
+				if (norm == 0) {// same prev model (e.g., due to a failed previous computation request or a previous evaluation request
+					System.out.println("IGNORE: zero norm");
+					return null;
+				}
+				w.modelDiffNorm = norm;
 			}
-			modelDiffNorm.put(workerId, norm);
-		}
-		models.put(workerId, mcurr);	
+			w.model = mcurr;
+			return null;
+		});
 	}
-	
+
 	/**
 	 * Run the kardam check for a worker
 	 * @param workerId
@@ -134,54 +217,45 @@ public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 	 * @return
 	 */
 	public boolean checkByz(int workerId, Tgrad g, Tgrad lastGrad, Tmodel currModel, Tmodel lastModel, int tau) {
-		ArrayList<Double> l = new ArrayList<>();
-		if (lips.isEmpty()) {
-			subsequentRejects = 0;
-			return true;
-		}
-		for (int worker : lips.keySet()) {
-		//	for (Double lip : lips.get(worker))
-		//		l.add(lip);
-			l.add(Collections.max(lips.get(worker)));
-		//	l.add(Helpers.avg(lips.get(worker)));
-		//	l.add(Helpers.percentile(lips.get(worker), 50));
-		
-			Collections.sort(lips.get(worker));
-			System.out.println("Lip values: " + Arrays.toString(lips.get(worker).toArray()));
+		double midLip, low, high;
+		synchronized (this) {
+			if (numMaxima == 0) {
+				subsequentRejects.set(0);
+				return true;
+			}
+
+			// order statistics of the per-worker maxima
+			midLip = percentile(maxima, numMaxima, 50);
+			low = percentile(maxima, numMaxima, 100/(double) 3);
+			high = percentile(maxima, numMaxima, 200/(double) 3);
 		}
-		
-		// get median
-		double midLip = Helpers.percentile(l, 50);
-		double low = Helpers.percentile(l, 100/(double) 3);
-		double high = Helpers.percentile(l, 200/(double) 3);
-	
+
 		double checkNorm;
 		if (lastGrad == null) {
 			System.out.println("Kardam: Null previous gradient in kardam check");
 			checkNorm = g.getNorm() / currModel.getNorm();
 		}
 		else {
-			System.out.println("currG | lastG | currModel | lastModel: " + g.getNorm() + " | " + lastGrad.getNorm() + " | " + currModel.getNorm() + " | " + lastModel.getNorm());
-			double gnorm = g.subtract(lastGrad).getNorm();
-			double mnorm = currModel.subtract(lastModel).getNorm();
+			double gnorm = g.distance(lastGrad);
+			double mnorm = currModel.distance(lastModel);
 			checkNorm = gnorm / mnorm;
 			System.out.println("Check norm: " + gnorm + " / " + mnorm + " = " + checkNorm + " Low: " + low + " High: " + high + " Median Lip: " + midLip);
 		}
 		if (checkNorm <= high) {
-			subsequentRejects = 0;
-			return true;			
+			subsequentRejects.set(0);
+			return true;
 		}
-		else if (subsequentRejects == workers) {
+		else if (subsequentRejects.get() >= workers) {
 			System.out.println("Too maby subsequent rejects => Accepting");
-			subsequentRejects = 0;
+			subsequentRejects.set(0);
 			return true;
 		}
 		else {
-			subsequentRejects++;
+			subsequentRejects.incrementAndGet();
 			return false;
 		}
 
-		
+
 	}
 
 	/**
@@ -190,27 +264,104 @@ public class Kardam<Tgrad extends Vector, Tmodel extends Vector> {
 	 * @param workerId
 	 */
 	public void updateLip(int workerId) {
-		double lip = gradDiffNorm.get(workerId) / modelDiffNorm.get(workerId);
-		System.out.println("Upgrading lip with: " + gradDiffNorm.get(workerId) + " / " + modelDiffNorm.get(workerId) + " = " + lip);
-		
-		if (!lips.containsKey(workerId))
-			lips.put(workerId, new ArrayList<>());
-		
-		if (lips.get(workerId).size() > 25) {
-			System.out.println("Removing lip value for client: " + workerId);
-			lips.get(workerId).remove(0);
+		withWorker(workerId, w -> {
+			double lip = w.gradDiffNorm / w.modelDiffNorm;
+			System.out.println("Upgrading lip with: " + w.gradDiffNorm + " / " + w.modelDiffNorm + " = " + lip);
+
+			boolean first = w.count == 0;
+			double prevMax = w.max;
+			if (w.addLip(lip) || first) {
+				synchronized (this) {
+					if (!first)
+						removeMax(prevMax);
+					insertMax(w.max);
+				}
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Drops the state of the workers without bookkeeping for the last inactivity ms
+	 * @return number of evicted workers
+	 */
+	public int evictInactive() {
+		if (inactivity <= 0)
+			return 0;
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		for (Map.Entry<Integer, Worker> e : state.entrySet()) {
+			Worker w = e.getValue();
+			synchronized (w) {
+				if (w.evicted || now - w.lastActive <= inactivity)
+					continue;
+				w.evicted = true;
+				state.remove(e.getKey(), w);
+				if (w.count > 0)
+					synchronized (this) {
+						removeMax(w.max);
+					}
+			}
+			evicted++;
 		}
-		lips.get(workerId).add(lip);
+		if (evicted > 0)
+			System.out.println("Kardam: evicted " + evicted + " inactive workers");
+		return evicted;
+	}
+
+	/**
+	 * Number of workers (e.g., the live worker set); bounds the subsequent rejects and the worker ids
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
 	}
-	
+
+	/**
+	 * Workers with state
+	 */
+	public int trackedWorkers() {
+		return state.size();
+	}
+
+	private void insertMax(double v) {
+		if (numMaxima == maxima.length)
+			maxima = Arrays.copyOf(maxima, 2 * maxima.length + 1);
+		int i = Arrays.binarySearch(maxima, 0, numMaxima, v);
+		if (i < 0)
+			i = -i - 1;
+		System.arraycopy(maxima, i, maxima, i + 1, numMaxima - i);
+		maxima[i] = v;
+		numMaxima++;
+	}
+
+	private void removeMax(double v) {
+		int i = Arrays.binarySearch(maxima, 0, numMaxima, v);
+		System.arraycopy(maxima, i + 1, maxima, i, numMaxima - i - 1);
+		numMaxima--;
+	}
+
+	/**
+	 * Percentile of the first n sorted values (same estimate as commons-math Percentile)
+	 */
+	static double percentile(double[] sorted, int n, double p) {
+		double pos = p * (n + 1) / 100;
+		if (pos < 1)
+			return sorted[0];
+		if (pos >= n)
+			return sorted[n - 1];
+		int floor = (int) pos;
+		double lower = sorted[floor - 1];
+		return lower + (pos - floor) * (sorted[floor] - lower);
+	}
+
 	public void nextWorkerId() {
-		currWorker = (currWorker + 1) % workers;
+		currWorker.updateAndGet(w -> (w + 1) % workers);
 	}
-	
+
 	public int currentWorkerId() {
-		return currWorker;
+		return currWorker.get();
 	}
-	
+
 	public int numWorkers() {
 		return workers;
 	}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.jblas.DoubleMatrix;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ * Memory-mapped row store of a training_features.csv / training_labels.csv pair
+ * Data file (prefix + training.f32, little-endian): magic | version | rows | featureSize | numLabels |
+ * rows x (float32[featureSize] features, float32[numLabels] labels)
+ * Index file (prefix + training.idx): int64[rows] data file offset of each row
+ * The files are created once from the csv files (see {@link #convert(String)}) and paged in by the OS on demand
+ * => datasets larger than the heap can be sampled without parsing
+ */
+public class MappedDataset {
+
+	public static final String FEATURES = "training_features.csv";
+	public static final String LABELS = "training_labels.csv";
+	public static final String DATA = "training.f32";
+	public static final String INDEX = "training.idx";
+
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 20;
+	private static final int MAGIC = 0x44323346; // "F32D"
+
+	public final int rows;
+	public final int featureSize;
+	public final int numLabels;
+
+	/**
+	 * Row-aligned mappings of the data file (a single mapping is limited to 2GB)
+	 */
+	private final MappedByteBuffer[] segments;
+	private final long[] segmentStart;
+	private final int rowsPerSegment;
+
+	private final LongBuffer index;
+
+	private MappedDataset(String prefix) throws IOException {
+		try (RandomAccessFile data = new RandomAccessFile(prefix + DATA, "r");
+				RandomAccessFile idx = new RandomAccessFile(prefix + INDEX, "r")) {
+			FileChannel channel = data.getChannel();
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("Invalid dataset file: " + prefix + DATA);
+			rows = header.getInt();
+			featureSize = header.getInt();
+			numLabels = header.getInt();
+
+			index = idx.getChannel().map(MapMode.READ_ONLY, 0, (long) rows * Long.BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+
+			long rowBytes = rowBytes(featureSize, numLabels);
+			rowsPerSegment = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+			int numSegments = rows == 0 ? 0 : (rows - 1) / rowsPerSegment + 1;
+			segments = new MappedByteBuffer[numSegments];
+			segmentStart = new long[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				int first = s * rowsPerSegment;
+				int last = Math.min(rows, first + rowsPerSegment) - 1;
+				segmentStart[s] = index.get(first);
+				segments[s] = channel.map(MapMode.READ_ONLY, segmentStart[s], index.get(last) + rowBytes - segmentStart[s]);
+				segments[s].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/**
+	 * Maps the dataset of the given prefix; (re)converts the csv files first if the binary files are missing or older than either csv
+	 * @param prefix (e.g. /path/to/datasets/spambase_)
+	 */
+	public static MappedDataset open(String prefix) throws IOException {
+		File data = new File(prefix + DATA);
+		File index = new File(prefix + INDEX);
+		File features = new File(prefix + FEATURES);
+		File labels = new File(prefix + LABELS);
+		if (!data.exists() || !index.exists()
+				|| (features.exists() && features.lastModified() > data.lastModified())
+				|| (labels.exists() && labels.lastModified() > data.lastModified()))
+			convert(prefix);
+		return new MappedDataset(prefix);
+	}
+
+	/**
+	 * One-time conversion of the csv pair to the binary data and index files
+	 * The csv files are streamed row by row => no need to fit them in memory
+	 */
+	public static void convert(String prefix) throws IOException {
+		long t = System.currentTimeMillis();
+		File data = new File(prefix + DATA + ".tmp");
+		File index = new File(prefix + INDEX + ".tmp");
+
+		int rows = 0, featureSize = -1, numLabels = -1;
+		try (CSVReader xreader = new CSVReader(new FileReader(prefix + FEATURES));
+				CSVReader treader = new CSVReader(new FileReader(prefix + LABELS));
+				FileChannel dataOut = new RandomAccessFile(data, "rw").getChannel();
+				FileChannel indexOut = new RandomAccessFile(index, "rw").getChannel()) {
+			dataOut.truncate(0);
+			indexOut.truncate(0);
+			dataOut.position(HEADER_SIZE);
+
+			ByteBuffer row = null;
+			ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			String[] x, y;
+			while (true) {
+				x = xreader.readNext();
+				y = treader.readNext();
+				if (x == null && y == null)
+					break;
+				if (x == null || y == null)
+					throw new IOException("Row count mismatch: " + (x == null ? FEATURES : LABELS) + " ends at row " + rows);
+				if (row == null) {
+					featureSize = x.length;
+					numLabels = y.length;
+					row = ByteBuffer.allocate((int) rowBytes(featureSize, numLabels)).order(ByteOrder.LITTLE_ENDIAN);
+				}
+				if (x.length != featureSize || y.length != numLabels)
+					throw new IOException("Ragged csv row: " + rows);
+
+				offset.clear();
+				offset.putLong(dataOut.position()).flip();
+				writeFully(indexOut, offset);
+
+				row.clear();
+				for (String value : x)
+					row.putFloat(Float.parseFloat(value));
+				for (String value : y)
+					row.putFloat(Float.parseFloat(value));
+				row.flip();
+				writeFully(dataOut, row);
+				rows++;
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(featureSize).putInt(numLabels).flip();
+			dataOut.position(0);
+			writeFully(dataOut, header);
+		}
+
+		// rename last => a crashed conversion never leaves a valid-looking pair behind
+		Files.move(index.toPath(), new File(prefix + INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(data.toPath(), new File(prefix + DATA).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Converted " + prefix + " (" + rows + " rows) in " + (System.currentTimeMillis() - t) + " ms");
+	}
+
+	/**
+	 * Copies a row to the given rows of the feature and label matrices
+	 * Thread-safe (absolute reads only)
+	 */
+	public void getRow(int row, DoubleMatrix x, DoubleMatrix t, int dstRow) {
+		int s = row / rowsPerSegment;
+		MappedByteBuffer segment = segments[s];
+		int pos = (int) (index.get(row) - segmentStart[s]);
+		for (int j = 0; j < featureSize; j++, pos += Float.BYTES)
+			x.put(dstRow, j, segment.getFloat(pos));
+		for (int j = 0; j < numLabels; j++, pos += Float.BYTES)
+			t.put(dstRow, j, segment.getFloat(pos));
+	}
+
+	/**
+	 * Gathers the given rows
+	 */
+	public MyDataset gather(int[] rowIds, int size) {
+		DoubleMatrix x = new DoubleMatrix(size, featureSize);
+		DoubleMatrix t = new DoubleMatrix(size, numLabels);
+		for (int i = 0; i < size; i++)
+			getRow(rowIds[i], x, t, i);
+		return new MyDataset(x, t);
+	}
+
+	private static long rowBytes(int featureSize, int numLabels) {
+		return (long) (featureSize + numLabels) * Float.BYTES;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	/**
+	 * Converts the datasets of the given prefixes
+	 * @param args prefixes (e.g. /path/to/datasets/spambase_)
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String prefix : args)
+			convert(prefix);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.DefaultArraySerializers.ByteArraySerializer;
+
+/**
+ * Cache of serialized and gzip-compressed models keyed by (model version, priority, wire version[, delta base epoch])
+ * Each entry is a complete gzip member => it can be streamed right after the gzip member holding the per-request fields
+ * (GZIPInputStream decompresses concatenated members as one stream)
+ * Requests on the same model version share one serialization and compression
+ */
+public class ModelSnapshotCache {
+
+	private static final byte[] NO_DELTA = new byte[0];
+
+	private final ConcurrentHashMap<Key, byte[]> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Latest published model version
+	 */
+	private volatile int version = Integer.MIN_VALUE;
+
+	/**
+	 * @param version latest model version when the entry is requested
+	 * @param priority model version index sent to the clients
+	 * @param wireVersion {@link WireFormat} of the serialized model
+	 * @param serializer writes the model to the Kryo output (invoked once per key)
+	 * @return gzip member with the serialized model
+	 */
+	public byte[] get(int version, int priority, int wireVersion, Consumer<Output> serializer) {
+		return get(new Key(version, priority, wireVersion, -1), () -> compress(serializer));
+	}
+
+	/**
+	 * Cached {@link ModelDelta} against the model of baseEpoch
+	 * @param delta computes the delta payload (invoked once per key); null => no delta possible
+	 * @return gzip member with the serialized delta or null if no delta is possible
+	 */
+	public byte[] getDelta(int version, int priority, int wireVersion, int baseEpoch, Supplier<byte[]> delta) {
+		byte[] ret = get(new Key(version, priority, wireVersion, baseEpoch), () -> {
+			byte[] d = delta.get();
+			if (d == null)
+				return NO_DELTA;
+			Kryo kryo = new Kryo();
+			kryo.register(byte[].class, new ByteArraySerializer());
+			return compress(out -> kryo.writeObject(out, d));
+		});
+		return ret == NO_DELTA ? null : ret;
+	}
+
+	private byte[] get(Key key, Supplier<byte[]> compute) {
+		byte[] ret = entries.computeIfAbsent(key, k -> compute.get());
+		// entries of an older version may be added after publish() => evict them on the way out
+		if (key.version < this.version)
+			entries.remove(key);
+		return ret;
+	}
+
+	/**
+	 * Invalidates all entries of older model versions
+	 * @param version new model version
+	 */
+	public void publish(int version) {
+		this.version = version;
+		entries.keySet().removeIf(key -> key.version < version);
+	}
+
+	public void clear() {
+		version = Integer.MIN_VALUE;
+		entries.clear();
+	}
+
+	private static byte[] compress(Consumer<Output> serializer) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			Output out = new Output(gzip);
+			serializer.accept(out);
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.println("Cached model snapshot: " + Helpers.humanReadableByteCount(bytes.size(), false));
+		return bytes.toByteArray();
+	}
+
+	private static final class Key {
+		final int version, priority, wireVersion, baseEpoch;
+
+		Key(int version, int priority, int wireVersion, int baseEpoch) {
+			this.version = version;
+			this.priority = priority;
+			this.wireVersion = wireVersion;
+			this.baseEpoch = baseEpoch;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return version == k.version && priority == k.priority && wireVersion == k.wireVersion && baseEpoch == k.baseEpoch;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((version * 31 + priority) * 31 + wireVersion) * 31 + baseEpoch;
+		}
+	}
+}
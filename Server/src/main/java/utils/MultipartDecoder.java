@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUpload;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.RequestContext;
+import org.apache.commons.fileupload.servlet.ServletRequestContext;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/**
+ * Streaming decoder of multipart/form-data requests
+ * Parts are read in the order they were sent directly from the request stream
+ * => no container-side buffering of the whole request (to memory or temporary files) before the handler starts
+ * A part is only valid until the next call of next()
+ */
+public class MultipartDecoder {
+
+	private final FileItemIterator iter;
+	private final int maxFieldSize;
+	private final int memoryThreshold;
+
+	private FileItemStream item;
+
+	/**
+	 * Fields read so far
+	 */
+	private final Map<String, byte[]> fields = new HashMap<>();
+
+	/**
+	 * @param maxFieldSize maximum size (bytes) of a text field
+	 * @param memoryThreshold maximum size (bytes) of a buffered part kept in memory; larger parts spill to a temporary file
+	 */
+	public MultipartDecoder(HttpServletRequest request, int maxFieldSize, int memoryThreshold) throws IOException {
+		this(new ServletRequestContext(request), maxFieldSize, memoryThreshold);
+	}
+
+	/**
+	 * Decoder for a request received outside of the servlet container (e.g., {@link coreComponents.NioOrchestrator})
+	 */
+	public MultipartDecoder(RequestContext request, int maxFieldSize, int memoryThreshold) throws IOException {
+		this.maxFieldSize = maxFieldSize;
+		this.memoryThreshold = memoryThreshold;
+		try {
+			this.iter = new FileUpload().getItemIterator(request);
+		} catch (FileUploadException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Advances to the next part (skipping the unread bytes of the current one)
+	 * @return false if there are no more parts
+	 */
+	public boolean next() throws IOException {
+		try {
+			item = iter.hasNext() ? iter.next() : null;
+		} catch (FileUploadException e) {
+			throw new IOException(e);
+		}
+		return item != null;
+	}
+
+	/**
+	 * @return name of the current part
+	 */
+	public String name() {
+		return item.getFieldName();
+	}
+
+	/**
+	 * Reads the current part as UTF-8 text and stores it to the fields
+	 */
+	public String value() throws IOException {
+		return new String(bytes(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the current (small) part and stores it to the fields
+	 */
+	public byte[] bytes() throws IOException {
+		InputStream in = item.openStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int length = 0; (length = in.read(buffer)) > 0;) {
+			if (bytes.size() + length > maxFieldSize)
+				throw new IOException("Multipart field " + name() + " exceeds " + maxFieldSize + " bytes");
+			bytes.write(buffer, 0, length);
+		}
+		byte[] value = bytes.toByteArray();
+		fields.put(name(), value);
+		return value;
+	}
+
+	/**
+	 * @return the current part as it arrives on the socket
+	 */
+	public InputStream stream() throws IOException {
+		return item.openStream();
+	}
+
+	/**
+	 * Copies the current part so that it can be used after next()
+	 * @return in-memory stream or, above memoryThreshold, a temporary file stream deleted on close
+	 */
+	public InputStream buffer() throws IOException {
+		DeferredFileOutputStream out = new DeferredFileOutputStream(memoryThreshold, "multipart", ".part", null);
+		try {
+			IOUtils.copy(item.openStream(), out);
+		} finally {
+			out.close();
+		}
+		if (out.isInMemory())
+			return new ByteArrayInputStream(out.getData());
+
+		File file = out.getFile();
+		file.deleteOnExit();
+		return new FilterInputStream(new FileInputStream(file)) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				file.delete();
+			}
+		};
+	}
+
+	/**
+	 * Reads all the remaining parts as fields
+	 */
+	public void readFields() throws IOException {
+		while (next())
+			bytes();
+	}
+
+	/**
+	 * @return text field read so far or null
+	 */
+	public String field(String name) {
+		byte[] value = fields.get(name);
+		return value == null ? null : new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return raw field read so far or null
+	 */
+	public byte[] fieldBytes(String name) {
+		return fields.get(name);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+/**
+ * Online linear regression (recursive least squares with exponential forgetting)
+ * Updates are serialized; predictions read the last published weights without locking
+ */
+public class RLSModel {
+
+	private final int dim;
+
+	/**
+	 * Forgetting factor in (0, 1]; older samples are weighted by lambda^age
+	 */
+	private final double lambda;
+
+	/**
+	 * Weights and inverse correlation matrix (guarded by this)
+	 */
+	private final double[] w;
+	private final double[][] P;
+
+	/**
+	 * Copy of w and number of updates, published after each update
+	 */
+	private volatile double[] weights;
+	private volatile long updates;
+
+	/**
+	 * @param delta initial P = delta * I (large => the first samples dominate)
+	 */
+	public RLSModel(int dim, double lambda, double delta) {
+		this.dim = dim;
+		this.lambda = lambda;
+		this.w = new double[dim];
+		this.P = new double[dim][dim];
+		for (int i = 0; i < dim; i++)
+			P[i][i] = delta;
+		this.weights = w.clone();
+	}
+
+	/**
+	 * Warm start: copy of the current state of the given model
+	 */
+	public RLSModel(RLSModel other) {
+		synchronized (other) {
+			this.dim = other.dim;
+			this.lambda = other.lambda;
+			this.w = other.w.clone();
+			this.P = new double[dim][];
+			for (int i = 0; i < dim; i++)
+				P[i] = other.P[i].clone();
+			this.updates = other.updates;
+			this.weights = w.clone();
+		}
+	}
+
+	public synchronized void update(double[] x, double y) {
+		double[] Px = new double[dim];
+		double xPx = 0;
+		for (int i = 0; i < dim; i++) {
+			double s = 0;
+			for (int j = 0; j < dim; j++)
+				s += P[i][j] * x[j];
+			Px[i] = s;
+			xPx += x[i] * s;
+		}
+		double denom = lambda + xPx;
+		double err = y - dot(w, x);
+
+		// w += k * err; P = (P - k (Px)^T) / lambda with k = Px / denom (P symmetric)
+		for (int i = 0; i < dim; i++) {
+			double k = Px[i] / denom;
+			w[i] += k * err;
+			for (int j = 0; j < dim; j++)
+				P[i][j] = (P[i][j] - k * Px[j]) / lambda;
+		}
+		updates++;
+		weights = w.clone();
+	}
+
+	public double predict(double[] x) {
+		return dot(weights, x);
+	}
+
+	public long updates() {
+		return updates;
+	}
+
+	public int dim() {
+		return dim;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double s = 0;
+		for (int i = 0; i < a.length; i++)
+			s += a[i] * b[i];
+		return s;
+	}
+}
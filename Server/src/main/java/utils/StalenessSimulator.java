@@ -9,144 +9,225 @@
 
 package utils;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.function.Consumer;
 
 import utils.Helpers.*;
 
+/**
+ * Pending gradients (deltas, class dist, epoch, client id) indexed by the model epoch they were computed on
+ * Per-epoch FIFO buffers => the staleness histogram is the buffer sizes (kept up to date as gradients arrive)
+ * and a gradient with a given staleness tau = currEpoch - epoch is picked in O(1)
+ * Gradients of the outlier class are kept apart (see {@link #stalenessSim})
+ */
 public class StalenessSimulator<Tgrad> {
 	private Random r;
-	
+
+	private final HashMap<Integer, GradientBuffer<Tgrad>> byEpoch = new HashMap<>();
+	private final GradientBuffer<Tgrad> outliers = new GradientBuffer<>();
+	private int size;
+
+	/**
+	 * Class of the outlier gradients (-1 => none); set on the first {@link #stalenessSim} call
+	 */
+	private int outlierClass = -1;
+
 	public StalenessSimulator() {
 		r = new Random();
 	}
 
-	
 	/**
-	 * Processes the accumulated gradients in such a way that staleness follows a predefined distribution.
-	 * @param gradients list of accumulated gradients (deltas, class dist, epoch, client id). The returned gradients are removed from this list.
+	 * Adds a received gradient
+	 * @param classDist class distribution of the gradient (empty if unknown)
+	 */
+	public void add(Tgrad g, int[] classDist, int epoch, int clientId, int batchSize) {
+		if (isOutlier(classDist))
+			outliers.add(g, classDist, epoch, clientId, batchSize);
+		else
+			byEpoch.computeIfAbsent(epoch, e -> new GradientBuffer<>()).add(g, classDist, epoch, clientId, batchSize);
+		size++;
+	}
+
+	/**
+	 * Adds the i-th gradient of the buffer
+	 */
+	private void add(GradientBuffer<Tgrad> from, int i) {
+		if (isOutlier(from.labels(i)))
+			outliers.add(from, i);
+		else
+			byEpoch.computeIfAbsent(from.epoch(i), e -> new GradientBuffer<>()).add(from, i);
+		size++;
+	}
+
+	/**
+	 * Number of pending gradients (including outliers)
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes and returns all pending gradients (no staleness simulation)
+	 */
+	public GradientBuffer<Tgrad> drain() {
+		GradientBuffer<Tgrad> res = new GradientBuffer<>(size);
+		for (GradientBuffer<Tgrad> b : byEpoch.values())
+			for (int i = 0; i < b.size(); i++)
+				res.add(b, i);
+		for (int i = 0; i < outliers.size(); i++)
+			res.add(outliers, i);
+		clear();
+		return res;
+	}
+
+	/**
+	 * Puts back the gradients of a {@link #drain()}ed buffer (e.g., when the update is skipped)
+	 */
+	public void addAll(GradientBuffer<Tgrad> from) {
+		for (int i = 0; i < from.size(); i++)
+			add(from, i);
+	}
+
+	public void clear() {
+		byEpoch.clear();
+		outliers.clear();
+		size = 0;
+	}
+
+	public void forEachPayload(Consumer<? super Tgrad> action) {
+		for (GradientBuffer<Tgrad> b : byEpoch.values())
+			b.forEachPayload(action);
+		outliers.forEachPayload(action);
+	}
+
+	private boolean isOutlier(int[] classDist) {
+		return outlierClass >= 0 && outlierClass < classDist.length && classDist[outlierClass] > 0;
+	}
+
+	/**
+	 * Moves the gradients of the given class to the outliers (or back if the class changes)
+	 */
+	private void setOutlierClass(int outlierClass) {
+		if (outlierClass == this.outlierClass)
+			return;
+		GradientBuffer<Tgrad> all = drain();
+		this.outlierClass = outlierClass;
+		for (int i = 0; i < all.size(); i++)
+			add(all, i);
+	}
+
+	private int count(int epoch) {
+		GradientBuffer<Tgrad> b = byEpoch.get(epoch);
+		return b == null ? 0 : b.size();
+	}
+
+	/**
+	 * Moves the oldest gradient computed on the given epoch to res
+	 * @return false if there is none
+	 */
+	private boolean poll(int epoch, GradientBuffer<Tgrad> res) {
+		GradientBuffer<Tgrad> b = byEpoch.get(epoch);
+		if (b == null)
+			return false;
+		res.add(b, 0);
+		b.removeFirst();
+		if (b.isEmpty())
+			byEpoch.remove(epoch);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Picks the pending gradients in such a way that staleness follows a predefined distribution.
+	 * The returned gradients are removed from the pending ones.
+	 * @param currEpoch current version of the model (to compute the staleness from)
 	 * @param range possible staleness values to be drawn from the predefined distribution are [0, range]. Set to 0 for no staleness.
 	 * @param maxRange useful only for having a fix number of cold-start (i.e., \tau=0) updates; for example for measuring impact of different staleness distributions; set maxRange=range by default; else maxRange >= range.
 	 * @param modelsSize size of stored models
 	 * @param M M-softasync param
 	 * @param outlierClass gradients computed on this class will be given staleness = outlierStaleness. Set to -1 to deactivate.
 	 * @param outlierStaleness set to -1 to deactivate
-	 * @return [Priority, ArrayList of M gradients or null if not possible] 
+	 * @return [Priority, M gradients or null if not possible]
 	 * Priority: next model id \in [0,range] models to be sent
 	 */
-	public Tuple<Integer, ArrayList<Quadruple<Tgrad, int[], Integer, Integer>>> stalenessSim(ArrayList<Quadruple<Tgrad, int[], Integer, Integer>> gradients, int currEpoch, int range, int maxRange, int modelsSize, int M, int outlierClass, int outlierStaleness) {
-		// process accumulated gradients
-		String out;
+	public Tuple<Integer, GradientBuffer<Tgrad>> stalenessSim(int currEpoch, int range, int maxRange, int modelsSize, int M, int outlierClass, int outlierStaleness) {
 		double mean, sigma=0;
 		int priority=-1, pick, tau, minSt = Integer.MAX_VALUE, maxSt = -1;
-		HashMap<Integer, Integer> tauMap = new HashMap<Integer, Integer>();
-		Quadruple<Tgrad, int[], Integer, Integer> g;
-		int[] classDist;
-		boolean isOutlier;
-		
-		ArrayList<Quadruple<Tgrad, int[], Integer, Integer>> res = new ArrayList<>();
-		ArrayList<Quadruple<Tgrad, int[], Integer, Integer>> outlierGradients = new ArrayList<>();
-		
-		out = "<Staleness-isOutlier> values for accumulated gradients: [";
-		for (int i=0; i<gradients.size(); i++) {
-			g = gradients.get(i);
-			tau = currEpoch - g.getThird();
-			classDist = g.getSecond();
-			
-			// handle outlier gradients
-			isOutlier = false;
-			for (int j=0; j<classDist.length; j++)
-				if (classDist[j] > 0 && j == outlierClass) {
-					isOutlier = true;
-					if (tau >= outlierStaleness) {
-						System.out.println("Picking staleness: " + tau);
-						res.add(g);
-						M--;
-						priority=0;
-					} else
-						// store it and push it back before returning
-						outlierGradients.add(g);
-					gradients.remove(i);
-					i--;
-					break;
-				}
-			if (isOutlier) {
-				out += tau + "-T ";
-				continue;
+
+		GradientBuffer<Tgrad> res = new GradientBuffer<>(M);
+
+		setOutlierClass(outlierClass);
+
+		// outlier gradients that are stale enough are always picked
+		StringBuilder out = new StringBuilder("<Staleness-count> values for accumulated gradients: [");
+		for (int i = 0; i < outliers.size(); i++) {
+			tau = currEpoch - outliers.epoch(i);
+			out.append(tau).append("-T ");
+			if (tau >= outlierStaleness) {
+				System.out.println("Picking staleness: " + tau);
+				res.add(outliers, i);
+				outliers.swapRemove(i--);
+				size--;
+				M--;
+				priority=0;
 			}
-			
-			if (tauMap.containsKey(tau))
-				tauMap.put(tau, tauMap.get(tau) + 1);
-			else
-				tauMap.put(tau, 1);
-					
-			// discard gradient for being too old to be selected from gaussian
+		}
+
+		// discard gradients for being too old to be selected from gaussian
+		for (Iterator<Integer> it = byEpoch.keySet().iterator(); it.hasNext(); ) {
+			int epoch = it.next();
+			tau = currEpoch - epoch;
 			if (tau > maxRange) {
-				gradients.remove(i);
-				i--;
+				size -= byEpoch.get(epoch).size();
+				it.remove();
+				continue;
 			}
 			// check to update min, max available staleness
 			if (tau > maxSt)
 				maxSt = tau;
 			if (tau < minSt)
 				minSt = tau;
-			out += tau + "-F ";
-
 		}
+		for (tau = Math.max(0, minSt); tau <= maxSt; tau++)
+			if (count(currEpoch - tau) > 0)
+				out.append(tau).append(":").append(count(currEpoch - tau)).append(" ");
 		System.out.println(out + "]");
 
-		// check if gradient of outlierClass exists with outlierStaleness and return it
-		
-		
-		// gaussian distribution 
+		// gaussian distribution
 		sigma = range / 6.0;
 		mean = 3 * sigma;
-				
+
 		// if not enough model versions yet
-		if (modelsSize < maxRange+1) { 
+		if (modelsSize < maxRange+1) {
 			// randomly pick M gradients
-			if (gradients.size() < M) {
+			if (size - outliers.size() < M) {
 				System.out.println("Not enough model versions yet. Not enough gradients to pick (some are outliers).");
 				priority = modelsSize - 1; // models size is not going to be incremented
-				// push back outlier gradients and return
-				for (int j=0; j<outlierGradients.size(); j++)
-					gradients.add(outlierGradients.get(j));
-				for (int j=0; j<res.size(); j++)
-					gradients.add(res.get(j));
-				return new Tuple<Integer, ArrayList<Quadruple<Tgrad, int[], Integer, Integer>>>(priority, null);
-			}
-			for (int i=0; i<M; i++) {
-				g = gradients.get((int) (Math.random() * gradients.size()));
-				res.add(g);
-				gradients.remove(g);
+				for (int i = 0; i < res.size(); i++)
+					add(res, i);
+				return new Tuple<Integer, GradientBuffer<Tgrad>>(priority, null);
 			}
+			for (int i=0; i<M; i++)
+				pollRandom(res);
 			priority = modelsSize - 1 + 1; // models size is going to be incremented
 			System.out.println("Not enough model versions yet.\nPicking staleness: 0");
-					
-			// push back outlier gradients and return
-			for (int j=0; j<outlierGradients.size(); j++)
-				gradients.add(outlierGradients.get(j));
-			return new Tuple<Integer, ArrayList<Quadruple<Tgrad, int[], Integer, Integer>>>(priority, res);
+			return new Tuple<Integer, GradientBuffer<Tgrad>>(priority, res);
 		}
-		
-		// TODO optimization: continuously check and pick till return 
-		// check if possible to get result <=> if 'gradients' contains all possible staleness values at least M times
-		for (int i=0; i<=range; i++) 
-			if (!tauMap.containsKey(i) || tauMap.get(i) < M) {
+
+		// check if possible to get result <=> if the pending gradients contain all possible staleness values at least M times
+		for (int i=0; i<=range; i++)
+			if (count(currEpoch - i) < M) {
 				// missing possible staleness value || not enough occurrences
 				priority = Math.max(0, modelsSize - 1 - i); // on-demand
 				System.out.println("Missing staleness value: " + i);
-				
-				// push back outlier gradients and return
-				for (int j=0; j<outlierGradients.size(); j++)
-					gradients.add(outlierGradients.get(j));
-				for (int j=0; j<res.size(); j++)
-					gradients.add(res.get(j));
-				return new Tuple<Integer, ArrayList<Quadruple<Tgrad, int[], Integer, Integer>>>(priority, null);
+				for (int j = 0; j < res.size(); j++)
+					add(res, j);
+				return new Tuple<Integer, GradientBuffer<Tgrad>>(priority, null);
 			}
-		
-		
+
+
 		//	pick gradients (drawn from Gaussian distribution)
 		if (M > 0)
 			System.out.printf("Drawing from gaussian(%f, %f)...\n", mean, sigma);
@@ -157,21 +238,24 @@ public class StalenessSimulator<Tgrad> {
 				pick = maxSt;
 			}
 			System.out.println("Picking staleness: " + pick);
-			for (int j=0; j<gradients.size(); j++) {
-				g = gradients.get(j);
-				tau = currEpoch - g.getThird();
-				if (tau == pick) {
-					res.add(g);
-					gradients.remove(j);
-					priority = Math.max(0, modelsSize - 1 - tau); // on-demand
-					break;
-				}
+			if (poll(currEpoch - pick, res))
+				priority = Math.max(0, modelsSize - 1 - pick); // on-demand
+		}
+
+		return new Tuple<Integer, GradientBuffer<Tgrad>>(priority, res);
+	}
+
+	/**
+	 * Moves a non-outlier gradient with the staleness of a uniformly random one (the oldest received with that staleness) to res
+	 */
+	private void pollRandom(GradientBuffer<Tgrad> res) {
+		int i = r.nextInt(size - outliers.size());
+		for (GradientBuffer<Tgrad> b : byEpoch.values()) {
+			if (i < b.size()) {
+				poll(b.epoch(0), res);
+				return;
 			}
+			i -= b.size();
 		}
-		
-		// push back outlier gradients and return
-		for (int j=0; j<outlierGradients.size(); j++)
-			gradients.add(outlierGradients.get(j));
-		return new Tuple<Integer, ArrayList<Quadruple<Tgrad, int[], Integer, Integer>>>(priority, res);
 	}
 }
@@ -0,0 +1 @@
+../../../../../commonLib/utils/WireFormat.java
\ No newline at end of file
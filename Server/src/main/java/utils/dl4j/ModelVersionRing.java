@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils.dl4j;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Fixed-capacity ring of model versions for on-demand staleness updates
+ * One working network holds the latest version, its updater state and the configuration shared by all versions;
+ * each version is a preallocated parameter buffer and a new version is copied into the slot of the evicted one
+ * => no network clone and no new parameter or updater state buffer per update
+ * (the updater step of DL4J still allocates its temporaries, e.g., the Nesterovs momentum term)
+ * get(0) is the oldest version, get(size()-1) the latest
+ */
+public class ModelVersionRing {
+
+	public static class Version {
+		public final INDArray params;
+		public int currEpoch;
+		public long trainTime;
+
+		Version(INDArray params) {
+			this.params = params;
+		}
+	}
+
+	private final MyMultiLayerNetwork network;
+	private final Version[] slots;
+	private int start, size;
+
+	/**
+	 * @param network initialized working network; its current parameters become the first version
+	 */
+	public ModelVersionRing(MyMultiLayerNetwork network, int capacity) {
+		this.network = network;
+		this.slots = new Version[capacity];
+		for (int i = 0; i < capacity; i++)
+			slots[i] = new Version(Nd4j.create(network.params().shape()));
+		push(network.currEpoch);
+	}
+
+	/**
+	 * Working network (latest version)
+	 */
+	public MyMultiLayerNetwork network() {
+		return network;
+	}
+
+	public Version get(int i) {
+		return slots[(start + i) % slots.length];
+	}
+
+	public Version latest() {
+		return get(size - 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Copies the parameters of the working network as the latest version (evicts the oldest one if full)
+	 */
+	public Version push(int currEpoch) {
+		Version v;
+		if (size == slots.length) {
+			v = slots[start];
+			start = (start + 1) % slots.length;
+		}
+		else
+			v = slots[(start + size++) % slots.length];
+		v.params.assign(network.params());
+		v.currEpoch = currEpoch;
+		v.trainTime = network.trainTime;
+		return v;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils.dl4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.nd4j.linalg.api.blas.Level1;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Staleness-dampened aggregation of flattened gradients: 1/M * sum lambda(tau_i) * g_i
+ * One axpy per gradient into a preallocated accumulator (the incoming gradients are not modified)
+ * The returned gradient holds per-variable views of the accumulator => valid until the next aggregation
+ */
+public class StalenessAggregator {
+
+	/**
+	 * Dampening policies lambda(tau)
+	 */
+	public static final IntToDoubleFunction AVERAGE = tau -> 1;
+	/**
+	 * http://www.ijcai.org/Proceedings/16/Papers/335.pdf
+	 */
+	public static final IntToDoubleFunction INVERSE = tau -> 1 / (double) (tau + 1);
+	/**
+	 * Exponential decay policy of OP-SGD
+	 */
+	public static final IntToDoubleFunction EXP = tau -> Math.exp(-1.475 * Math.pow(tau, 0.2));
+	/**
+	 * Custom decay policy of OP-SGD (theoretically faster than inverse)
+	 */
+	public static final IntToDoubleFunction CUSTOM = tau -> Math.exp(-0.685 * Math.pow(tau, 1/1.85));
+
+	/**
+	 * @param name average, inverse, exp or custom
+	 */
+	public static IntToDoubleFunction dampening(String name) {
+		switch (name) {
+		case "average":
+			return AVERAGE;
+		case "inverse":
+			return INVERSE;
+		case "exp":
+			return EXP;
+		case "custom":
+			return CUSTOM;
+		default:
+			throw new IllegalArgumentException("Unknown dampening: " + name);
+		}
+	}
+
+	private final IntToDoubleFunction dampening;
+	private final INDArray acc;
+	private final MyDefaultGradient res = new MyDefaultGradient();
+	private final Level1 blas = Nd4j.getBlasWrapper().level1();
+
+	/**
+	 * @param layout gradient with the variables (in flattening order), their shapes and flattening orders
+	 */
+	public StalenessAggregator(Gradient layout, IntToDoubleFunction dampening) {
+		this.dampening = dampening;
+		int length = 0;
+		for (INDArray g : layout.gradientForVariable().values())
+			length += g.length();
+		acc = Nd4j.create(1, length);
+
+		// same layout as MyDefaultGradient#gradient()
+		int offset = 0;
+		for (Map.Entry<String, INDArray> e : layout.gradientForVariable().entrySet()) {
+			Character order = layout.flatteningOrderForVariable(e.getKey());
+			INDArray g = e.getValue();
+			INDArray view = acc.get(NDArrayIndex.point(0), NDArrayIndex.interval(offset, offset + g.length()));
+			res.setGradientFor(e.getKey(), view.reshape(order == null ? 'f' : order, g.shape()), order);
+			offset += g.length();
+		}
+	}
+
+	/**
+	 * @param gradients flattened gradients (see {@link MyDefaultGradient#gradient()})
+	 * @param taus staleness of each gradient
+	 */
+	public Gradient aggregate(List<INDArray> gradients, int[] taus) {
+		int n = gradients.size();
+		for (int i = 0; i < n; i++) {
+			double alpha = dampening.applyAsDouble(taus[i]) / n;
+			if (i == 0)
+				gradients.get(i).mul(alpha, acc);
+			else
+				blas.axpy(acc.length(), alpha, gradients.get(i), acc);
+		}
+		return res;
+	}
+
+	public int length() {
+		return acc.length();
+	}
+}
@@ -13,8 +13,14 @@ import socket
 import numpy as np
 import sys
 import json
+import struct
+import time
 from threading import Lock
 
+# batched binary protocol of RPCProfiler (see RPCPipeline.java)
+# frame (big-endian): length | op | count | entries
+PREDICT, RESULT, PUSH = 1, 2, 3
+
 def openServerConn(port):
   """Waits for client to open connection and returns the connection"""
   sock = socket.socket()
@@ -93,11 +99,108 @@ def getMessage(connection):
   finally:
       return result
 
+def recvExactly(connection, size):
+  """Blocks until receiving size bytes
+  Returns:
+    (bytes): data or None if the connection is closed
+  """
+  data = bytearray()
+  while len(data) < size:
+    part = connection.recv(size - len(data))
+    if not part:
+      return None
+    data += part
+  return bytes(data)
+
+def parseRow(data, offset):
+  """Parses a row (numFields | tag | value ...) starting at offset
+  Returns:
+    (list, int): fields (float or str) as in DeviceInfo.toString() and next offset
+  """
+  (n,) = struct.unpack_from(">i", data, offset)
+  offset += 4
+  row = []
+  for _ in range(n):
+    (tag,) = struct.unpack_from(">b", data, offset)
+    offset += 1
+    if tag == 0:
+      (value,) = struct.unpack_from(">d", data, offset)
+      offset += 8
+    else:
+      (size,) = struct.unpack_from(">i", data, offset)
+      offset += 4
+      value = data[offset:offset + size].decode("utf-8")
+      offset += size
+    row.append(value)
+  return row, offset
+
+def getFrame(connection):
+  """Blocks until receiving a frame
+  Returns:
+    (int, list): op and entries ([(id, row)] for PREDICT, [row] for PUSH) or None if the connection is closed
+  """
+  header = recvExactly(connection, 4)
+  if header is None:
+    return None
+  (length,) = struct.unpack(">i", header)
+  data = recvExactly(connection, length)
+  if data is None:
+    return None
+
+  op, count = struct.unpack_from(">bi", data, 0)
+  offset = 5
+  entries = []
+  for _ in range(count):
+    if op == PREDICT:
+      (reqId,) = struct.unpack_from(">q", data, offset)
+      offset += 8
+    row, offset = parseRow(data, offset)
+    entries.append((reqId, row) if op == PREDICT else row)
+  return op, entries
+
+def sendResults(sock, results):
+  """Sends the predictions [(id, [values])] of a PREDICT frame as one RESULT frame"""
+  payload = [struct.pack(">bi", RESULT, len(results))]
+  for reqId, values in results:
+    payload.append(struct.pack(">qi%dd" % len(values), reqId, len(values), *values))
+  payload = b"".join(payload)
+  sock.sendall(struct.pack(">i", len(payload)) + payload)
+
+def predictBatch(rows, per_device_index):
+  """Batched handler: predicts the mini-batch size for all the requests of a frame at once
+  Returns:
+    list: [batchSize] per row
+  """
+  results = []
+  for stats in rows:
+    key = str(stats[3])
+    per_device_index[key] = per_device_index.get(key, 0) + 8
+    print("key: ", key, per_device_index[key])
+    results.append([per_device_index[key]])
+  return results
+
+def serveBatched(conn, per_device_index):
+  """Serves the batched binary protocol until the server closes the connection"""
+  while True:
+    frame = getFrame(conn)
+    if frame is None:
+      break
+    op, entries = frame
+    if op == PREDICT:
+      ids = [reqId for reqId, _ in entries]
+      predictions = predictBatch([row for _, row in entries], per_device_index)
+      sendResults(conn, list(zip(ids, predictions)))
+    elif op == PUSH:
+      for stats in entries:
+        print("got updates for ", stats[3])
+
 if __name__ == "__main__":
 
   parser = argparse.ArgumentParser()
   parser.add_argument("--clientPort", type=int, default=9995,
       help='Port for communicating with the client; used only by the servers')
+  parser.add_argument("--batched", action="store_true",
+      help='Batched binary protocol (RPCProfiler with a coalescing window)')
 
   args = sys.argv[1:]
   args = parser.parse_args(args)
@@ -107,21 +210,24 @@ if __name__ == "__main__":
   per_device_index = {}
 
   conn = openServerConn(port=args.clientPort)
-  while True:
-   with mutex:
-    stats = getMessage(conn)
-    #print(stats)
-    if (stats[1] == "0"):
-        if stats[3] in per_device_index:
-            per_device_index[stats[3]] += 8
-            batchSize = per_device_index[stats[3]]
-            print("old key: ", stats[3], batchSize)
-            sendMessage(conn, [batchSize])
-        else:
-            per_device_index[stats[3]] = 8
-            print("new key: ", stats[3], 8)
-            sendMessage(conn, [8])
-    else:
-        print("got updates for ", stats[3])
+  if args.batched:
+    serveBatched(conn, per_device_index)
+  else:
+    while True:
+     with mutex:
+      stats = getMessage(conn)
+      #print(stats)
+      if (stats[1] == "0"):
+          if stats[3] in per_device_index:
+              per_device_index[stats[3]] += 8
+              batchSize = per_device_index[stats[3]]
+              print("old key: ", stats[3], batchSize)
+              sendMessage(conn, [batchSize])
+          else:
+              per_device_index[stats[3]] = 8
+              print("new key: ", stats[3], 8)
+              sendMessage(conn, [8])
+      else:
+          print("got updates for ", stats[3])
   closeConnection(conn)
 
@@ -725,7 +725,7 @@ public:
 	//
 	// write parameters to stream/file
 	// note that this does not persist intermediate training information that could be needed to 'pickup where you left off'
-	bool write(std::ofstream& ofs, bool binary = false, bool final = false)
+	bool write(std::ostream& ofs, bool binary = false, bool final = false)
 	{
 		// save layers
 		int layer_cnt = (int)layer_sets[MAIN_LAYER_SET].size();
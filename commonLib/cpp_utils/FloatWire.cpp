@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+#include <string.h>
+#include <vector>
+#include <string>
+#include "FloatWire.h"
+#include "Base64.h"
+
+bool FloatWire::littleEndian() {
+    unsigned int one = 1;
+    return *reinterpret_cast<unsigned char*>(&one) == 1;
+}
+
+void FloatWire::putInt(std::string& out, unsigned int value) {
+    out.push_back((char) (value & 0xff));
+    out.push_back((char) ((value >> 8) & 0xff));
+    out.push_back((char) ((value >> 16) & 0xff));
+    out.push_back((char) ((value >> 24) & 0xff));
+}
+
+unsigned int FloatWire::getInt(const char* buf) {
+    const unsigned char* b = reinterpret_cast<const unsigned char*>(buf);
+    return (unsigned int) b[0] | ((unsigned int) b[1] << 8) | ((unsigned int) b[2] << 16) | ((unsigned int) b[3] << 24);
+}
+
+std::string FloatWire::encode(const std::vector<float>& v, int hashCode, int version) {
+    if (version != BINARY)
+        return Base64::encode(v);
+
+    std::string ret;
+    ret.reserve(HEADER_SIZE + sizeof(float) * v.size());
+    putInt(ret, MAGIC);
+    putInt(ret, (unsigned int) version);
+    putInt(ret, (unsigned int) hashCode);
+    putInt(ret, (unsigned int) v.size());
+
+    if (littleEndian()) {
+        if (!v.empty())
+            ret.append(reinterpret_cast<const char*>(&v[0]), sizeof(float) * v.size());
+    }
+    else {
+        for (size_t i=0; i<v.size(); i++) {
+            unsigned int bits;
+            memcpy(&bits, &v[i], sizeof(float));
+            putInt(ret, bits);
+        }
+    }
+    return ret;
+}
+
+bool FloatWire::isBinary(const char* buf, size_t size) {
+    return size >= HEADER_SIZE && getInt(buf) == MAGIC;
+}
+
+int FloatWire::version(const char* buf, size_t size) {
+    return isBinary(buf, size) ? (int) getInt(buf + 4) : BASE64;
+}
+
+int FloatWire::hashCode(const char* buf, size_t size) {
+    return isBinary(buf, size) ? (int) getInt(buf + 8) : 0;
+}
+
+std::vector<float> FloatWire::decode(const char* buf, size_t size) {
+    if (!isBinary(buf, size))
+        return Base64::decodeFloat(std::string(buf, size));
+
+    size_t length = getInt(buf + 12);
+    // truncated payloads only yield the floats actually present
+    if (length > (size - HEADER_SIZE) / sizeof(float))
+        length = (size - HEADER_SIZE) / sizeof(float);
+
+    std::vector<float> ret(length);
+    const char* data = buf + HEADER_SIZE;
+    if (littleEndian()) {
+        if (length > 0)
+            memcpy(&ret[0], data, sizeof(float) * length);
+    }
+    else {
+        for (size_t i=0; i<length; i++) {
+            unsigned int bits = getInt(data + sizeof(float) * i);
+            memcpy(&ret[i], &bits, sizeof(float));
+        }
+    }
+    return ret;
+}
+
+std::vector<float> FloatWire::decode(const std::string& encoded) {
+    return decode(encoded.data(), encoded.size());
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+#ifndef _FLOATWIRE_H_
+#define _FLOATWIRE_H_
+
+#include <vector>
+#include <string>
+#include <stddef.h>
+
+/* Class implementing the binary wire format for float vectors
+ * Layout (little-endian):
+ *   int32 magic | int32 version | int32 hashCode | int32 length | float32[length]
+ * Payloads without the magic are legacy Base64 (version BASE64) and are decoded as such */
+class FloatWire
+{
+public:
+    static const int BASE64 = 1;
+    static const int BINARY = 2;
+    static const int HEADER_SIZE = 16;
+
+    static std::string encode(const std::vector<float>& v, int hashCode, int version);
+    static std::vector<float> decode(const char* buf, size_t size);
+    static std::vector<float> decode(const std::string& encoded);
+    static bool isBinary(const char* buf, size_t size);
+    static int version(const char* buf, size_t size);
+    static int hashCode(const char* buf, size_t size);
+private:
+    static const unsigned int MAGIC = 0x57544c46; // "FLTW"
+    static bool littleEndian();
+    static void putInt(std::string& out, unsigned int value);
+    static unsigned int getInt(const char* buf);
+};
+#endif
@@ -196,6 +196,14 @@ public class MyMultiLayerNetwork extends org.deeplearning4j.nn.multilayer.MultiL
 		solver.descent(gradient);
 	}
 
+	/**
+	 * Next {@link #applyGradients(Gradient)} starts from a fresh updater, as on a {@link #clone()}
+	 */
+	public void resetUpdater() {
+		if (solver != null)
+			solver.resetDescent();
+	}
+
     @Override
     public MyMultiLayerNetwork clone() {
         MultiLayerConfiguration conf = this.layerWiseConfigurations.clone();
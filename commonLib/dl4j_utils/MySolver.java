@@ -33,9 +33,14 @@ import java.util.List;
 */
 
 
+import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.LayerUpdater;
+import org.deeplearning4j.nn.updater.MultiLayerUpdater;
 import org.deeplearning4j.optimize.api.ConvexOptimizer;
 import org.deeplearning4j.optimize.api.IterationListener;
 import org.deeplearning4j.optimize.api.StepFunction;
@@ -43,6 +48,8 @@ import org.deeplearning4j.optimize.solvers.ConjugateGradient;
 import org.deeplearning4j.optimize.solvers.LBFGS;
 import org.deeplearning4j.optimize.solvers.LineGradientDescent;
 import org.deeplearning4j.optimize.stepfunctions.StepFunctions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 
 /**
 * Generic purpose solver
@@ -74,6 +81,35 @@ public class MySolver extends org.deeplearning4j.optimize.Solver{
        sgdopt.descent(gradient);
    }
   
+   /**
+    * Starts the next descent from a fresh updater (drops its state and picks up configuration changes, e.g., learning rates)
+    * The per-variable updaters are re-created from the configuration and re-attached to slices of the existing state view,
+    * which is zeroed (some of them, e.g., Nesterovs, replace their state array on every step => zeroing alone does not reset them)
+    * => no new updater state array per update; the step itself still allocates temporaries
+    */
+   public void resetDescent() {
+       if (sgdopt == null)
+           return;
+       if (!(sgdopt.getUpdater() instanceof MultiLayerUpdater) || !(model instanceof MultiLayerNetwork)) {
+           sgdopt = null;
+           return;
+       }
+       MultiLayerUpdater updater = (MultiLayerUpdater) sgdopt.getUpdater();
+       INDArray view = updater.getStateViewArray();
+       Updater[] layerUpdaters = updater.getLayerUpdaters();
+       int offset = 0;
+       for (int i = 0; i < layerUpdaters.length; i++) {
+           Layer layer = ((MultiLayerNetwork) model).getLayer(i);
+           int size = layerUpdaters[i].stateSizeForLayer(layer);
+           if (size == 0)
+               continue;
+           if (layerUpdaters[i] instanceof LayerUpdater)
+               ((LayerUpdater) layerUpdaters[i]).getUpdaterForVariable().clear();
+           layerUpdaters[i].setStateViewArray(layer, view.get(NDArrayIndex.point(0), NDArrayIndex.interval(offset, offset + size)), true);
+           offset += size;
+       }
+   }
+
    public ConvexOptimizer getOptimizer() {
        if(optimizer != null) return optimizer;
        switch(conf.getOptimizationAlgo()) {
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-layout binary encoding of the DeviceInfo statistics sent by the clients
+ * Layout (little-endian): magic | schema version | count | float64[count]
+ * Schema version 1 (count = NUM_STATS):
+ * availMemory, runningProcess, coreNumber, threadNumberLittle, threadNumberBig, bogoMips,
+ * networkLatency, sizeLatency, meanSizeLatency, deviceLatency, heapSize, ramSize, bandwidth, batchSize,
+ * sizeEnergy, idleEnergy, deviceEnergy, deviceAvailableRam, deviceTotalRam, deviceCpuUsage,
+ * temperature, batteryLevel, volt, cpuMaxFreq[8], cpuCurFreq[8]
+ * Newer schema versions may only append stats => older readers use the first NUM_STATS values
+ */
+public class DeviceStats {
+
+	public static final int SCHEMA_VERSION = 1;
+	public static final int NUM_STATS = 39;
+
+	public static final int HEADER_SIZE = 12;
+	private static final int MAGIC = 0x54535644; // "DVST"
+
+	public static byte[] encode(double[] stats) {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + stats.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(SCHEMA_VERSION).putInt(stats.length);
+		buf.asDoubleBuffer().put(stats);
+		return buf.array();
+	}
+
+	/**
+	 * @return the first NUM_STATS stats or null if the payload is not a valid encoding
+	 */
+	public static double[] decode(byte[] payload) {
+		if (!isBinary(payload))
+			return null;
+		ByteBuffer buf = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+		buf.position(8);
+		int count = buf.getInt();
+		if (count < NUM_STATS || count > (payload.length - HEADER_SIZE) / 8) // untrusted count => no int overflow
+			return null;
+		double[] stats = new double[NUM_STATS];
+		buf.asDoubleBuffer().get(stats);
+		return stats;
+	}
+
+	public static boolean isBinary(byte[] payload) {
+		return payload != null && payload.length >= HEADER_SIZE
+				&& ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+	}
+
+	/**
+	 * @return schema version of the payload or -1 if it is not a valid encoding
+	 */
+	public static int version(byte[] payload) {
+		return isBinary(payload) ? ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN).getInt(4) : -1;
+	}
+}
@@ -65,6 +65,141 @@ public class Helpers {
     	return temp;
     }
     
+    /**
+     * Streaming estimate of a percentile in O(1) time and space per value (P^2 algorithm, Jain & Chlamtac)
+     * Optional sliding window: the estimate follows (approximately) the last window values;
+     * the values are summarized by two alternating sketches and the older one fades out while the newer one fills up
+     */
+    public static class QuantileSketch {
+    	private final double p;
+    	private final int window;
+    	private P2 current, previous;
+    	private long count;
+
+    	/**
+    	 * @param p percentile in (0, 100]
+    	 */
+    	public QuantileSketch(double p) {
+    		this(p, 0);
+    	}
+
+    	/**
+    	 * @param window number of most recent values the estimate follows; 0 => all values
+    	 */
+    	public QuantileSketch(double p, int window) {
+    		this.p = p / 100;
+    		this.window = window;
+    		this.current = new P2(this.p);
+    	}
+
+    	public void add(double x) {
+    		if (window > 0 && current.n == window) {
+    			previous = current;
+    			current = new P2(p);
+    		}
+    		current.add(x);
+    		count++;
+    	}
+
+    	/**
+    	 * @return estimated percentile (NaN if no values)
+    	 */
+    	public double quantile() {
+    		if (previous == null)
+    			return current.quantile();
+    		double w = (double) current.n / window;
+    		return w * current.quantile() + (1 - w) * previous.quantile();
+    	}
+
+    	/**
+    	 * @return total number of values added
+    	 */
+    	public long count() {
+    		return count;
+    	}
+    }
+
+    /**
+     * P^2 markers: heights q and positions pos (1-based) of the minimum, p/2, p, (1+p)/2 quantiles and the maximum
+     */
+    private static class P2 {
+    	private final double p;
+    	private final double[] q = new double[5], desired = new double[5], increment;
+    	private final int[] pos = new int[5];
+    	int n;
+
+    	P2(double p) {
+    		this.p = p;
+    		this.increment = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+    	}
+
+    	void add(double x) {
+    		if (n < 5) {
+    			// exact until the 5 markers are initialized (insertion sort)
+    			int i = n++;
+    			for (; i > 0 && q[i-1] > x; i--)
+    				q[i] = q[i-1];
+    			q[i] = x;
+    			if (n == 5) {
+    				for (int j = 0; j < 5; j++)
+    					pos[j] = j + 1;
+    				desired[0] = 1; desired[1] = 1 + 2*p; desired[2] = 1 + 4*p; desired[3] = 3 + 2*p; desired[4] = 5;
+    			}
+    			return;
+    		}
+    		n++;
+
+    		int k;
+    		if (x < q[0]) {
+    			q[0] = x;
+    			k = 0;
+    		}
+    		else if (x >= q[4]) {
+    			q[4] = x;
+    			k = 3;
+    		}
+    		else
+    			for (k = 0; x >= q[k+1]; k++)
+    				;
+    		for (int i = k+1; i < 5; i++)
+    			pos[i]++;
+    		for (int i = 0; i < 5; i++)
+    			desired[i] += increment[i];
+
+    		// adjust the middle markers
+    		for (int i = 1; i < 4; i++) {
+    			double d = desired[i] - pos[i];
+    			if ((d >= 1 && pos[i+1] - pos[i] > 1) || (d <= -1 && pos[i-1] - pos[i] < -1)) {
+    				int s = d > 0 ? 1 : -1;
+    				double h = parabolic(i, s);
+    				if (q[i-1] < h && h < q[i+1])
+    					q[i] = h;
+    				else
+    					q[i] += s * (q[i+s] - q[i]) / (pos[i+s] - pos[i]);
+    				pos[i] += s;
+    			}
+    		}
+    	}
+
+    	private double parabolic(int i, int s) {
+    		return q[i] + (double) s / (pos[i+1] - pos[i-1]) * ((pos[i] - pos[i-1] + s) * (q[i+1] - q[i]) / (pos[i+1] - pos[i])
+    				+ (pos[i+1] - pos[i] - s) * (q[i] - q[i-1]) / (pos[i] - pos[i-1]));
+    	}
+
+    	double quantile() {
+    		if (n == 0)
+    			return Double.NaN;
+    		if (n < 5) { // same estimate as commons-math Percentile on the sorted values
+    			double[] sorted = new double[n];
+    			System.arraycopy(q, 0, sorted, 0, n);
+    			return new Percentile().evaluate(sorted, p * 100);
+    		}
+    		if (p >= 1)
+    			return q[4];
+    		return q[2];
+    	}
+    }
+
     public static class Tuple<X, Y> { 
     	  public X x; 
     	  public Y y; 
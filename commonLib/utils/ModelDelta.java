@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.util.zip.CRC32;
+
+/**
+ * Lossless delta between two serialized models of the same architecture (e.g., mojo binary models of two epochs)
+ * Layout (little-endian): magic | baseEpoch | target length | CRC32 of target | byte planes of (target XOR base)
+ * The XOR is split into 4 byte planes aligned to the float32 values at the end of the model => the planes holding
+ * sign, exponent and high mantissa bits of slightly updated weights are mostly zero and compress to almost nothing
+ * Reconstruction is exact (no drift across consecutive deltas); the checksum rejects a delta applied to a wrong base
+ */
+public class ModelDelta {
+
+	public static final int HEADER_SIZE = 16;
+	private static final int MAGIC = 0x544c444d; // "MDLT"
+
+	/**
+	 * @param baseEpoch epoch of the base model held by the client
+	 * @return null if the models are not comparable (different sizes)
+	 */
+	public static byte[] encode(byte[] base, byte[] target, int baseEpoch) {
+		if (base == null || target == null || base.length != target.length)
+			return null;
+
+		int n = target.length;
+		int pad = (4 - n % 4) % 4; // align the planes with the end of the payload (where the floats are)
+		int groups = (n + pad) / 4;
+		byte[] ret = new byte[HEADER_SIZE + 4 * groups];
+		putInt(ret, 0, MAGIC);
+		putInt(ret, 4, baseEpoch);
+		putInt(ret, 8, n);
+		putInt(ret, 12, checksum(target));
+		for (int i = 0; i < n; i++) {
+			int v = i + pad;
+			ret[HEADER_SIZE + (v % 4) * groups + v / 4] = (byte) (target[i] ^ base[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the target model or null if the delta does not apply to base (size or checksum mismatch)
+	 */
+	public static byte[] apply(byte[] base, byte[] delta) {
+		if (!isDelta(delta) || base == null || getInt(delta, 8) != base.length)
+			return null;
+
+		int n = base.length;
+		int pad = (4 - n % 4) % 4;
+		int groups = (n + pad) / 4;
+		if (delta.length != HEADER_SIZE + 4 * groups)
+			return null;
+
+		byte[] ret = new byte[n];
+		for (int i = 0; i < n; i++) {
+			int v = i + pad;
+			ret[i] = (byte) (base[i] ^ delta[HEADER_SIZE + (v % 4) * groups + v / 4]);
+		}
+		return checksum(ret) == getInt(delta, 12) ? ret : null;
+	}
+
+	public static boolean isDelta(byte[] payload) {
+		return payload != null && payload.length >= HEADER_SIZE && getInt(payload, 0) == MAGIC;
+	}
+
+	/**
+	 * @return epoch of the model the delta refers to
+	 */
+	public static int baseEpoch(byte[] delta) {
+		return getInt(delta, 4);
+	}
+
+	private static int checksum(byte[] model) {
+		CRC32 crc = new CRC32();
+		crc.update(model, 0, model.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Thrown by clients that received a delta that does not apply to the model they hold
+	 */
+	public static class MismatchException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		public MismatchException(String message) {
+			super(message);
+		}
+	}
+
+	private static void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) value;
+		b[offset + 1] = (byte) (value >> 8);
+		b[offset + 2] = (byte) (value >> 16);
+		b[offset + 3] = (byte) (value >> 24);
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+	}
+}
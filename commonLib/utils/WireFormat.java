@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020 Georgios Damaskinos
+ * All rights reserved.
+ * @author Georgios Damaskinos <georgios.damaskinos@gmail.com>
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wire format versions for the float vectors exchanged with the native backends (see cpp_utils/FloatWire.h)
+ * Binary payload layout (little-endian): magic | version | hashCode | length | float32[length]
+ */
+public class WireFormat {
+
+	/** legacy Base64 encoding (default for clients that do not send a wireVersion) */
+	public static final int BASE64 = 1;
+	/** raw little-endian float32 with header */
+	public static final int BINARY = 2;
+
+	public static final int HEADER_SIZE = 16;
+	private static final int MAGIC = 0x57544c46; // "FLTW"
+
+	/**
+	 * Parses the wireVersion sent by a client
+	 * @param value null or unknown => BASE64
+	 */
+	public static int parse(String value) {
+		if (value == null)
+			return BASE64;
+		try {
+			int version = Integer.parseInt(value.trim());
+			return version == BINARY ? BINARY : BASE64;
+		} catch (NumberFormatException e) {
+			return BASE64;
+		}
+	}
+
+	public static boolean isBinary(byte[] payload) {
+		return payload != null && payload.length >= HEADER_SIZE && getInt(payload, 0) == MAGIC;
+	}
+
+	/**
+	 * @return the version of the payload (BASE64 if there is no binary header)
+	 */
+	public static int version(byte[] payload) {
+		return isBinary(payload) ? getInt(payload, 4) : BASE64;
+	}
+
+	/**
+	 * @return the model hashCode stamped on the payload or 0 for legacy payloads
+	 */
+	public static int hashCode(byte[] payload) {
+		return isBinary(payload) ? getInt(payload, 8) : 0;
+	}
+
+	/**
+	 * @return the number of floats in the payload or -1 for legacy payloads
+	 */
+	public static int length(byte[] payload) {
+		return isBinary(payload) ? getInt(payload, 12) : -1;
+	}
+
+	/**
+	 * Writes the binary header at the current position of dst (little-endian)
+	 */
+	public static void putHeader(ByteBuffer dst, int hashCode, int length) {
+		ByteOrder order = dst.order();
+		dst.order(ByteOrder.LITTLE_ENDIAN);
+		dst.putInt(MAGIC).putInt(BINARY).putInt(hashCode).putInt(length);
+		dst.order(order);
+	}
+
+	/**
+	 * @return binary payload with the floats [from, to) of the given binary payload (same hashCode)
+	 */
+	public static byte[] slice(byte[] payload, int from, int to) {
+		if (!isBinary(payload) || from < 0 || to < from || to > length(payload))
+			throw new IllegalArgumentException("Invalid slice [" + from + ", " + to + ") of the wire payload");
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + (to - from) * 4);
+		putHeader(out, hashCode(payload), to - from);
+		out.put(payload, HEADER_SIZE + from * 4, (to - from) * 4);
+		return out.array();
+	}
+
+	private static int getInt(byte[] b, int offset) {
+		return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+	}
+}